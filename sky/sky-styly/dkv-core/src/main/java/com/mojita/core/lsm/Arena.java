@@ -0,0 +1,202 @@
+package com.mojita.core.lsm;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 内存池 - 为{@link ArenaSkipList}按块分配记录和链接
+ *
+ * 记录（序号和类型标记、键、值）存放在堆外的直接内存块中，地址为块编号(高32位) + 块内偏移(低32位)；
+ * 跳表节点的链接存放在少数几个大的long数组块中，节点编号是链接空间中的全局下标。
+ * 两种空间都用一个原子游标分配，普通分配只需一次CAS，只有当前块用完时才加锁申请新块；
+ * 超过块大小1/4的记录单独占一块，避免浪费当前块的剩余空间。链接块的字节数不超过记录块，小内存池不会被一个大链接块占满。
+ *
+ * 内存按块申请时计入{@link #memoryUsage()}，包括块尾未用完的部分，反映内存池实际占用的内存；
+ * {@link #allocatedBytes()}只累计记录和链接实际请求的字节数。
+ *
+ * 块数组写时复制，读取方总是看到已发布的块；内存池没有逐条释放的操作，整个内存池不再被引用时一次性回收
+ */
+final class Arena {
+    // 链接块大小（long个数）的上下限，取2的幂
+    private static final int MIN_LINK_BLOCK_SHIFT = 6;
+    private static final int MAX_LINK_BLOCK_SHIFT = 16;
+
+    private final int blockSize;
+
+    // 链接块的大小（long个数）
+    private final int linkBlockShift;
+    private final int linkBlockSize;
+
+    // 记录块，写时复制
+    private volatile ByteBuffer[] blocks;
+    // 当前记录块的编号(高32位)和已用字节数(低32位)
+    private final AtomicLong cursor;
+
+    // 链接块，写时复制
+    private volatile AtomicLongArray[] linkBlocks;
+    // 下一个空闲的链接下标
+    private final AtomicLong linkCursor;
+
+    // 已申请的块的总字节数
+    private final AtomicLong reservedBytes;
+    // 记录和链接实际请求的字节数
+    private final AtomicLong usedBytes;
+
+    /**
+     * 构造函数
+     * @param blockSize 记录块大小
+     */
+    Arena(int blockSize) {
+        this.blockSize = blockSize;
+        this.linkBlockShift = linkBlockShift(blockSize);
+        this.linkBlockSize = 1 << linkBlockShift;
+        this.blocks = new ByteBuffer[] {ByteBuffer.allocateDirect(blockSize)};
+        this.cursor = new AtomicLong(0);
+        this.linkBlocks = new AtomicLongArray[] {new AtomicLongArray(linkBlockSize)};
+        // 下标0保留，表示空链接
+        this.linkCursor = new AtomicLong(1);
+        this.reservedBytes = new AtomicLong(blockSize + 8L * linkBlockSize);
+        this.usedBytes = new AtomicLong(0);
+    }
+
+    /**
+     * 计算链接块大小：不超过记录块的字节数，且在上下限之间
+     * @param blockSize 记录块大小
+     * @return 链接块long个数的对数
+     */
+    static int linkBlockShift(int blockSize) {
+        int shift = 31 - Integer.numberOfLeadingZeros(Math.max(1, blockSize / 8));
+        return Math.max(MIN_LINK_BLOCK_SHIFT, Math.min(MAX_LINK_BLOCK_SHIFT, shift));
+    }
+
+    /**
+     * 分配一段记录空间
+     * @param size 字节数
+     * @return 地址
+     */
+    long allocate(int size) {
+        if (size > blockSize / 4) {
+            usedBytes.addAndGet(size);
+            reservedBytes.addAndGet(size);
+            synchronized (this) {
+                return (long) addBlock(ByteBuffer.allocateDirect(size)) << 32;
+            }
+        }
+        while (true) {
+            long current = cursor.get();
+            int offset = (int) current;
+            if (offset + size <= blockSize) {
+                if (cursor.compareAndSet(current, current + size)) {
+                    usedBytes.addAndGet(size);
+                    return current;
+                }
+            } else {
+                nextBlock(current);
+            }
+        }
+    }
+
+    /**
+     * 当前块用完时换上新块，多个线程同时发现时只有一个申请
+     * @param exhausted 发现用完时的游标
+     */
+    private synchronized void nextBlock(long exhausted) {
+        if (cursor.get() == exhausted) {
+            cursor.set((long) addBlock(ByteBuffer.allocateDirect(blockSize)) << 32);
+            reservedBytes.addAndGet(blockSize);
+        }
+    }
+
+    private int addBlock(ByteBuffer block) {
+        ByteBuffer[] current = blocks;
+        ByteBuffer[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = block;
+        blocks = grown;
+        return current.length;
+    }
+
+    /**
+     * 获取地址所在的记录块
+     * @param address 地址
+     * @return 记录块，用{@link #offset(long)}定位
+     */
+    ByteBuffer block(long address) {
+        return blocks[(int) (address >>> 32)];
+    }
+
+    static int offset(long address) {
+        return (int) address;
+    }
+
+    /**
+     * 分配一组连续的链接，不跨越链接块
+     * @param count 链接数
+     * @return 第一个链接的下标
+     */
+    long allocateLinks(int count) {
+        while (true) {
+            long current = linkCursor.get();
+            long start = current;
+            long end = start + count;
+            if ((start >>> linkBlockShift) != ((end - 1) >>> linkBlockShift)) {
+                // 当前块剩余空间不足，从下一个块的开头分配
+                start = (end - 1) >>> linkBlockShift << linkBlockShift;
+                end = start + count;
+            }
+            if (linkCursor.compareAndSet(current, end)) {
+                ensureLinkBlock((int) ((end - 1) >>> linkBlockShift));
+                usedBytes.addAndGet(8L * count);
+                return start;
+            }
+        }
+    }
+
+    private void ensureLinkBlock(int index) {
+        if (index < linkBlocks.length) {
+            return;
+        }
+        synchronized (this) {
+            AtomicLongArray[] current = linkBlocks;
+            if (index < current.length) {
+                return;
+            }
+            AtomicLongArray[] grown = Arrays.copyOf(current, index + 1);
+            for (int i = current.length; i <= index; i++) {
+                grown[i] = new AtomicLongArray(linkBlockSize);
+            }
+            reservedBytes.addAndGet(8L * linkBlockSize * (grown.length - current.length));
+            linkBlocks = grown;
+        }
+    }
+
+    long getLink(long index) {
+        return linkBlocks[(int) (index >>> linkBlockShift)].get((int) index & (linkBlockSize - 1));
+    }
+
+    void setLink(long index, long value) {
+        linkBlocks[(int) (index >>> linkBlockShift)].set((int) index & (linkBlockSize - 1), value);
+    }
+
+    boolean casLink(long index, long expected, long value) {
+        return linkBlocks[(int) (index >>> linkBlockShift)]
+            .compareAndSet((int) index & (linkBlockSize - 1), expected, value);
+    }
+
+    /**
+     * 获取内存池占用的内存
+     * @return 已申请的记录块和链接块的总字节数
+     */
+    long memoryUsage() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * 获取已分配的字节数
+     * @return 记录和链接实际请求的字节数，不含块尾未用的部分
+     */
+    long allocatedBytes() {
+        return usedBytes.get();
+    }
+}
@@ -0,0 +1,136 @@
+package com.mojita.core.lsm;
+
+import com.mojita.core.lsm.config.MemTableConfig;
+import com.mojita.core.lsm.util.InternalKey;
+import com.mojita.core.lsm.util.ValueType;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 内存池MemTable - 键、值和跳表节点都存放在{@link ArenaSkipList}的内存池中
+ * 每条记录只占内存池中的一段字节和几个链接，不产生堆对象，写入速率高时GC压力远小于{@link DefaultMemTable}；
+ * 大小就是内存池已申请的块的总字节数（含块尾未用的部分），不再按每条记录估算节点开销，
+ * 刷盘阈值和写入控制看到的是实际占用的内存。刷盘安装后整个内存池一次丢弃。
+ *
+ * 与DefaultMemTable一样，每次写入和删除都追加一个带序号的新版本，删除写入删除标记
+ */
+public class ArenaMemTable implements MemTable {
+    // 内存池块大小的下限
+    private static final int MIN_BLOCK_SIZE = 1024;
+
+    private static final byte[] EMPTY_VALUE = new byte[0];
+
+    // 内部数据存储
+    private final ArenaSkipList data;
+
+    // 配置参数
+    private final MemTableConfig config;
+
+    // WAL管理器
+    private final WALManager walManager;
+
+    // 创建时间
+    private final long createdTimeMs;
+
+    // 本MemTable的数据写入的WAL段（创建时的当前段）
+    private final long walSegmentNumber;
+
+    /**
+     * 构造函数
+     * @param config 内存表配置，内存池块大小不超过MemTable上限的1/4
+     * @param walManager WAL管理器
+     */
+    public ArenaMemTable(MemTableConfig config, WALManager walManager) {
+        long blockSize = Math.min(config.getArenaBlockSize(), config.getMaxSize() / 4);
+        this.data = new ArenaSkipList((int) Math.max(MIN_BLOCK_SIZE, blockSize));
+        this.config = config;
+        this.walManager = walManager;
+        this.createdTimeMs = System.currentTimeMillis();
+        this.walSegmentNumber = walManager != null ? walManager.getCurrentSegmentNumber() : 0;
+    }
+
+    @Override
+    public boolean put(byte[] key, byte[] value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Key and value cannot be null");
+        }
+        if (walManager == null) {
+            throw new IllegalStateException("WAL Manager is not initialized");
+        }
+
+        long sequence = walManager.appendEntry(key, value);
+        data.insert(key, InternalKey.pack(sequence, ValueType.PUT), value);
+        return shouldFlush();
+    }
+
+    @Override
+    public boolean write(WriteBatch batch) {
+        if (walManager == null) {
+            throw new IllegalStateException("WAL Manager is not initialized");
+        }
+        if (batch.isEmpty()) {
+            return shouldFlush();
+        }
+
+        // 整个批次一条WAL记录，操作的序号从起始序号依次递增
+        long sequence = walManager.appendBatch(batch);
+        for (WALRecord operation : batch.getOperations()) {
+            if (operation.isDeletion()) {
+                data.insert(operation.getKey(), InternalKey.pack(sequence++, ValueType.DELETE), EMPTY_VALUE);
+            } else {
+                data.insert(operation.getKey(), InternalKey.pack(sequence++, ValueType.PUT), operation.getValue());
+            }
+        }
+        return shouldFlush();
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        Map.Entry<InternalKey, byte[]> entry = lookup(key);
+        if (entry == null || entry.getKey().isDeletion()) {
+            return null;
+        }
+        return entry.getValue();
+    }
+
+    @Override
+    public Map.Entry<InternalKey, byte[]> lookup(byte[] key) {
+        return data.lookup(key);
+    }
+
+    @Override
+    public Iterator<Map.Entry<InternalKey, byte[]>> iterator(byte[] startKey) {
+        return data.iterator(startKey);
+    }
+
+    @Override
+    public boolean delete(byte[] key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+
+        long sequence = walManager.appendDeletion(key);
+        data.insert(key, InternalKey.pack(sequence, ValueType.DELETE), EMPTY_VALUE);
+        return shouldFlush();
+    }
+
+    @Override
+    public long size() {
+        return data.memoryUsage();
+    }
+
+    @Override
+    public boolean shouldFlush() {
+        if (data.memoryUsage() >= config.getMaxSize()) {
+            return true;
+        }
+        return config.getMaxLifetimeMs() > 0
+            && System.currentTimeMillis() - createdTimeMs > config.getMaxLifetimeMs();
+    }
+
+    @Override
+    public ImmutableMemTable switchToImmutable() {
+        return new ImmutableMemTable(data, data.memoryUsage(), walSegmentNumber);
+    }
+}
@@ -0,0 +1,280 @@
+package com.mojita.core.lsm;
+
+import com.mojita.core.lsm.util.InternalKey;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内存池跳表 - 记录和节点都在{@link Arena}中的并发跳表，按内部键排序
+ *
+ * 记录格式：序号和类型标记(8) + 键长度(4) + 值长度(4) + 键 + 值。
+ * 节点由一组连续的链接组成：[记录地址, 第0层后继, 第1层后继, ...]，节点编号为第一个链接的下标，0表示空。
+ *
+ * 插入无锁：先写好记录和节点，再从第0层开始逐层用CAS把节点接入前驱之后，
+ * CAS失败说明前驱之后插入了别的节点，从原前驱向后重新定位再试。节点只增不删，前驱始终有效；
+ * 接入第0层的CAS发布了节点，之后的读取都能看到完整的记录。查找和迭代不加锁，与插入并发时弱一致
+ */
+final class ArenaSkipList implements MemTableStore {
+    // 最大层数
+    static final int MAX_HEIGHT = 12;
+
+    // 记录头：序号和类型标记(8) + 键长度(4) + 值长度(4)
+    static final int RECORD_HEADER_SIZE = 16;
+
+    private static final long NIL = 0;
+
+    // 查找用的标记，与InternalKey.lookupKey相同，排在同一用户键的所有版本之前
+    private static final long LOOKUP_TAG = -1L;
+
+    // 释放后为null
+    private volatile Arena arena;
+    private final long head;
+    private final AtomicInteger maxHeight;
+    private final AtomicInteger count;
+
+    /**
+     * 构造函数
+     * @param blockSize 内存池的记录块大小
+     */
+    ArenaSkipList(int blockSize) {
+        this.arena = new Arena(blockSize);
+        this.head = arena.allocateLinks(1 + MAX_HEIGHT);
+        this.maxHeight = new AtomicInteger(1);
+        this.count = new AtomicInteger(0);
+    }
+
+    /**
+     * 插入一条记录，内部键不能与已有记录相同
+     * @param key 用户键
+     * @param tag 序号和类型标记
+     * @param value 值
+     */
+    void insert(byte[] key, long tag, byte[] value) {
+        Arena arena = this.arena;
+        int height = randomHeight();
+        int max = maxHeight.get();
+        while (height > max && !maxHeight.compareAndSet(max, height)) {
+            max = maxHeight.get();
+        }
+
+        // 写入记录和节点，接入跳表之前其他线程看不到
+        long address = arena.allocate(RECORD_HEADER_SIZE + key.length + value.length);
+        ByteBuffer block = arena.block(address);
+        int offset = Arena.offset(address);
+        block.putLong(offset, tag);
+        block.putInt(offset + 8, key.length);
+        block.putInt(offset + 12, value.length);
+        ByteBuffer view = block.duplicate();
+        view.position(offset + RECORD_HEADER_SIZE);
+        view.put(key);
+        view.put(value);
+        long node = arena.allocateLinks(1 + height);
+        arena.setLink(node, address);
+
+        // 自顶向下记录每层的前驱和后继
+        long[] prev = new long[MAX_HEIGHT];
+        long[] next = new long[MAX_HEIGHT];
+        long x = head;
+        for (int level = Math.max(max, height) - 1; level >= 0; level--) {
+            long n;
+            while ((n = arena.getLink(x + 1 + level)) != NIL && compare(arena, n, key, tag) < 0) {
+                x = n;
+            }
+            prev[level] = x;
+            next[level] = n;
+        }
+
+        // 自底向上逐层接入
+        for (int level = 0; level < height; level++) {
+            while (true) {
+                arena.setLink(node + 1 + level, next[level]);
+                if (arena.casLink(prev[level] + 1 + level, next[level], node)) {
+                    break;
+                }
+                long p = prev[level];
+                long n;
+                while ((n = arena.getLink(p + 1 + level)) != NIL && compare(arena, n, key, tag) < 0) {
+                    p = n;
+                }
+                prev[level] = p;
+                next[level] = n;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private static int randomHeight() {
+        int height = 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // 每层以1/4的概率升高
+        while (height < MAX_HEIGHT && random.nextInt(4) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * 比较节点的内部键与给定的内部键
+     * @param arena 内存池
+     * @param node 节点
+     * @param key 用户键
+     * @param tag 序号和类型标记
+     * @return 节点排在给定键之前时为负数
+     */
+    private static int compare(Arena arena, long node, byte[] key, long tag) {
+        long address = arena.getLink(node);
+        ByteBuffer block = arena.block(address);
+        int offset = Arena.offset(address);
+        int keyLength = block.getInt(offset + 8);
+        int limit = Math.min(keyLength, key.length);
+        int keyOffset = offset + RECORD_HEADER_SIZE;
+        for (int i = 0; i < limit; i++) {
+            int cmp = Byte.compare(block.get(keyOffset + i), key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        if (keyLength != key.length) {
+            return Integer.compare(keyLength, key.length);
+        }
+        // 同一用户键按标记降序，标记最高位可能为1，按无符号比较
+        return Long.compareUnsigned(tag, block.getLong(offset));
+    }
+
+    /**
+     * 查找第一个不小于给定内部键的节点
+     * @param arena 内存池
+     * @param key 用户键
+     * @param tag 序号和类型标记
+     * @return 节点，不存在时返回NIL
+     */
+    private long seek(Arena arena, byte[] key, long tag) {
+        long x = head;
+        long n = NIL;
+        for (int level = maxHeight.get() - 1; level >= 0; level--) {
+            while ((n = arena.getLink(x + 1 + level)) != NIL && compare(arena, n, key, tag) < 0) {
+                x = n;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public Map.Entry<InternalKey, byte[]> lookup(byte[] key) {
+        Arena arena = this.arena;
+        if (arena == null) {
+            return null;
+        }
+        long node = seek(arena, key, LOOKUP_TAG);
+        if (node == NIL) {
+            return null;
+        }
+        long address = arena.getLink(node);
+        ByteBuffer block = arena.block(address);
+        int offset = Arena.offset(address);
+        if (block.getInt(offset + 8) != key.length) {
+            return null;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (block.get(offset + RECORD_HEADER_SIZE + i) != key[i]) {
+                return null;
+            }
+        }
+        return entry(arena, node);
+    }
+
+    /**
+     * 复制节点的内部键和值
+     * @param arena 内存池
+     * @param node 节点
+     * @return 记录
+     */
+    private static Map.Entry<InternalKey, byte[]> entry(Arena arena, long node) {
+        long address = arena.getLink(node);
+        ByteBuffer block = arena.block(address);
+        int offset = Arena.offset(address);
+        long tag = block.getLong(offset);
+        byte[] key = new byte[block.getInt(offset + 8)];
+        byte[] value = new byte[block.getInt(offset + 12)];
+        ByteBuffer view = block.duplicate();
+        view.position(offset + RECORD_HEADER_SIZE);
+        view.get(key);
+        view.get(value);
+        return new AbstractMap.SimpleImmutableEntry<>(InternalKey.fromTag(key, tag), value);
+    }
+
+    @Override
+    public Iterator<Map.Entry<InternalKey, byte[]>> iterator(byte[] startKey) {
+        Arena arena = this.arena;
+        if (arena == null) {
+            return Collections.emptyIterator();
+        }
+        long first = startKey == null
+            ? arena.getLink(head + 1)
+            : seek(arena, startKey, LOOKUP_TAG);
+        return new Iterator<Map.Entry<InternalKey, byte[]>>() {
+            private long node = first;
+
+            @Override
+            public boolean hasNext() {
+                return node != NIL;
+            }
+
+            @Override
+            public Map.Entry<InternalKey, byte[]> next() {
+                if (node == NIL) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<InternalKey, byte[]> entry = entry(arena, node);
+                node = arena.getLink(node + 1);
+                return entry;
+            }
+        };
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count.get() == 0;
+    }
+
+    /**
+     * 获取记录数
+     * @return 记录数
+     */
+    int count() {
+        return count.get();
+    }
+
+    /**
+     * 获取内存池占用的内存，按已申请的块计算
+     * @return 字节数，释放后为0
+     */
+    long memoryUsage() {
+        Arena arena = this.arena;
+        return arena != null ? arena.memoryUsage() : 0;
+    }
+
+    /**
+     * 获取内存池中记录和链接实际请求的字节数
+     * @return 字节数，释放后为0
+     */
+    long allocatedBytes() {
+        Arena arena = this.arena;
+        return arena != null ? arena.allocatedBytes() : 0;
+    }
+
+    /**
+     * 丢弃整个内存池，正在进行的查找和迭代仍持有它，结束后一起回收
+     */
+    @Override
+    public void release() {
+        arena = null;
+    }
+}
@@ -1,29 +1,26 @@
 package com.mojita.core.lsm;
 
 import com.mojita.core.lsm.config.MemTableConfig;
+import com.mojita.core.lsm.util.Bytes;
+import com.mojita.core.lsm.util.InternalKey;
+import com.mojita.core.lsm.util.ValueType;
+
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.Arrays;
-import java.util.Comparator;
 
 /**
  * MemTable默认实现 - 使用ConcurrentSkipListMap作为内部存储
+ * 键为带序号的内部键，每次写入和删除都追加一个新版本，删除写入删除标记而不是移除旧值，
+ * 因此删除能遮蔽不可变MemTable和SSTable中的旧值
  */
 public class DefaultMemTable implements MemTable {
-    // 字节数组比较器
-    private static final Comparator<byte[]> BYTES_COMPARATOR = (a, b) -> {
-        int minLength = Math.min(a.length, b.length);
-        for (int i = 0; i < minLength; i++) {
-            int diff = Byte.compare(a[i], b[i]);
-            if (diff != 0) {
-                return diff;
-            }
-        }
-        return Integer.compare(a.length, b.length);
-    };
+    // 每条记录的固定开销：SkipList节点(16) + 序号和类型标记(8)
+    static final int ENTRY_OVERHEAD = 16 + 8;
     
     // 内部数据存储
-    private final ConcurrentSkipListMap<byte[], byte[]> data;
+    private final ConcurrentSkipListMap<InternalKey, byte[]> data;
     
     // 当前大小追踪
     private final AtomicLong currentSize;
@@ -37,17 +34,21 @@ public class DefaultMemTable implements MemTable {
     // 创建时间
     private final long createdTimeMs;
     
+    // 本MemTable的数据写入的WAL段（创建时的当前段）
+    private final long walSegmentNumber;
+    
     /**
      * 构造函数
      * @param config 内存表配置
      * @param walManager WAL管理器
      */
     public DefaultMemTable(MemTableConfig config, WALManager walManager) {
-        this.data = new ConcurrentSkipListMap<>(BYTES_COMPARATOR);
+        this.data = new ConcurrentSkipListMap<>(InternalKey.COMPARATOR);
         this.currentSize = new AtomicLong(0);
         this.config = config;
         this.walManager = walManager;
         this.createdTimeMs = System.currentTimeMillis();
+        this.walSegmentNumber = walManager != null ? walManager.getCurrentSegmentNumber() : 0;
     }
     
     @Override
@@ -60,18 +61,40 @@ public class DefaultMemTable implements MemTable {
             throw new IllegalStateException("WAL Manager is not initialized");
         }
 
-        // 写入WAL
-        walManager.appendEntry(key, value);
+        // 写入WAL并获得序号
+        long sequence = walManager.appendEntry(key, value);
+        
+        // 追加新版本，旧版本保留到刷盘时丢弃
+        data.put(new InternalKey(key, sequence, ValueType.PUT), value);
+        currentSize.addAndGet(key.length + value.length + ENTRY_OVERHEAD);
         
-        // 更新内存表
-        byte[] oldValue = data.put(key, value);
+        // 检查是否需要刷盘
+        return shouldFlush();
+    }
+    
+    @Override
+    public boolean write(WriteBatch batch) {
+        if (walManager == null) {
+            throw new IllegalStateException("WAL Manager is not initialized");
+        }
+        if (batch.isEmpty()) {
+            return shouldFlush();
+        }
         
-        // 更新内存占用
-        if (oldValue != null) {
-            currentSize.addAndGet(key.length + value.length - oldValue.length);
-        } else {
-            currentSize.addAndGet(key.length + value.length + 16); // 16字节为SkipList节点开销
+        // 整个批次一条WAL记录，操作的序号从起始序号依次递增
+        long sequence = walManager.appendBatch(batch);
+        long added = 0;
+        for (WALRecord operation : batch.getOperations()) {
+            byte[] key = operation.getKey();
+            if (operation.isDeletion()) {
+                data.put(new InternalKey(key, sequence++, ValueType.DELETE), new byte[0]);
+                added += key.length + ENTRY_OVERHEAD;
+            } else {
+                data.put(new InternalKey(key, sequence++, ValueType.PUT), operation.getValue());
+                added += key.length + operation.getValue().length + ENTRY_OVERHEAD;
+            }
         }
+        currentSize.addAndGet(added);
         
         // 检查是否需要刷盘
         return shouldFlush();
@@ -79,26 +102,68 @@ public class DefaultMemTable implements MemTable {
     
     @Override
     public byte[] get(byte[] key) {
-        return data.get(key);
+        Map.Entry<InternalKey, byte[]> entry = lookup(key);
+        if (entry == null || entry.getKey().isDeletion()) {
+            return null;
+        }
+        return entry.getValue();
+    }
+    
+    @Override
+    public Map.Entry<InternalKey, byte[]> lookup(byte[] key) {
+        return lookup(data, key);
+    }
+    
+    @Override
+    public Iterator<Map.Entry<InternalKey, byte[]>> iterator(byte[] startKey) {
+        return iterator(data, startKey);
     }
     
     @Override
     public boolean delete(byte[] key) {
-        // 写入WAL（删除标记）
-        walManager.appendDeletion(key);
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
         
-        // 从内存表删除
-        byte[] oldValue = data.remove(key);
+        // 写入WAL（删除标记）
+        long sequence = walManager.appendDeletion(key);
         
-        // 更新内存占用
-        if (oldValue != null) {
-            currentSize.addAndGet(-(key.length + oldValue.length));
-        }
+        // 写入删除标记
+        data.put(new InternalKey(key, sequence, ValueType.DELETE), new byte[0]);
+        currentSize.addAndGet(key.length + ENTRY_OVERHEAD);
         
         // 检查是否需要刷盘
         return shouldFlush();
     }
     
+    /**
+     * 在按内部键排序的表中查找用户键的最新版本
+     * @param data 内部键有序的数据
+     * @param key 用户键
+     * @return 最新版本，不存在则返回null
+     */
+    static Map.Entry<InternalKey, byte[]> lookup(ConcurrentSkipListMap<InternalKey, byte[]> data, byte[] key) {
+        Map.Entry<InternalKey, byte[]> entry = data.ceilingEntry(InternalKey.lookupKey(key));
+        if (entry == null || Bytes.compare(entry.getKey().getUserKey(), key) != 0) {
+            return null;
+        }
+        return entry;
+    }
+    
+    /**
+     * 从指定用户键开始迭代按内部键排序的表
+     * @param data 内部键有序的数据
+     * @param startKey 起始用户键（包含），null表示从头开始
+     * @return 迭代器，并发写入时弱一致
+     */
+    static Iterator<Map.Entry<InternalKey, byte[]>> iterator(ConcurrentSkipListMap<InternalKey, byte[]> data,
+                                                             byte[] startKey) {
+        if (startKey == null) {
+            return data.entrySet().iterator();
+        }
+        return data.tailMap(InternalKey.lookupKey(startKey), true).entrySet().iterator();
+    }
+    
     @Override
     public long size() {
         return currentSize.get();
@@ -122,6 +187,6 @@ public class DefaultMemTable implements MemTable {
     
     @Override
     public ImmutableMemTable switchToImmutable() {
-        return new ImmutableMemTable(data, currentSize.get());
+        return new ImmutableMemTable(data, currentSize.get(), walSegmentNumber);
     }
 } 
\ No newline at end of file
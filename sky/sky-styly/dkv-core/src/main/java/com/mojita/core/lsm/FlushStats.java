@@ -0,0 +1,79 @@
+package com.mojita.core.lsm;
+
+/**
+ * 刷盘统计快照 - 用于观察刷盘是否跟得上写入
+ * 刷盘延迟从MemTable被切换为不可变开始计时，到其SSTable安装到版本集合为止，包含排队、写文件和等待按序安装的时间
+ */
+public class FlushStats {
+    private final int queueDepth;
+    private final int runningFlushes;
+    private final long completedFlushes;
+    private final long failedFlushes;
+    private final long flushedBytes;
+    private final long totalLatencyNanos;
+    private final long maxLatencyNanos;
+
+    /**
+     * 构造函数
+     * @param queueDepth 等待刷盘或安装的不可变MemTable数
+     * @param runningFlushes 正在写SSTable的刷盘任务数
+     * @param completedFlushes 已安装的MemTable数
+     * @param failedFlushes 失败后重试的次数
+     * @param flushedBytes 刷盘写出的SSTable字节数
+     * @param totalLatencyNanos 已安装MemTable的累计刷盘延迟（纳秒）
+     * @param maxLatencyNanos 最大刷盘延迟（纳秒）
+     */
+    public FlushStats(int queueDepth, int runningFlushes, long completedFlushes, long failedFlushes,
+                      long flushedBytes, long totalLatencyNanos, long maxLatencyNanos) {
+        this.queueDepth = queueDepth;
+        this.runningFlushes = runningFlushes;
+        this.completedFlushes = completedFlushes;
+        this.failedFlushes = failedFlushes;
+        this.flushedBytes = flushedBytes;
+        this.totalLatencyNanos = totalLatencyNanos;
+        this.maxLatencyNanos = maxLatencyNanos;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getRunningFlushes() {
+        return runningFlushes;
+    }
+
+    public long getCompletedFlushes() {
+        return completedFlushes;
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes;
+    }
+
+    public long getFlushedBytes() {
+        return flushedBytes;
+    }
+
+    public long getTotalLatencyNanos() {
+        return totalLatencyNanos;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * 平均刷盘延迟
+     * @return 纳秒数，没有完成的刷盘时为0
+     */
+    public long getAverageLatencyNanos() {
+        return completedFlushes > 0 ? totalLatencyNanos / completedFlushes : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Flush: queue %d, running %d, completed %d, failed %d, %d bytes, latency avg %.1f ms, max %.1f ms",
+            queueDepth, runningFlushes, completedFlushes, failedFlushes, flushedBytes,
+            getAverageLatencyNanos() / 1e6, maxLatencyNanos / 1e6);
+    }
+}
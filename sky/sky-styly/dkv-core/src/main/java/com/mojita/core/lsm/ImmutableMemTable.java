@@ -1,29 +1,60 @@
 package com.mojita.core.lsm;
 
+import com.mojita.core.lsm.sstable.SSTableBuilder;
+import com.mojita.core.lsm.sstable.compress.CompressionType;
+import com.mojita.core.lsm.util.Bytes;
+import com.mojita.core.lsm.util.InternalKey;
+
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * 不可变内存表 - 用于异步刷盘
+ * 数据来自{@link DefaultMemTable}的跳表或{@link ArenaMemTable}的内存池，刷盘安装后调用{@link #release()}释放
  */
 public class ImmutableMemTable {
-    private final ConcurrentSkipListMap<byte[], byte[]> data;
+    private final MemTableStore data;
     private final long size;
     
+    // 数据所在的WAL段编号，刷盘完成后该段可以回收
+    private final long walSegmentNumber;
+    
+    /**
+     * 构造函数
+     * @param data 内存数据
+     * @param size 数据大小
+     */
+    public ImmutableMemTable(ConcurrentSkipListMap<InternalKey, byte[]> data, long size) {
+        this(data, size, 0);
+    }
+    
     /**
      * 构造函数
      * @param data 内存数据
      * @param size 数据大小
+     * @param walSegmentNumber 数据所在的WAL段编号
      */
-    public ImmutableMemTable(ConcurrentSkipListMap<byte[], byte[]> data, long size) {
+    public ImmutableMemTable(ConcurrentSkipListMap<InternalKey, byte[]> data, long size, long walSegmentNumber) {
+        this(new SkipListStore(data), size, walSegmentNumber);
+    }
+    
+    ImmutableMemTable(MemTableStore data, long size, long walSegmentNumber) {
         this.data = data;
         this.size = size;
+        this.walSegmentNumber = walSegmentNumber;
+    }
+    
+    /**
+     * 获取数据所在的WAL段编号
+     * @return 段编号
+     */
+    public long getWalSegmentNumber() {
+        return walSegmentNumber;
     }
     
     /**
@@ -34,63 +65,143 @@ public class ImmutableMemTable {
         return size;
     }
     
+    /**
+     * 是否为空
+     * @return 没有任何数据时返回true
+     */
+    public boolean isEmpty() {
+        return data.isEmpty();
+    }
+    
     /**
      * 刷盘为SSTable
+     * 按键顺序将跳表中的数据流式写入SSTableBuilder，由其切分数据块并生成索引、布隆过滤器和元数据，
+     * 因此刷盘只需要一个数据块大小的缓冲区。每个用户键只写出最新版本，删除标记照常写出，
+     * 用于遮蔽更旧SSTable中的值
      * @param path SSTable路径
+     * @param tableId SSTable ID
      * @return 写入的字节数
+     * @throws IOException 如果写入失败
      */
-    public long flushToSSTable(Path path) throws IOException {
-        // 这里仅展示基本的刷盘逻辑，实际实现需要更复杂的SSTable格式
-        try (FileChannel channel = FileChannel.open(path, 
-            StandardOpenOption.CREATE, 
-            StandardOpenOption.WRITE)) {
-            
-            // 计算总大小
-            long totalSize = 0;
-            for (Entry<byte[], byte[]> entry : data.entrySet()) {
-                totalSize += 8;  // key长度和value长度各4字节
-                totalSize += entry.getKey().length;
-                totalSize += entry.getValue().length;
-            }
-            
-            // 创建缓冲区
-            ByteBuffer buffer = ByteBuffer.allocateDirect((int)totalSize);
-            
-            // 写入数据
-            for (Entry<byte[], byte[]> entry : data.entrySet()) {
-                byte[] key = entry.getKey();
-                byte[] value = entry.getValue();
-                
-                // 写入key长度
-                buffer.putInt(key.length);
-                // 写入key
-                buffer.put(key);
-                // 写入value长度
-                buffer.putInt(value.length);
-                // 写入value
-                buffer.put(value);
+    public long flushToSSTable(Path path, long tableId) throws IOException {
+        return flushToSSTable(path, tableId, CompressionType.NONE);
+    }
+    
+    /**
+     * 刷盘为SSTable，按指定方式压缩数据块
+     * @param path SSTable路径
+     * @param tableId SSTable ID
+     * @param compression 数据块压缩方式
+     * @return 写入的字节数
+     * @throws IOException 如果写入失败
+     */
+    public long flushToSSTable(Path path, long tableId, CompressionType compression) throws IOException {
+        SSTableBuilder builder = new SSTableBuilder(path, tableId);
+        builder.setCompression(compression);
+        flushTo(builder);
+        return Files.size(path);
+    }
+    
+    /**
+     * 刷盘到已配置好的SSTable构建器，完成后关闭构建器
+     * @param builder SSTable构建器
+     * @return 写入的字节数
+     * @throws IOException 如果写入失败
+     */
+    public long flushTo(SSTableBuilder builder) throws IOException {
+        try (SSTableBuilder output = builder) {
+            byte[] previousKey = null;
+            Iterator<Entry<InternalKey, byte[]>> entries = data.iterator(null);
+            while (entries.hasNext()) {
+                Entry<InternalKey, byte[]> entry = entries.next();
+                byte[] userKey = entry.getKey().getUserKey();
+                if (previousKey != null && Bytes.compare(previousKey, userKey) == 0) {
+                    // 同一用户键的旧版本
+                    continue;
+                }
+                previousKey = userKey;
+                output.add(entry.getKey(), entry.getValue());
             }
-            
-            // 写入磁盘
-            buffer.flip();
-            return channel.write(buffer);
+            output.finish();
+            return output.getFileSize();
         }
     }
     
     /**
      * 获取数据迭代器
-     * @return 内部数据的迭代器
+     * @return 按内部键顺序的迭代器，包含旧版本和删除标记
+     */
+    public Iterable<Map.Entry<InternalKey, byte[]>> entries() {
+        return () -> data.iterator(null);
+    }
+    
+    /**
+     * 获取从指定键开始的有序迭代器
+     * @param startKey 起始用户键（包含），null表示从头开始
+     * @return 按内部键顺序的迭代器，包含旧版本和删除标记
      */
-    public Iterable<Map.Entry<byte[], byte[]>> entries() {
-        return data.entrySet();
+    public Iterator<Map.Entry<InternalKey, byte[]>> iterator(byte[] startKey) {
+        return data.iterator(startKey);
     }
     
     /**
      * 查询特定键
      * @param key 键
-     * @return 值，不存在则返回null
+     * @return 值，不存在或已被删除则返回null
      */
     public byte[] get(byte[] key) {
-        return data.get(key);
+        Map.Entry<InternalKey, byte[]> entry = lookup(key);
+        if (entry == null || entry.getKey().isDeletion()) {
+            return null;
+        }
+        return entry.getValue();
+    }
+    
+    /**
+     * 查找键的最新版本，包括删除标记
+     * @param key 键
+     * @return 内部键及值，本表中没有该键时返回null
+     */
+    public Map.Entry<InternalKey, byte[]> lookup(byte[] key) {
+        return data.lookup(key);
+    }
+    
+    /**
+     * 刷盘安装后释放数据占用的内存
+     * 调用时读请求已能从SSTable读到这部分数据，之后的查找和迭代不再返回任何记录；
+     * 正在进行的查找和迭代不受影响
+     */
+    public void release() {
+        data.release();
+    }
+    
+    /**
+     * ConcurrentSkipListMap存储的数据，释放时不做任何事，由GC在不再被引用后回收
+     */
+    private static final class SkipListStore implements MemTableStore {
+        private final ConcurrentSkipListMap<InternalKey, byte[]> data;
+        
+        SkipListStore(ConcurrentSkipListMap<InternalKey, byte[]> data) {
+            this.data = data;
+        }
+        
+        @Override
+        public Map.Entry<InternalKey, byte[]> lookup(byte[] key) {
+            return DefaultMemTable.lookup(data, key);
+        }
+        
+        @Override
+        public Iterator<Map.Entry<InternalKey, byte[]>> iterator(byte[] startKey) {
+            return DefaultMemTable.iterator(data, startKey);
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            return data.isEmpty();
+        }
+        
+        @Override
+        public void release() {
+        }
     }
 } 
\ No newline at end of file
@@ -1,10 +1,23 @@
 package com.mojita.core.lsm;
 
+import com.mojita.core.lsm.compaction.CompactionScheduler;
+import com.mojita.core.lsm.config.LSMConfig;
 import com.mojita.core.lsm.config.MemTableConfig;
+import com.mojita.core.lsm.iterator.MergingIterator;
+import com.mojita.core.lsm.iterator.RangeIterator;
+import com.mojita.core.lsm.sstable.BlockCache;
+import com.mojita.core.lsm.sstable.ChecksumVerifier;
+import com.mojita.core.lsm.sstable.TableCache;
+import com.mojita.core.lsm.util.InternalKey;
+import com.mojita.core.lsm.version.Version;
+import com.mojita.core.lsm.version.VersionSet;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 /**
  * LSM树引擎 - 提供高级接口
@@ -12,14 +25,39 @@ import java.nio.file.Path;
 public class LSMEngine implements AutoCloseable {
     private final MemTableManager memTableManager;
     private final WALManager walManager;
+    private final VersionSet versionSet;
+    private final CompactionScheduler compactionScheduler;
     private final Path dataDir;
     
+    // 启动时WAL回放的统计
+    private final WALRecoveryStats recoveryStats;
+    
     /**
      * 构造函数
      * @param dataDir 数据目录
      * @throws IOException 如果创建目录失败
      */
     public LSMEngine(Path dataDir) throws IOException {
+        this(dataDir, new LSMConfig());
+    }
+    
+    /**
+     * 构造函数
+     * @param dataDir 数据目录
+     * @param memTableConfig MemTable配置
+     * @throws IOException 如果创建目录失败
+     */
+    public LSMEngine(Path dataDir, MemTableConfig memTableConfig) throws IOException {
+        this(dataDir, withMemTableConfig(memTableConfig));
+    }
+    
+    /**
+     * 构造函数
+     * @param dataDir 数据目录
+     * @param config 引擎配置
+     * @throws IOException 如果创建目录失败
+     */
+    public LSMEngine(Path dataDir, LSMConfig config) throws IOException {
         this.dataDir = dataDir;
         
         // 创建必要的目录
@@ -29,12 +67,76 @@ public class LSMEngine implements AutoCloseable {
         Files.createDirectories(sstableDir);
         
         // 创建WAL管理器
-        Path walPath = walDir.resolve("current.wal");
-        this.walManager = new WALManager(walPath);
+        this.walManager = new WALManager(walDir, config.getWalConfig());
+        
+        // 加载已有的SSTable
+        this.versionSet = new VersionSet(sstableDir, config.getSstableConfig());
+        
+        // 回放上次运行未刷盘的WAL段
+        this.recoveryStats = new WALRecovery(walManager, versionSet,
+            config.getMemTableConfig(), config.getWalConfig()).run();
+        
+        // 启动后台压缩，刷盘安装新文件后自动检查是否需要压缩
+        this.compactionScheduler = new CompactionScheduler(versionSet, config.getCompactionConfig());
+        compactionScheduler.maybeScheduleCompaction();
         
         // 创建MemTable管理器
-        MemTableConfig config = new MemTableConfig();
-        this.memTableManager = new MemTableManager(config, walManager, sstableDir);
+        this.memTableManager = new MemTableManager(config.getMemTableConfig(), walManager, versionSet,
+            config.getCompactionConfig());
+    }
+    
+    private static LSMConfig withMemTableConfig(MemTableConfig memTableConfig) {
+        LSMConfig config = new LSMConfig();
+        config.setMemTableConfig(memTableConfig);
+        return config;
+    }
+    
+    /**
+     * 获取启动时WAL回放的统计
+     * @return 回放统计
+     */
+    public WALRecoveryStats getRecoveryStats() {
+        return recoveryStats;
+    }
+    
+    /**
+     * 获取刷盘统计，包括等待刷盘的MemTable数和刷盘延迟
+     * @return 统计快照
+     */
+    public FlushStats getFlushStats() {
+        return memTableManager.getFlushStats();
+    }
+    
+    /**
+     * 获取写入控制器，用于查看刷盘或压缩跟不上时写入被限速和停顿的次数与时间
+     * @return 写入控制器
+     */
+    public WriteController getWriteController() {
+        return memTableManager.getWriteController();
+    }
+    
+    /**
+     * 获取所有SSTable共享的块缓存，用于查看命中、未命中和淘汰计数
+     * @return 块缓存，未配置时返回null
+     */
+    public BlockCache getBlockCache() {
+        return versionSet.getBlockCache();
+    }
+    
+    /**
+     * 获取限制打开文件数的表缓存
+     * @return 表缓存，未配置时返回null
+     */
+    public TableCache getTableCache() {
+        return versionSet.getTableCache();
+    }
+    
+    /**
+     * 获取SSTable的校验和验证器，用于查看校验次数、耗时和失败次数
+     * @return 验证器
+     */
+    public ChecksumVerifier getChecksumVerifier() {
+        return versionSet.getChecksumVerifier();
     }
     
     /**
@@ -46,13 +148,60 @@ public class LSMEngine implements AutoCloseable {
         memTableManager.put(key, value);
     }
     
+    /**
+     * 原子地写入一组写入和删除
+     * 批次只写一条WAL记录，崩溃后要么全部恢复、要么全部丢失
+     * @param batch 写批次
+     */
+    public void write(WriteBatch batch) {
+        memTableManager.write(batch);
+    }
+    
     /**
      * 获取值
      * @param key 键
-     * @return 值，不存在则返回null
+     * @return 值，不存在或已被删除则返回null
      */
     public byte[] get(byte[] key) {
-        return memTableManager.get(key);
+        // 先查内存表，遇到删除标记即可返回，不必再查更旧的数据
+        Map.Entry<InternalKey, byte[]> entry = memTableManager.lookup(key);
+        if (entry != null) {
+            return entry.getKey().isDeletion() ? null : entry.getValue();
+        }
+        
+        // 内存中未找到，从新到旧查询SSTable
+        try {
+            return versionSet.get(key);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read SSTable", e);
+        }
+    }
+    
+    /**
+     * 范围查询 - 按键升序流式返回[startKey, endKey)内每个键的最新值，已删除的键不返回
+     * 活跃MemTable的并发写入可能被看到也可能看不到；迭代器持有SSTable版本的引用，
+     * 用完后必须关闭（迭代到末尾时自动关闭）
+     * @param startKey 起始键（包含），null表示无下界
+     * @param endKey 结束键（不包含），null表示无上界
+     * @param limit 最多返回的条数，小于等于0表示不限制
+     * @return 范围迭代器
+     */
+    public RangeIterator scan(byte[] startKey, byte[] endKey, int limit) {
+        // 先取MemTable再取版本，期间刷盘的数据不会漏掉
+        List<Iterator<Map.Entry<InternalKey, byte[]>>> sources = memTableManager.iterators(startKey);
+        Version version = versionSet.acquire();
+        try {
+            sources.addAll(version.iterators(startKey, endKey));
+            MergingIterator merged = new MergingIterator(sources);
+            return new RangeIterator(merged, endKey, limit, () -> {
+                merged.close();
+                versionSet.release(version);
+            });
+        } catch (RuntimeException e) {
+            MergingIterator.closeAll(sources);
+            versionSet.release(version);
+            throw e;
+        }
     }
     
     /**
@@ -68,7 +217,9 @@ public class LSMEngine implements AutoCloseable {
      */
     @Override
     public void close() throws Exception {
+        compactionScheduler.close();
         memTableManager.close();
         walManager.close();
+        versionSet.close();
     }
 } 
\ No newline at end of file
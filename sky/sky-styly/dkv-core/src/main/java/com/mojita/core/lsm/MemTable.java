@@ -1,5 +1,10 @@
 package com.mojita.core.lsm;
 
+import com.mojita.core.lsm.util.InternalKey;
+
+import java.util.Iterator;
+import java.util.Map;
+
 /**
  * MemTable接口 - LSM-Tree的内存表组件
  * 负责管理内存中的键值对，提供快速读写操作
@@ -13,13 +18,35 @@ public interface MemTable {
      */
     boolean put(byte[] key, byte[] value);
     
+    /**
+     * 写入一个写批次，批次整体写入一条WAL记录，并只检查一次刷盘阈值
+     * @param batch 写批次
+     * @return 是否导致内存表切换
+     */
+    boolean write(WriteBatch batch);
+    
     /**
      * 获取值
      * @param key 键
-     * @return 对应的值，不存在则返回null
+     * @return 对应的值，不存在或已被删除则返回null
      */
     byte[] get(byte[] key);
     
+    /**
+     * 查找键的最新版本，包括删除标记
+     * 找到删除标记时调用方不应再查询更旧的数据
+     * @param key 键
+     * @return 内部键及值，本表中没有该键时返回null
+     */
+    Map.Entry<InternalKey, byte[]> lookup(byte[] key);
+    
+    /**
+     * 获取从指定键开始的有序迭代器，包含旧版本和删除标记
+     * @param startKey 起始用户键（包含），null表示从头开始
+     * @return 按内部键顺序的迭代器
+     */
+    Iterator<Map.Entry<InternalKey, byte[]>> iterator(byte[] startKey);
+    
     /**
      * 删除键
      * @param key 键
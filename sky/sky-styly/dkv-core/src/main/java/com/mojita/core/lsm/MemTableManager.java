@@ -1,26 +1,83 @@
 package com.mojita.core.lsm;
 
+import com.mojita.core.lsm.compaction.CompactionStrategy;
+import com.mojita.core.lsm.config.CompactionConfig;
 import com.mojita.core.lsm.config.MemTableConfig;
+import com.mojita.core.lsm.sstable.SSTableReader;
+import com.mojita.core.lsm.util.InternalKey;
+import com.mojita.core.lsm.version.Version;
+import com.mojita.core.lsm.version.VersionSet;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * MemTable管理器 - 负责MemTable的生命周期管理和刷盘
+ *
+ * 写入在读锁下完成WAL追加和MemTable更新，MemTable切换持有写锁：
+ * 先把WAL轮转到新段，再换上新的活跃MemTable，保证每个MemTable的数据只落在它自己的WAL段中，
+ * 且被切换出去的MemTable不会再有写入。MemTable刷盘安装后回收不再需要的WAL段。
+ *
+ * 刷盘由切换驱动：每次切换为新的不可变MemTable创建一个刷盘任务并立即提交，多个刷盘线程可以同时写各自的SSTable。
+ * 安装按切换顺序进行：任务写完后只安装队首连续已完成的部分，较新的SSTable不会先于较旧的可见，
+ * 不可变队列和WAL段也始终从最旧的一端回收。写失败的任务稍后重试，重试期间较新的任务等待。
+ *
+ * 写入前经过{@link WriteController}：不可变MemTable或L0文件堆积时先限速、再停顿，等刷盘和压缩追上。
  */
 public class MemTableManager {
     // 活跃的MemTable
     private final AtomicReference<MemTable> activeMemTable;
     
-    // 等待刷盘的不可变MemTable队列
-    private final Queue<ImmutableMemTable> immutableMemTables;
+    // 等待刷盘的不可变MemTable队列（队尾最新）
+    private final Deque<ImmutableMemTable> immutableMemTables;
+    
+    // 刷盘失败后的重试间隔
+    private static final long FLUSH_RETRY_DELAY_MS = 100;
+    
+    // 刷盘任务，与不可变MemTable队列一一对应、顺序相同
+    private final Deque<FlushJob> flushJobs;
     
     // 刷盘线程池
-    private final ExecutorService flushExecutor;
+    private final ScheduledThreadPoolExecutor flushExecutor;
+    
+    // 安装刷盘结果时持有，保证按顺序安装
+    private final Object installLock;
+    
+    // 刷盘统计
+    private final AtomicInteger runningFlushes;
+    private final LongAdder completedFlushes;
+    private final LongAdder failedFlushes;
+    private final LongAdder flushedBytes;
+    private final LongAdder totalFlushLatencyNanos;
+    private final AtomicLong maxFlushLatencyNanos;
+    
+    // 刷盘或压缩跟不上时限速和停顿写入
+    private final WriteController writeController;
+    
+    // 按压缩策略计算计入写入压力的L0文件数
+    private final CompactionStrategy compactionStrategy;
+    
+    // 上次计算写入压力的版本和结果，版本不变时直接复用
+    private volatile Map.Entry<Version, Integer> level0Pressure;
+    
+    private volatile boolean closed;
     
     // WAL管理器
     private final WALManager walManager;
@@ -28,26 +85,76 @@ public class MemTableManager {
     // 配置
     private final MemTableConfig config;
     
-    // SSTable目录
-    private final Path sstableDir;
+    // 版本集合，刷盘生成的SSTable安装到其中
+    private final VersionSet versionSet;
+    
+    // 写入持有读锁，切换MemTable持有写锁
+    private final ReadWriteLock switchLock;
+    
+    /**
+     * 构造函数，L0文件数阈值使用默认压缩配置
+     * @param config MemTable配置
+     * @param walManager WAL管理器
+     * @param versionSet 版本集合
+     */
+    public MemTableManager(MemTableConfig config, WALManager walManager, VersionSet versionSet) {
+        this(config, walManager, versionSet, new CompactionConfig());
+    }
     
     /**
      * 构造函数
      * @param config MemTable配置
      * @param walManager WAL管理器
-     * @param sstableDir SSTable目录
+     * @param versionSet 版本集合
+     * @param compactionConfig 压缩配置，提供限速和停顿写入的L0文件数阈值
      */
-    public MemTableManager(MemTableConfig config, WALManager walManager, Path sstableDir) {
+    public MemTableManager(MemTableConfig config, WALManager walManager, VersionSet versionSet,
+                           CompactionConfig compactionConfig) {
         this.config = config;
         this.walManager = walManager;
-        this.sstableDir = sstableDir;
+        this.versionSet = versionSet;
+        this.switchLock = new ReentrantReadWriteLock();
         
-        this.activeMemTable = new AtomicReference<>(new DefaultMemTable(config, walManager));
-        this.immutableMemTables = new ConcurrentLinkedQueue<>();
-        this.flushExecutor = Executors.newSingleThreadExecutor();
+        this.activeMemTable = new AtomicReference<>(newMemTable());
+        this.immutableMemTables = new ConcurrentLinkedDeque<>();
+        this.flushJobs = new ConcurrentLinkedDeque<>();
+        this.installLock = new Object();
+        this.runningFlushes = new AtomicInteger();
+        this.completedFlushes = new LongAdder();
+        this.failedFlushes = new LongAdder();
+        this.flushedBytes = new LongAdder();
+        this.totalFlushLatencyNanos = new LongAdder();
+        this.maxFlushLatencyNanos = new AtomicLong();
         
-        // 启动后台刷盘任务
-        startFlushTask();
+        this.flushExecutor = new ScheduledThreadPoolExecutor(Math.max(1, config.getFlushThreads()), r -> {
+            Thread thread = new Thread(r, "dkv-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 关闭时丢弃等待中的重试，由close()同步完成
+        flushExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        
+        this.compactionStrategy = CompactionStrategy.create(compactionConfig);
+        this.writeController = new WriteController(config, compactionConfig, immutableMemTables::size,
+            this::level0WritePressure);
+        // 压缩完成后L0文件数下降，唤醒停顿的写入
+        versionSet.addVersionListener(writeController::signal);
+    }
+    
+    /**
+     * 获取计入写入压力的L0文件数，每个版本只计算一次
+     * 分级压缩时不计入永远不会被合并的段，见{@link CompactionStrategy#level0WritePressure(Version)}
+     * @return 文件数
+     */
+    private int level0WritePressure() {
+        Version version = versionSet.current();
+        Map.Entry<Version, Integer> cached = level0Pressure;
+        if (cached != null && cached.getKey() == version) {
+            return cached.getValue();
+        }
+        int pressure = compactionStrategy.level0WritePressure(version);
+        level0Pressure = new AbstractMap.SimpleImmutableEntry<>(version, pressure);
+        return pressure;
     }
     
     /**
@@ -56,40 +163,68 @@ public class MemTableManager {
      * @param value 值
      */
     public void put(byte[] key, byte[] value) {
-        while (true) {
-            MemTable current = activeMemTable.get();
-            boolean needFlush = current.put(key, value);
-            
-            if (needFlush && activeMemTable.compareAndSet(current, new DefaultMemTable(config, walManager))) {
-                // 转换为不可变MemTable并加入队列
-                immutableMemTables.offer(current.switchToImmutable());
-                // 触发刷盘
-                triggerFlush();
-            } else if (!needFlush) {
-                // 不需要刷盘，直接返回
-                break;
-            }
-            // 需要刷盘但CAS失败，重试
+        writeController.beforeWrite(length(key) + length(value));
+        boolean needFlush;
+        switchLock.readLock().lock();
+        try {
+            needFlush = activeMemTable.get().put(key, value);
+        } finally {
+            switchLock.readLock().unlock();
+        }
+        if (needFlush) {
+            maybeSwitchMemTable();
+        }
+    }
+    
+    /**
+     * 写入写批次，整个批次落在同一个MemTable中
+     * @param batch 写批次
+     */
+    public void write(WriteBatch batch) {
+        writeController.beforeWrite(batch.getEncodedSize());
+        boolean needFlush;
+        switchLock.readLock().lock();
+        try {
+            needFlush = activeMemTable.get().write(batch);
+        } finally {
+            switchLock.readLock().unlock();
+        }
+        if (needFlush) {
+            maybeSwitchMemTable();
         }
     }
     
     /**
      * 获取值
      * @param key 键
-     * @return 值，不存在则返回null
+     * @return 值，不存在或已被删除则返回null
      */
     public byte[] get(byte[] key) {
+        Map.Entry<InternalKey, byte[]> entry = lookup(key);
+        if (entry == null || entry.getKey().isDeletion()) {
+            return null;
+        }
+        return entry.getValue();
+    }
+    
+    /**
+     * 从新到旧查找键在内存中的最新版本
+     * @param key 键
+     * @return 内部键及值，返回删除标记时不应再查询SSTable；内存中没有该键时返回null
+     */
+    public Map.Entry<InternalKey, byte[]> lookup(byte[] key) {
         // 首先检查活跃的MemTable
-        byte[] value = activeMemTable.get().get(key);
-        if (value != null) {
-            return value;
+        Map.Entry<InternalKey, byte[]> entry = activeMemTable.get().lookup(key);
+        if (entry != null) {
+            return entry;
         }
         
         // 然后检查所有不可变MemTable，从新到旧
-        for (ImmutableMemTable immutable : immutableMemTables) {
-            value = immutable.get(key);
-            if (value != null) {
-                return value;
+        Iterator<ImmutableMemTable> newestFirst = immutableMemTables.descendingIterator();
+        while (newestFirst.hasNext()) {
+            entry = newestFirst.next().lookup(key);
+            if (entry != null) {
+                return entry;
             }
         }
         
@@ -97,86 +232,218 @@ public class MemTableManager {
         return null;
     }
     
+    /**
+     * 获取内存中所有MemTable从指定键开始的迭代器，从新到旧排列
+     * 应先于获取SSTable版本调用：期间刷盘完成的数据最多被看到两次，不会漏掉
+     * @param startKey 起始用户键（包含），null表示从头开始
+     * @return 各MemTable的迭代器
+     */
+    public List<Iterator<Map.Entry<InternalKey, byte[]>>> iterators(byte[] startKey) {
+        List<Iterator<Map.Entry<InternalKey, byte[]>>> iterators = new ArrayList<>();
+        iterators.add(activeMemTable.get().iterator(startKey));
+        Iterator<ImmutableMemTable> newestFirst = immutableMemTables.descendingIterator();
+        while (newestFirst.hasNext()) {
+            iterators.add(newestFirst.next().iterator(startKey));
+        }
+        return iterators;
+    }
+    
     /**
      * 删除键
      * @param key 键
      */
     public void delete(byte[] key) {
-        while (true) {
-            MemTable current = activeMemTable.get();
-            boolean needFlush = current.delete(key);
-            
-            if (needFlush && activeMemTable.compareAndSet(current, new DefaultMemTable(config, walManager))) {
-                // 转换为不可变MemTable并加入队列
-                immutableMemTables.offer(current.switchToImmutable());
-                // 触发刷盘
-                triggerFlush();
-            } else if (!needFlush) {
-                // 不需要刷盘，直接返回
-                break;
+        writeController.beforeWrite(length(key));
+        boolean needFlush;
+        switchLock.readLock().lock();
+        try {
+            needFlush = activeMemTable.get().delete(key);
+        } finally {
+            switchLock.readLock().unlock();
+        }
+        if (needFlush) {
+            maybeSwitchMemTable();
+        }
+    }
+    
+    private static int length(byte[] bytes) {
+        return bytes != null ? bytes.length : 0;
+    }
+    
+    /**
+     * 获取写入控制器，用于查看限速和停顿的次数与时间
+     * @return 写入控制器
+     */
+    public WriteController getWriteController() {
+        return writeController;
+    }
+    
+    /**
+     * 活跃MemTable达到刷盘阈值时切换，多个写入者同时发现时只有一个执行切换
+     */
+    private void maybeSwitchMemTable() {
+        FlushJob job;
+        switchLock.writeLock().lock();
+        try {
+            if (!activeMemTable.get().shouldFlush()) {
+                return;
             }
-            // 需要刷盘但CAS失败，重试
+            job = switchMemTable();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to rotate WAL", e);
+        } finally {
+            switchLock.writeLock().unlock();
         }
+        scheduleFlush(job, 0);
     }
     
     /**
-     * 启动后台刷盘任务
+     * 把活跃MemTable转为不可变并换上新的MemTable，调用时必须持有写锁
+     * @return 新不可变MemTable的刷盘任务，尚未提交
+     * @throws IOException 如果WAL轮转失败
      */
-    private void startFlushTask() {
-        flushExecutor.submit(() -> {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    // 检查是否有需要刷盘的MemTable
-                    if (!immutableMemTables.isEmpty()) {
-                        flushNextMemTable();
+    private FlushJob switchMemTable() throws IOException {
+        // 先轮转WAL，新MemTable创建时记录新段编号
+        walManager.rotate();
+        MemTable current = activeMemTable.get();
+        // 先加入不可变队列再替换活跃表，读请求在任何时刻都能看到这部分数据
+        ImmutableMemTable immutable = current.switchToImmutable();
+        FlushJob job = new FlushJob(immutable);
+        immutableMemTables.offer(immutable);
+        flushJobs.offer(job);
+        activeMemTable.set(newMemTable());
+        return job;
+    }
+    
+    /**
+     * 按配置的实现方式创建新的活跃MemTable
+     * @return MemTable
+     */
+    private MemTable newMemTable() {
+        if (config.getType() == MemTableConfig.Type.ARENA) {
+            return new ArenaMemTable(config, walManager);
+        }
+        return new DefaultMemTable(config, walManager);
+    }
+    
+    /**
+     * 提交刷盘任务，关闭后不再提交，剩余任务由close()同步完成
+     * @param job 刷盘任务
+     * @param delayMs 延迟毫秒数
+     */
+    private void scheduleFlush(FlushJob job, long delayMs) {
+        if (closed) {
+            return;
+        }
+        try {
+            if (delayMs > 0) {
+                flushExecutor.schedule(job, delayMs, TimeUnit.MILLISECONDS);
+            } else {
+                flushExecutor.execute(job);
+            }
+        } catch (RejectedExecutionException e) {
+            // 正在关闭
+        }
+    }
+    
+    /**
+     * 从队首起依次安装已写完的刷盘结果，遇到未完成的任务即停止
+     * 安装之后才从不可变队列移除，保证读请求不会漏掉这部分数据
+     */
+    private void installFlushed() {
+        synchronized (installLock) {
+            boolean installed = false;
+            FlushJob job;
+            while ((job = flushJobs.peek()) != null && job.done) {
+                if (job.table != null) {
+                    try {
+                        versionSet.addTable(job.table);
+                    } catch (IOException | RuntimeException e) {
+                        e.printStackTrace();
+                        job.discard();
+                        failedFlushes.increment();
+                        scheduleFlush(job, FLUSH_RETRY_DELAY_MS);
+                        break;
                     }
-                    
-                    // 休眠一段时间
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
+                }
+                flushJobs.poll();
+                immutableMemTables.poll();
+                // 数据已可从SSTable读取，整体释放MemTable的内存
+                job.memTable.release();
+                recordLatency(System.nanoTime() - job.createdNanos);
+                completedFlushes.increment();
+                installed = true;
+            }
+            if (installed) {
+                // 不可变MemTable减少，唤醒停顿的写入
+                writeController.signal();
+                try {
+                    // 回收已持久化到SSTable的WAL段
+                    walManager.deleteSegmentsBefore(oldestUnflushedSegment());
                 } catch (Exception e) {
-                    // 记录异常但继续运行
                     e.printStackTrace();
                 }
             }
-        });
+        }
+    }
+    
+    private void recordLatency(long latencyNanos) {
+        totalFlushLatencyNanos.add(latencyNanos);
+        long max;
+        while (latencyNanos > (max = maxFlushLatencyNanos.get())
+            && !maxFlushLatencyNanos.compareAndSet(max, latencyNanos)) {
+            // 重试
+        }
     }
     
     /**
-     * 触发刷盘
+     * 获取刷盘统计
+     * @return 统计快照
      */
-    private void triggerFlush() {
-        // 唤醒刷盘线程
-        flushExecutor.submit(this::flushNextMemTable);
+    public FlushStats getFlushStats() {
+        return new FlushStats(immutableMemTables.size(), runningFlushes.get(), completedFlushes.sum(),
+            failedFlushes.sum(), flushedBytes.sum(), totalFlushLatencyNanos.sum(), maxFlushLatencyNanos.get());
     }
     
     /**
-     * 刷盘下一个MemTable
+     * 获取仍有未刷盘数据的最早WAL段
+     * @return 段编号，更早的段都可以回收
      */
-    private void flushNextMemTable() {
-        ImmutableMemTable memTable = immutableMemTables.peek();
-        if (memTable == null) {
-            return;
+    private long oldestUnflushedSegment() {
+        ImmutableMemTable oldest = immutableMemTables.peek();
+        if (oldest != null) {
+            return oldest.getWalSegmentNumber();
+        }
+        // 读取活跃表的段编号时持有写锁，避免与切换交错
+        switchLock.writeLock().lock();
+        try {
+            oldest = immutableMemTables.peek();
+            return oldest != null ? oldest.getWalSegmentNumber() : walManager.getCurrentSegmentNumber();
+        } finally {
+            switchLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * 将不可变MemTable写为SSTable并打开，尚未安装
+     * @param memTable 不可变MemTable
+     * @return 打开的SSTable，MemTable为空时返回null
+     * @throws IOException 如果写入或打开SSTable失败
+     */
+    private SSTableReader writeTable(ImmutableMemTable memTable) throws IOException {
+        if (memTable.isEmpty()) {
+            return null;
         }
         
+        long fileNumber = versionSet.newFileNumber();
+        Path sstablePath = versionSet.tableFilePath(fileNumber);
         try {
-            // 生成SSTable文件名
-            String fileName = "sst_" + System.currentTimeMillis() + ".sst";
-            Path sstablePath = sstableDir.resolve(fileName);
-            
-            // 刷盘
-            memTable.flushToSSTable(sstablePath);
-            
-            // 移除已刷盘的MemTable
-            immutableMemTables.poll();
-            
-            // 更新WAL检查点
-            walManager.updateCheckpoint();
-        } catch (Exception e) {
-            // 记录异常但不移除MemTable，下次重试
-            e.printStackTrace();
+            flushedBytes.add(memTable.flushTo(versionSet.newTableBuilder(sstablePath, fileNumber, 0)));
+            return versionSet.openTable(sstablePath);
+        } catch (IOException | RuntimeException e) {
+            // 清理写了一半的文件
+            Files.deleteIfExists(sstablePath);
+            throw e;
         }
     }
     
@@ -184,19 +451,90 @@ public class MemTableManager {
      * 关闭管理器
      */
     public void close() {
+        // 停止提交新的刷盘任务，等待正在写的任务完成，避免与下面的同步刷盘同时处理同一个MemTable
+        closed = true;
+        writeController.close();
         flushExecutor.shutdown();
-        // 确保所有不可变MemTable都刷盘
-        while (!immutableMemTables.isEmpty()) {
-            flushNextMemTable();
+        try {
+            flushExecutor.awaitTermination(60, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        // 确保活跃MemTable也刷盘
-        ImmutableMemTable lastMemTable = activeMemTable.get().switchToImmutable();
+        // 活跃MemTable也转为不可变，随后与其他不可变MemTable一起刷盘
+        switchLock.writeLock().lock();
         try {
-            String fileName = "sst_" + System.currentTimeMillis() + ".sst";
-            Path sstablePath = sstableDir.resolve(fileName);
-            lastMemTable.flushToSSTable(sstablePath);
-        } catch (Exception e) {
+            switchMemTable();
+        } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            switchLock.writeLock().unlock();
+        }
+        // 按顺序同步完成剩余的刷盘，刷盘失败时保留对应的WAL段
+        FlushJob job;
+        while ((job = flushJobs.peek()) != null) {
+            job.run();
+            if (flushJobs.peek() == job) {
+                break;
+            }
+        }
+    }
+    
+    /**
+     * 一个不可变MemTable的刷盘任务：写SSTable可以与其他任务并行，写完后尝试按序安装
+     */
+    private final class FlushJob implements Runnable {
+        private final ImmutableMemTable memTable;
+        // 切换为不可变的时间，用于统计刷盘延迟
+        private final long createdNanos;
+        // 是否已写完，写完后table为打开的SSTable，空MemTable时为null
+        private volatile boolean done;
+        private volatile SSTableReader table;
+        
+        FlushJob(ImmutableMemTable memTable) {
+            this.memTable = memTable;
+            this.createdNanos = System.nanoTime();
+        }
+        
+        @Override
+        public void run() {
+            synchronized (this) {
+                // 关闭时的同步刷盘可能遇到已写完的任务
+                if (!done) {
+                    runningFlushes.incrementAndGet();
+                    try {
+                        table = writeTable(memTable);
+                        done = true;
+                    } catch (Exception e) {
+                        // 记录异常，稍后重试
+                        e.printStackTrace();
+                        failedFlushes.increment();
+                        scheduleFlush(this, FLUSH_RETRY_DELAY_MS);
+                        return;
+                    } finally {
+                        runningFlushes.decrementAndGet();
+                    }
+                }
+            }
+            installFlushed();
+        }
+        
+        /**
+         * 安装失败时关闭并删除已写出的SSTable，回到未完成状态等待重写
+         */
+        void discard() {
+            synchronized (this) {
+                SSTableReader written = table;
+                table = null;
+                done = false;
+                if (written != null) {
+                    try {
+                        written.close();
+                        Files.deleteIfExists(written.getPath());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,32 @@
+package com.mojita.core.lsm;
+
+import com.mojita.core.lsm.util.InternalKey;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 不可变MemTable的有序数据 - 按内部键排序，包含旧版本和删除标记
+ */
+interface MemTableStore {
+    /**
+     * 查找用户键的最新版本
+     * @param key 用户键
+     * @return 最新版本，不存在则返回null
+     */
+    Map.Entry<InternalKey, byte[]> lookup(byte[] key);
+
+    /**
+     * 从指定用户键开始迭代
+     * @param startKey 起始用户键（包含），null表示从头开始
+     * @return 按内部键顺序的迭代器
+     */
+    Iterator<Map.Entry<InternalKey, byte[]>> iterator(byte[] startKey);
+
+    boolean isEmpty();
+
+    /**
+     * 刷盘安装后释放数据占用的内存，之后的查找和迭代看不到任何数据
+     */
+    void release();
+}
@@ -1,127 +1,601 @@
 package com.mojita.core.lsm;
 
+import com.mojita.core.lsm.config.WALConfig;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * WAL管理器 - 负责预写日志的管理
- * 简化版实现，实际应用中需要更复杂的设计
+ *
+ * 采用组提交（group commit）：并发写入者把编码好的记录放入等待队列，
+ * 第一个发现没有写入进行中的线程成为leader，把队列中已有的记录一次性写入文件，
+ * 按落盘策略决定是否fsync，然后唤醒这一批的所有写入者。
+ * leader写盘期间到达的记录会在下一批中一起提交，因此fsync次数随并发度下降，
+ * 吞吐不再受限于单次fsync的延迟。
+ *
+ * 日志按编号分段（wal_N.log）。每次MemTable切换时轮转到新段，新MemTable的数据只写入新段；
+ * 某段之前的所有MemTable都已刷成SSTable后，调用方通过{@link #deleteSegmentsBefore(long)}
+ * 回收这些段：放入复用池（重命名为recycle_N.log），下次轮转时直接复用已分配的文件，
+ * 复用池已满时删除。
  */
 public class WALManager {
-    // WAL文件路径
-    private final Path walPath;
-    
-    // 文件通道
-    private final FileChannel channel;
-    
-    // 当前位置
-    private final AtomicLong position;
-    
-    // 上次检查点位置
-    private final AtomicLong lastCheckpoint;
-    
-    /**
-     * 构造函数
-     * @param walPath WAL文件路径
+    // 段文件名前缀和后缀
+    private static final String SEGMENT_FILE_PREFIX = "wal_";
+    private static final String RECYCLED_FILE_PREFIX = "recycle_";
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+
+    // WAL目录
+    private final Path walDir;
+
+    // WAL配置
+    private final WALConfig config;
+
+    // 保护段切换、回收和后台fsync
+    private final Object segmentLock = new Object();
+
+    // 正在写入的段
+    private volatile WALSegment current;
+
+    // 已封存、尚未回收的段（包括启动时发现的旧段），按编号排列
+    private final TreeMap<Long, Path> sealedSegments;
+
+    // 可复用的已回收段文件
+    private final Deque<Path> recycledFiles;
+
+    // 下一个段编号
+    private long nextSegmentNumber;
+
+    // 下一个复用文件编号
+    private long nextRecycleNumber;
+
+    // 最近分配的序号
+    private final AtomicLong lastSequence = new AtomicLong();
+
+    // 保护等待队列和提交状态的锁
+    private final ReentrantLock lock;
+
+    // 一批记录提交完成时通知等待的写入者
+    private final Condition batchDone;
+
+    // 等待写入的记录，按到达顺序排列
+    private final List<ByteBuffer> pending;
+
+    // 已入队的记录数，入队时分配的序号即为该记录的票据
+    private long enqueued;
+
+    // 已提交（写入并按策略落盘）的记录数
+    private long committed;
+
+    // 是否有leader正在写盘
+    private boolean writing;
+
+    // 写盘失败后的错误，之后的写入全部失败
+    private IOException failure;
+
+    private boolean closed;
+
+    // INTERVAL策略下的后台fsync线程
+    private final ScheduledExecutorService syncExecutor;
+
+    // 统计：写入批次数、记录数、fsync次数
+    private final AtomicLong batchCount;
+    private final AtomicLong recordCount;
+    private final AtomicLong syncCount;
+
+    /**
+     * 构造函数 - 使用默认配置
+     * @param walDir WAL目录
      * @throws IOException 如果打开文件失败
      */
-    public WALManager(Path walPath) throws IOException {
-        this.walPath = walPath;
-        this.channel = FileChannel.open(walPath, 
-            StandardOpenOption.CREATE, 
-            StandardOpenOption.READ,
-            StandardOpenOption.WRITE);
-        this.position = new AtomicLong(channel.size());
-        this.lastCheckpoint = new AtomicLong(0);
+    public WALManager(Path walDir) throws IOException {
+        this(walDir, new WALConfig());
     }
-    
+
+    /**
+     * 构造函数 - 扫描目录中已有的段和复用文件，并打开一个新段用于写入
+     * 已有的段保留到调用方确认其数据已持久化到SSTable后再回收
+     * @param walDir WAL目录
+     * @param config WAL配置
+     * @throws IOException 如果打开文件失败
+     */
+    public WALManager(Path walDir, WALConfig config) throws IOException {
+        this.walDir = walDir;
+        this.config = config;
+        this.sealedSegments = new TreeMap<>();
+        this.recycledFiles = new ArrayDeque<>();
+
+        Files.createDirectories(walDir);
+        long maxSegment = 0;
+        long maxRecycle = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(walDir, "*" + SEGMENT_FILE_SUFFIX)) {
+            for (Path path : stream) {
+                long number = parseNumber(path, SEGMENT_FILE_PREFIX);
+                if (number > 0) {
+                    sealedSegments.put(number, path);
+                    maxSegment = Math.max(maxSegment, number);
+                    continue;
+                }
+                number = parseNumber(path, RECYCLED_FILE_PREFIX);
+                if (number > 0) {
+                    recycledFiles.add(path);
+                    maxRecycle = Math.max(maxRecycle, number);
+                }
+            }
+        }
+        this.nextSegmentNumber = maxSegment + 1;
+        this.nextRecycleNumber = maxRecycle + 1;
+        this.current = openSegment(nextSegmentNumber++);
+
+        this.lock = new ReentrantLock();
+        this.batchDone = lock.newCondition();
+        this.pending = new ArrayList<>();
+        this.batchCount = new AtomicLong();
+        this.recordCount = new AtomicLong();
+        this.syncCount = new AtomicLong();
+
+        if (config.getSyncPolicy() == WALConfig.SyncPolicy.INTERVAL) {
+            this.syncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "dkv-wal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = Math.max(1, config.getSyncIntervalMs());
+            syncExecutor.scheduleWithFixedDelay(this::backgroundSync, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncExecutor = null;
+        }
+    }
+
     /**
      * 追加条目
      * @param key 键
      * @param value 值
-     * @throws IOException 如果写入失败
+     * @return 分配给该写入的序号
      */
-    public void appendEntry(byte[] key, byte[] value) {
+    public long appendEntry(byte[] key, byte[] value) {
+        // WAL格式: 类型(1) + 段编号(8) + 序号(8) + key长度(4) + key + value长度(4) + value + 校验和(4)
+        int entrySize = 1 + 8 + 8 + 4 + key.length + 4 + value.length + WALRecord.CHECKSUM_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(entrySize);
+
+        long sequence = lastSequence.incrementAndGet();
+        buffer.put(WALRecord.TYPE_PUT);
+        buffer.putLong(0); // 段编号在写入时填充
+        buffer.putLong(sequence);
+        buffer.putInt(key.length);
+        buffer.put(key);
+        buffer.putInt(value.length);
+        buffer.put(value);
+        buffer.putInt(WALRecord.checksum(buffer, 0, buffer.position()));
+        buffer.flip();
+
         try {
-            // WAL格式: 类型(1) + 时间戳(8) + key长度(4) + key + value长度(4) + value
-            int entrySize = 1 + 8 + 4 + key.length + 4 + value.length;
-            ByteBuffer buffer = ByteBuffer.allocate(entrySize);
-            
-            buffer.put((byte) 1); // 1表示PUT操作
-            buffer.putLong(System.currentTimeMillis());
-            buffer.putInt(key.length);
-            buffer.put(key);
-            buffer.putInt(value.length);
-            buffer.put(value);
-            
-            buffer.flip();
-            
-            // 原子写入
-            synchronized (this) {
-                channel.position(position.get());
-                channel.write(buffer);
-                channel.force(false);
-                position.addAndGet(entrySize);
-            }
+            append(buffer);
         } catch (IOException e) {
             throw new RuntimeException("Failed to append WAL entry", e);
         }
+        return sequence;
     }
-    
+
     /**
      * 追加删除操作
      * @param key 要删除的键
+     * @return 分配给该删除的序号
+     */
+    public long appendDeletion(byte[] key) {
+        // WAL格式: 类型(1) + 段编号(8) + 序号(8) + key长度(4) + key + 校验和(4)
+        int entrySize = 1 + 8 + 8 + 4 + key.length + WALRecord.CHECKSUM_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(entrySize);
+
+        long sequence = lastSequence.incrementAndGet();
+        buffer.put(WALRecord.TYPE_DELETE);
+        buffer.putLong(0); // 段编号在写入时填充
+        buffer.putLong(sequence);
+        buffer.putInt(key.length);
+        buffer.put(key);
+        buffer.putInt(WALRecord.checksum(buffer, 0, buffer.position()));
+        buffer.flip();
+
+        try {
+            append(buffer);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append WAL deletion", e);
+        }
+        return sequence;
+    }
+
+    /**
+     * 追加写批次，整个批次作为一条记录提交
+     * @param batch 写批次，不能为空
+     * @return 分配给批次第一个操作的序号，之后的操作依次递增
+     */
+    public long appendBatch(WriteBatch batch) {
+        // WAL格式: 类型(1) + 段编号(8) + 起始序号(8) + 操作数(4) + 各操作 + 校验和(4)
+        // 操作格式: 类型(1) + key长度(4) + key [+ value长度(4) + value]
+        int entrySize = 1 + 8 + 8 + 4 + batch.getEncodedSize() + WALRecord.CHECKSUM_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(entrySize);
+
+        long firstSequence = lastSequence.getAndAdd(batch.count()) + 1;
+        buffer.put(WALRecord.TYPE_BATCH);
+        buffer.putLong(0); // 段编号在写入时填充
+        buffer.putLong(firstSequence);
+        buffer.putInt(batch.count());
+        for (WALRecord operation : batch.getOperations()) {
+            buffer.put(operation.getType());
+            buffer.putInt(operation.getKey().length);
+            buffer.put(operation.getKey());
+            if (!operation.isDeletion()) {
+                buffer.putInt(operation.getValue().length);
+                buffer.put(operation.getValue());
+            }
+        }
+        buffer.putInt(WALRecord.checksum(buffer, 0, buffer.position()));
+        buffer.flip();
+
+        try {
+            append(buffer);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append WAL batch", e);
+        }
+        return firstSequence;
+    }
+
+    /**
+     * 设置最近使用的序号，启动时根据SSTable和回放的WAL恢复，之后的写入从其后分配
+     * 序号在编码记录时分配，并发写入在同一段内的顺序可能与序号顺序不同；
+     * 轮转时等待进行中的写入提交，段之间的序号范围不重叠。回放以记录中的序号为准，
+     * 且只在段边界刷盘，不会把一段拆到序号范围交叉的两个SSTable中，因此结果一致
+     * @param sequence 已使用的最大序号
+     */
+    public void setLastSequence(long sequence) {
+        lastSequence.set(sequence);
+    }
+
+    /**
+     * 获取最近分配的序号
+     * @return 序号
+     */
+    public long getLastSequence() {
+        return lastSequence.get();
+    }
+
+    /**
+     * 提交一条记录，返回时记录已按落盘策略持久化
+     * @param record 编码好的记录
      * @throws IOException 如果写入失败
      */
-    public void appendDeletion(byte[] key) {
+    private void append(ByteBuffer record) throws IOException {
+        lock.lock();
         try {
-            // WAL格式: 类型(1) + 时间戳(8) + key长度(4) + key
-            int entrySize = 1 + 8 + 4 + key.length;
-            ByteBuffer buffer = ByteBuffer.allocate(entrySize);
-            
-            buffer.put((byte) 2); // 2表示DELETE操作
-            buffer.putLong(System.currentTimeMillis());
-            buffer.putInt(key.length);
-            buffer.put(key);
-            
-            buffer.flip();
-            
-            // 原子写入
-            synchronized (this) {
-                channel.position(position.get());
-                channel.write(buffer);
-                channel.force(false);
-                position.addAndGet(entrySize);
+            if (closed) {
+                throw new IOException("WAL is closed: " + walDir);
+            }
+            checkFailure();
+            pending.add(record);
+            long ticket = ++enqueued;
+
+            while (committed < ticket) {
+                if (writing) {
+                    // 已有leader在写盘，等待它（或后续的leader）提交本记录
+                    batchDone.awaitUninterruptibly();
+                    checkFailure();
+                    continue;
+                }
+                commitBatch(takeBatch());
             }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出下一批记录，调用时必须持有锁
+     * @return 按到达顺序排列的记录
+     */
+    private List<ByteBuffer> takeBatch() {
+        int count = 0;
+        long bytes = 0;
+        if (config.getSyncPolicy() == WALConfig.SyncPolicy.PER_WRITE) {
+            count = 1;
+        } else {
+            // 至少取一条，超出单批上限后留给下一批
+            while (count < pending.size()
+                && (count == 0 || bytes + pending.get(count).remaining() <= config.getMaxBatchBytes())) {
+                bytes += pending.get(count).remaining();
+                count++;
+            }
+        }
+        List<ByteBuffer> taken = new ArrayList<>(pending.subList(0, count));
+        pending.subList(0, count).clear();
+        return taken;
+    }
+
+    /**
+     * 作为leader写入一批记录，写盘期间释放锁以便其他写入者继续入队
+     * 调用时必须持有锁
+     * @param batch 记录
+     * @throws IOException 如果写入失败
+     */
+    private void commitBatch(List<ByteBuffer> batch) throws IOException {
+        writing = true;
+        lock.unlock();
+        IOException error = null;
+        try {
+            writeBatch(batch);
         } catch (IOException e) {
-            throw new RuntimeException("Failed to append WAL deletion", e);
+            error = e;
+        } finally {
+            lock.lock();
+            writing = false;
+            committed += batch.size();
+            if (error != null && failure == null) {
+                failure = error;
+            }
+            batchDone.signalAll();
         }
+        checkFailure();
     }
-    
+
+    /**
+     * 写入一批记录并按策略fsync，同一时刻只有一个leader调用
+     * @param batch 记录
+     * @throws IOException 如果写入失败
+     */
+    private void writeBatch(List<ByteBuffer> batch) throws IOException {
+        // 写盘期间不会发生段轮转，见rotate()
+        WALSegment segment = current;
+        ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+        long bytes = 0;
+        for (ByteBuffer buffer : buffers) {
+            // 记录实际写入的段编号，回放时据此识别复用文件中残留的旧记录
+            buffer.putLong(buffer.position() + WALRecord.SEGMENT_NUMBER_OFFSET, segment.getNumber());
+            bytes += buffer.remaining();
+        }
+
+        segment.write(buffers, bytes);
+
+        WALConfig.SyncPolicy policy = config.getSyncPolicy();
+        if ((policy == WALConfig.SyncPolicy.PER_WRITE || policy == WALConfig.SyncPolicy.PER_BATCH)
+            && segment.sync()) {
+            syncCount.incrementAndGet();
+        }
+        batchCount.incrementAndGet();
+        recordCount.addAndGet(buffers.length);
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("WAL is unusable after a failed write: " + walDir, failure);
+        }
+    }
+
+    /**
+     * 将当前段已写入的记录强制落盘
+     * @throws IOException 如果fsync失败
+     */
+    public void sync() throws IOException {
+        synchronized (segmentLock) {
+            if (current.sync()) {
+                syncCount.incrementAndGet();
+            }
+        }
+    }
+
+    private void backgroundSync() {
+        try {
+            sync();
+        } catch (ClosedChannelException e) {
+            // 已关闭
+        } catch (IOException e) {
+            System.err.println("Failed to sync WAL " + current.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 轮转到新段，此后的写入进入新段
+     * 等待进行中的写入提交完成，封存旧段时按落盘策略同步其数据
+     * @return 新段的编号
+     * @throws IOException 如果创建新段失败
+     */
+    public long rotate() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("WAL is closed: " + walDir);
+            }
+            while (writing || (committed < enqueued && failure == null)) {
+                batchDone.awaitUninterruptibly();
+            }
+            checkFailure();
+
+            synchronized (segmentLock) {
+                WALSegment next = openSegment(nextSegmentNumber++);
+                WALSegment old = current;
+                current = next;
+                try {
+                    if (config.getSyncPolicy() != WALConfig.SyncPolicy.NONE && old.sync()) {
+                        syncCount.incrementAndGet();
+                    }
+                } finally {
+                    old.close();
+                    sealedSegments.put(old.getNumber(), old.getPath());
+                }
+                return next.getNumber();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 回收编号小于给定值的已封存段，调用方需保证这些段中的数据都已持久化到SSTable
+     * @param segmentNumber 仍需保留的最小段编号
+     */
+    public void deleteSegmentsBefore(long segmentNumber) {
+        synchronized (segmentLock) {
+            Map<Long, Path> obsolete = sealedSegments.headMap(segmentNumber);
+            for (Path path : obsolete.values()) {
+                try {
+                    if (recycledFiles.size() < config.getMaxRecycledSegments()) {
+                        Path target = walDir.resolve(RECYCLED_FILE_PREFIX + (nextRecycleNumber++) + SEGMENT_FILE_SUFFIX);
+                        Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+                        recycledFiles.add(target);
+                    } else {
+                        Files.deleteIfExists(path);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Failed to remove WAL segment " + path + ": " + e.getMessage());
+                }
+            }
+            obsolete.clear();
+        }
+    }
+
+    /**
+     * 创建新段，优先复用已回收的文件
+     * @param number 段编号
+     * @return 新段
+     * @throws IOException 如果创建失败
+     */
+    private WALSegment openSegment(long number) throws IOException {
+        Path path = segmentFilePath(number);
+        Path recycled = recycledFiles.poll();
+        if (recycled != null) {
+            Files.move(recycled, path, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return new WALSegment(number, path, config.getSegmentPreallocateBytes());
+    }
+
+    /**
+     * 根据段编号生成文件路径
+     * @param segmentNumber 段编号
+     * @return 文件路径
+     */
+    public Path segmentFilePath(long segmentNumber) {
+        return walDir.resolve(SEGMENT_FILE_PREFIX + segmentNumber + SEGMENT_FILE_SUFFIX);
+    }
+
+    /**
+     * 获取当前写入段的编号
+     * @return 段编号
+     */
+    public long getCurrentSegmentNumber() {
+        return current.getNumber();
+    }
+
+    /**
+     * 获取已封存、尚未回收的段（启动时即为上次运行遗留、需要回放的段）
+     * @return 段编号到文件路径的映射，按编号升序
+     */
+    public SortedMap<Long, Path> getSealedSegments() {
+        synchronized (segmentLock) {
+            return new TreeMap<>(sealedSegments);
+        }
+    }
+
+    /**
+     * 获取所有尚未回收的段编号（包括当前段），按编号升序
+     * @return 段编号
+     */
+    public List<Long> getLiveSegmentNumbers() {
+        synchronized (segmentLock) {
+            List<Long> numbers = new ArrayList<>(sealedSegments.keySet());
+            numbers.add(current.getNumber());
+            return numbers;
+        }
+    }
+
     /**
-     * 更新检查点
+     * 从文件名中解析编号
+     * @param path 文件路径
+     * @param prefix 文件名前缀
+     * @return 编号，无法解析时返回0
      */
-    public void updateCheckpoint() {
-        lastCheckpoint.set(position.get());
+    private static long parseNumber(Path path, String prefix) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(prefix) || !name.endsWith(SEGMENT_FILE_SUFFIX)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - SEGMENT_FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
     }
-    
+
     /**
-     * 获取最后检查点位置
-     * @return 最后检查点位置
+     * 获取写入批次数
+     * @return 批次数
      */
-    public long getLastCheckpoint() {
-        return lastCheckpoint.get();
+    public long getBatchCount() {
+        return batchCount.get();
     }
-    
+
     /**
-     * 关闭WAL管理器
+     * 获取写入的记录数
+     * @return 记录数
+     */
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+    /**
+     * 获取fsync次数
+     * @return fsync次数
+     */
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    /**
+     * 关闭WAL管理器，等待进行中的写入完成
+     * 除NONE策略外，关闭前把所有已写入的记录落盘
      * @throws IOException 如果关闭失败
      */
     public void close() throws IOException {
-        channel.close();
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // 写盘失败后剩余记录不会再被提交，无需等待
+            while (writing || (committed < enqueued && failure == null)) {
+                batchDone.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (syncExecutor != null) {
+            syncExecutor.shutdownNow();
+        }
+        synchronized (segmentLock) {
+            try {
+                if (config.getSyncPolicy() != WALConfig.SyncPolicy.NONE && failure == null) {
+                    sync();
+                }
+            } finally {
+                current.close();
+            }
+        }
     }
-} 
\ No newline at end of file
+}
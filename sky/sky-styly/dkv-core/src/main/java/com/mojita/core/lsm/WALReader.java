@@ -0,0 +1,185 @@
+package com.mojita.core.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * WAL段读取器 - 把整个段文件映射到内存后顺序解码
+ *
+ * 段尾的判定：遇到类型为0的字节（预分配的零区域）、段编号不匹配的记录（复用文件中残留的旧数据）、
+ * 长度不完整或校验和不匹配的记录（崩溃时写了一半）即停止，之前的记录全部有效。
+ * 写批次记录整体校验，校验通过后展开为多条带连续序号的记录。
+ */
+public final class WALReader {
+    // 记录头：类型(1) + 段编号(8) + 序号(8) + key长度或批次操作数(4)
+    private static final int HEADER_SIZE = 1 + 8 + 8 + 4;
+
+    private WALReader() {
+    }
+
+    /**
+     * 解码结果
+     */
+    public static class Segment {
+        private final long number;
+        private final List<WALRecord> records;
+        private final long bytes;
+
+        Segment(long number, List<WALRecord> records, long bytes) {
+            this.number = number;
+            this.records = records;
+            this.bytes = bytes;
+        }
+
+        public long getNumber() {
+            return number;
+        }
+
+        public List<WALRecord> getRecords() {
+            return records;
+        }
+
+        /**
+         * 有效记录占用的字节数
+         * @return 字节数
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * 读取并解码一个段
+     * @param path 段文件路径
+     * @param segmentNumber 段编号
+     * @return 段中的有效记录
+     * @throws IOException 如果读取失败
+     */
+    public static Segment readSegment(Path path, long segmentNumber) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return new Segment(segmentNumber, new ArrayList<>(), 0);
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("WAL segment too large: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return decode(buffer, segmentNumber);
+        }
+    }
+
+    /**
+     * 从缓冲区中解码记录直到段尾
+     * @param buffer 段内容
+     * @param segmentNumber 段编号
+     * @return 解码结果
+     */
+    static Segment decode(ByteBuffer buffer, long segmentNumber) {
+        List<WALRecord> records = new ArrayList<>();
+        long validBytes = 0;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            byte type = buffer.get();
+            if (type != WALRecord.TYPE_PUT && type != WALRecord.TYPE_DELETE && type != WALRecord.TYPE_BATCH) {
+                break;
+            }
+            if (buffer.getLong() != segmentNumber) {
+                break;
+            }
+            long sequence = buffer.getLong();
+
+            List<WALRecord> decoded = type == WALRecord.TYPE_BATCH
+                ? readBatch(buffer, sequence)
+                : readOperation(buffer, type, sequence);
+            if (decoded == null) {
+                break;
+            }
+            int end = buffer.position();
+            if (buffer.remaining() < WALRecord.CHECKSUM_SIZE
+                || buffer.getInt() != WALRecord.checksum(buffer, start, end)) {
+                break;
+            }
+            records.addAll(decoded);
+            validBytes += buffer.position() - start;
+        }
+        return new Segment(segmentNumber, records, validBytes);
+    }
+
+    /**
+     * 读取单个写入或删除操作的键和值
+     * @param buffer 缓冲区，位于key长度处
+     * @param type 操作类型
+     * @param sequence 序号
+     * @return 解码出的记录，数据不完整时返回null
+     */
+    private static List<WALRecord> readOperation(ByteBuffer buffer, byte type, long sequence) {
+        byte[] key = readBytes(buffer);
+        if (key == null) {
+            return null;
+        }
+        byte[] value = null;
+        if (type == WALRecord.TYPE_PUT) {
+            if (buffer.remaining() < 4) {
+                return null;
+            }
+            value = readBytes(buffer);
+            if (value == null) {
+                return null;
+            }
+        }
+        return Collections.singletonList(new WALRecord(type, sequence, key, value));
+    }
+
+    /**
+     * 读取写批次中的全部操作
+     * @param buffer 缓冲区，位于操作数处
+     * @param firstSequence 第一个操作的序号
+     * @return 按批次内顺序排列的记录，数据不完整时返回null
+     */
+    private static List<WALRecord> readBatch(ByteBuffer buffer, long firstSequence) {
+        int count = buffer.getInt();
+        // 每个操作至少占5字节，据此排除损坏的操作数
+        if (count < 0 || count > buffer.remaining() / 5) {
+            return null;
+        }
+        List<WALRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < 1 + 4) {
+                return null;
+            }
+            byte type = buffer.get();
+            if (type != WALRecord.TYPE_PUT && type != WALRecord.TYPE_DELETE) {
+                return null;
+            }
+            List<WALRecord> operation = readOperation(buffer, type, firstSequence + i);
+            if (operation == null) {
+                return null;
+            }
+            records.addAll(operation);
+        }
+        return records;
+    }
+
+    /**
+     * 读取长度前缀的字节数组
+     * @param buffer 缓冲区
+     * @return 字节数组，长度不合法或数据不完整时返回null
+     */
+    private static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,83 @@
+package com.mojita.core.lsm;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * WAL记录 - 回放时从段文件中解码出的一次写操作
+ */
+public class WALRecord {
+    // 记录类型
+    public static final byte TYPE_PUT = 1;
+    public static final byte TYPE_DELETE = 2;
+    // 写批次：序号字段为第一个操作的序号，随后是操作数和各操作，回放时展开为多条记录
+    public static final byte TYPE_BATCH = 3;
+
+    // 段编号在记录中的偏移（紧跟类型字节）和长度
+    static final int SEGMENT_NUMBER_OFFSET = 1;
+    static final int SEGMENT_NUMBER_SIZE = 8;
+
+    // 校验和长度
+    static final int CHECKSUM_SIZE = 4;
+
+    private final byte type;
+    private final long sequence;
+    private final byte[] key;
+    private final byte[] value;
+
+    /**
+     * 构造函数
+     * @param type 记录类型
+     * @param sequence 序号
+     * @param key 键
+     * @param value 值，删除记录为null
+     */
+    public WALRecord(byte type, long sequence, byte[] key, byte[] value) {
+        this.type = type;
+        this.sequence = sequence;
+        this.key = key;
+        this.value = value;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public byte[] getKey() {
+        return key;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * 计算记录的校验和，覆盖除段编号以外的全部内容
+     * 段编号在写入时才由leader填充，不参与校验，写入者可以在进入组提交之前并行计算校验和
+     * @param buffer 记录所在的缓冲区
+     * @param start 记录起始位置
+     * @param end 记录内容（不含校验和）的结束位置
+     * @return CRC32校验和
+     */
+    static int checksum(ByteBuffer buffer, int start, int end) {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = buffer.duplicate();
+        view.limit(start + SEGMENT_NUMBER_OFFSET).position(start);
+        crc.update(view);
+        view.limit(end).position(start + SEGMENT_NUMBER_OFFSET + SEGMENT_NUMBER_SIZE);
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 是否为删除记录
+     * @return 删除记录返回true
+     */
+    public boolean isDeletion() {
+        return type == TYPE_DELETE;
+    }
+}
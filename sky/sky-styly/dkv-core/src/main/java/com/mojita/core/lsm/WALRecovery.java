@@ -0,0 +1,180 @@
+package com.mojita.core.lsm;
+
+import com.mojita.core.lsm.config.MemTableConfig;
+import com.mojita.core.lsm.config.WALConfig;
+import com.mojita.core.lsm.sstable.SSTableReader;
+import com.mojita.core.lsm.util.InternalKey;
+import com.mojita.core.lsm.util.ValueType;
+import com.mojita.core.lsm.version.VersionSet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * WAL回放 - 引擎启动时把上次运行遗留的WAL段恢复为SSTable
+ *
+ * 各段通过内存映射整体读取，由线程池并行解码；解码结果按段编号顺序应用到恢复用的MemTable，
+ * 记录带着写入时分配的序号，同一个键以序号最大的版本为准，删除恢复为删除标记。
+ * 回放结束后把WAL的序号推进到SSTable和WAL中出现过的最大序号之后。每回放完一整段检查一次大小阈值，达到即刷盘，
+ * 全部回放完成后刷出剩余数据并回收这些段，因此回放过程不需要重新写WAL。
+ * 同一段内的记录可能不按序号排列，但段之间的序号范围不重叠（轮转在MemTable切换锁下进行），
+ * 只在段边界刷盘保证每个SSTable的序号范围互不交叉，按最大序号排列的L0文件总是先返回较新的版本。
+ * 同一时刻最多有线程数个段处于已解码待应用状态，内存占用有上界。
+ */
+public class WALRecovery {
+    private final WALManager walManager;
+    private final VersionSet versionSet;
+    private final MemTableConfig memTableConfig;
+    private final WALConfig walConfig;
+
+    // 恢复中的MemTable
+    private ConcurrentSkipListMap<InternalKey, byte[]> data;
+    private long dataSize;
+    private int tableCount;
+
+    // 已使用的最大序号
+    private long lastSequence;
+
+    /**
+     * 构造函数
+     * @param walManager WAL管理器
+     * @param versionSet 版本集合，恢复出的SSTable安装到其中
+     * @param memTableConfig MemTable配置，决定恢复MemTable的刷盘阈值
+     * @param walConfig WAL配置，决定解码线程数
+     */
+    public WALRecovery(WALManager walManager, VersionSet versionSet,
+                       MemTableConfig memTableConfig, WALConfig walConfig) {
+        this.walManager = walManager;
+        this.versionSet = versionSet;
+        this.memTableConfig = memTableConfig;
+        this.walConfig = walConfig;
+    }
+
+    /**
+     * 回放所有遗留的WAL段
+     * @return 回放统计
+     * @throws IOException 如果读取WAL或写入SSTable失败
+     */
+    public WALRecoveryStats run() throws IOException {
+        long start = System.nanoTime();
+        for (SSTableReader table : versionSet.current().getAllTables()) {
+            lastSequence = Math.max(lastSequence, table.getMetadata().getMaxSequence());
+        }
+        walManager.setLastSequence(lastSequence);
+
+        SortedMap<Long, Path> segments = walManager.getSealedSegments();
+        if (segments.isEmpty()) {
+            return new WALRecoveryStats(0, 0, 0, 0, System.nanoTime() - start);
+        }
+
+        int threads = Math.max(1, Math.min(walConfig.getRecoveryThreads(), segments.size()));
+        ExecutorService decoder = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "dkv-wal-recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long records = 0;
+        long bytes = 0;
+        newMemTable();
+        try {
+            Iterator<Map.Entry<Long, Path>> pending = segments.entrySet().iterator();
+            Deque<Future<WALReader.Segment>> window = new ArrayDeque<>();
+            while (window.size() < threads && pending.hasNext()) {
+                window.add(submit(decoder, pending.next()));
+            }
+            while (!window.isEmpty()) {
+                WALReader.Segment segment = await(window.poll());
+                if (pending.hasNext()) {
+                    window.add(submit(decoder, pending.next()));
+                }
+                for (WALRecord record : segment.getRecords()) {
+                    apply(record);
+                }
+                records += segment.getRecords().size();
+                bytes += segment.getBytes();
+                // 段内拆分会让两个SSTable的序号范围交叉，只在段边界刷盘
+                if (dataSize >= memTableConfig.getMaxSize()) {
+                    flush();
+                    newMemTable();
+                }
+            }
+            flush();
+        } finally {
+            decoder.shutdownNow();
+        }
+        walManager.setLastSequence(lastSequence);
+
+        // 遗留段的数据都已安装为SSTable
+        walManager.deleteSegmentsBefore(walManager.getCurrentSegmentNumber());
+        return new WALRecoveryStats(segments.size(), records, bytes, tableCount, System.nanoTime() - start);
+    }
+
+    private static Future<WALReader.Segment> submit(ExecutorService decoder, Map.Entry<Long, Path> segment) {
+        return decoder.submit(() -> WALReader.readSegment(segment.getValue(), segment.getKey()));
+    }
+
+    private static WALReader.Segment await(Future<WALReader.Segment> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while replaying WAL", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read WAL segment", e.getCause());
+        }
+    }
+
+    /**
+     * 把一条记录应用到恢复MemTable
+     * @param record WAL记录
+     */
+    private void apply(WALRecord record) {
+        byte[] key = record.getKey();
+        lastSequence = Math.max(lastSequence, record.getSequence());
+        if (record.isDeletion()) {
+            data.put(new InternalKey(key, record.getSequence(), ValueType.DELETE), new byte[0]);
+            dataSize += key.length + DefaultMemTable.ENTRY_OVERHEAD;
+        } else {
+            data.put(new InternalKey(key, record.getSequence(), ValueType.PUT), record.getValue());
+            dataSize += key.length + record.getValue().length + DefaultMemTable.ENTRY_OVERHEAD;
+        }
+    }
+
+    private void newMemTable() {
+        data = new ConcurrentSkipListMap<>(InternalKey.COMPARATOR);
+        dataSize = 0;
+    }
+
+    /**
+     * 把恢复MemTable刷为SSTable并安装
+     * @throws IOException 如果写入失败
+     */
+    private void flush() throws IOException {
+        ImmutableMemTable memTable = new ImmutableMemTable(data, dataSize);
+        if (memTable.isEmpty()) {
+            return;
+        }
+        long fileNumber = versionSet.newFileNumber();
+        Path path = versionSet.tableFilePath(fileNumber);
+        try {
+            memTable.flushTo(versionSet.newTableBuilder(path, fileNumber, 0));
+            versionSet.addTable(versionSet.openTable(path));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        tableCount++;
+    }
+}
@@ -0,0 +1,71 @@
+package com.mojita.core.lsm;
+
+/**
+ * WAL回放统计 - 用于评估重启耗时并据此确定MemTable大小
+ */
+public class WALRecoveryStats {
+    private final int segmentCount;
+    private final long recordCount;
+    private final long byteCount;
+    private final int tableCount;
+    private final long elapsedNanos;
+
+    /**
+     * 构造函数
+     * @param segmentCount 回放的段数
+     * @param recordCount 回放的记录数
+     * @param byteCount 回放的有效字节数
+     * @param tableCount 回放后刷盘生成的SSTable数
+     * @param elapsedNanos 总耗时（纳秒，含刷盘）
+     */
+    public WALRecoveryStats(int segmentCount, long recordCount, long byteCount, int tableCount, long elapsedNanos) {
+        this.segmentCount = segmentCount;
+        this.recordCount = recordCount;
+        this.byteCount = byteCount;
+        this.tableCount = tableCount;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public int getTableCount() {
+        return tableCount;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * 回放吞吐
+     * @return 每秒回放的字节数
+     */
+    public double getBytesPerSecond() {
+        return elapsedNanos > 0 ? byteCount * 1e9 / elapsedNanos : 0;
+    }
+
+    /**
+     * 回放吞吐
+     * @return 每秒回放的记录数
+     */
+    public double getRecordsPerSecond() {
+        return elapsedNanos > 0 ? recordCount * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WAL recovery: %d segments, %d records, %d bytes, %d tables in %.1f ms (%.1f MB/s, %.0f records/s)",
+            segmentCount, recordCount, byteCount, tableCount, elapsedNanos / 1e6,
+            getBytesPerSecond() / (1024 * 1024), getRecordsPerSecond());
+    }
+}
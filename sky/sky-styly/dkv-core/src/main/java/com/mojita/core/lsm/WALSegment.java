@@ -0,0 +1,139 @@
+package com.mojita.core.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * WAL段 - 一个编号的预写日志文件
+ *
+ * 新段创建时预先写入零填充到指定大小并落盘一次，之后的追加只覆盖已分配的块，
+ * 不再修改文件长度等元数据，fsync只需同步数据（force(false)）。
+ * 段内的写入位置由本对象维护，不依赖文件长度；回放时遇到类型为0或段编号不匹配的记录即视为段尾，
+ * 因此预分配的零区域和复用旧文件残留的数据都不会被误读。
+ */
+public class WALSegment {
+    // 零填充时每次写入的大小
+    private static final int FILL_CHUNK_SIZE = 64 * 1024;
+
+    // 段编号
+    private final long number;
+
+    // 文件路径
+    private final Path path;
+
+    // 文件通道
+    private final FileChannel channel;
+
+    // 下一次写入的位置
+    private long position;
+
+    // 上次fsync之后是否有新写入
+    private volatile boolean dirty;
+
+    /**
+     * 打开段文件用于追加，从头开始写入
+     * @param number 段编号
+     * @param path 文件路径（可以是复用的旧文件）
+     * @param preallocateBytes 预分配大小，文件已不小于该大小时不再填充
+     * @throws IOException 如果打开或预分配失败
+     */
+    public WALSegment(long number, Path path, long preallocateBytes) throws IOException {
+        this.number = number;
+        this.path = path;
+        this.channel = FileChannel.open(path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try {
+            preallocate(preallocateBytes);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.position = 0;
+    }
+
+    /**
+     * 零填充到指定大小并同步文件元数据
+     * @param preallocateBytes 预分配大小
+     * @throws IOException 如果写入失败
+     */
+    private void preallocate(long preallocateBytes) throws IOException {
+        long size = channel.size();
+        if (size >= preallocateBytes) {
+            return;
+        }
+        ByteBuffer zeros = ByteBuffer.allocate(FILL_CHUNK_SIZE);
+        while (size < preallocateBytes) {
+            zeros.clear();
+            zeros.limit((int) Math.min(FILL_CHUNK_SIZE, preallocateBytes - size));
+            size += channel.write(zeros, size);
+        }
+        channel.force(true);
+    }
+
+    /**
+     * 在段尾追加一组记录，同一时刻只能有一个线程调用
+     * @param buffers 记录
+     * @param bytes 记录总字节数
+     * @throws IOException 如果写入失败
+     */
+    public void write(ByteBuffer[] buffers, long bytes) throws IOException {
+        channel.position(position);
+        long written = 0;
+        while (written < bytes) {
+            written += channel.write(buffers);
+        }
+        position += bytes;
+        dirty = true;
+    }
+
+    /**
+     * 同步已写入的数据
+     * @return 是否执行了fsync
+     * @throws IOException 如果fsync失败
+     */
+    public boolean sync() throws IOException {
+        if (!dirty) {
+            return false;
+        }
+        dirty = false;
+        channel.force(false);
+        return true;
+    }
+
+    /**
+     * 获取段编号
+     * @return 段编号
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    /**
+     * 获取文件路径
+     * @return 文件路径
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 获取已写入的字节数
+     * @return 字节数
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * 关闭段文件
+     * @throws IOException 如果关闭失败
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
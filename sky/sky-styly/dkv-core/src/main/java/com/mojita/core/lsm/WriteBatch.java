@@ -0,0 +1,95 @@
+package com.mojita.core.lsm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 写批次 - 多个写入和删除作为一个整体提交
+ * 整个批次编码为一条WAL记录，只写一次日志、只落一次盘，崩溃后要么全部回放、要么全部丢弃；
+ * 批次内的操作按添加顺序分配连续的序号，同一个键以最后一次操作为准。
+ * 批次整体写入同一个MemTable，但并发的读请求仍可能看到部分已应用的批次。
+ * 添加操作时复制键和值，之后修改传入的数组不影响批次写入的内容
+ */
+public class WriteBatch {
+    private final List<WALRecord> operations;
+
+    // 编码后的记录体大小（不含记录头和校验和）
+    private int encodedSize;
+
+    /**
+     * 构造函数
+     */
+    public WriteBatch() {
+        this.operations = new ArrayList<>();
+    }
+
+    /**
+     * 添加写入
+     * @param key 键
+     * @param value 值
+     * @return 本批次，便于链式调用
+     */
+    public WriteBatch put(byte[] key, byte[] value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Key and value cannot be null");
+        }
+        operations.add(new WALRecord(WALRecord.TYPE_PUT, 0, key.clone(), value.clone()));
+        encodedSize += 1 + 4 + key.length + 4 + value.length;
+        return this;
+    }
+
+    /**
+     * 添加删除
+     * @param key 键
+     * @return 本批次，便于链式调用
+     */
+    public WriteBatch delete(byte[] key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        operations.add(new WALRecord(WALRecord.TYPE_DELETE, 0, key.clone(), null));
+        encodedSize += 1 + 4 + key.length;
+        return this;
+    }
+
+    /**
+     * 清空批次以便复用
+     */
+    public void clear() {
+        operations.clear();
+        encodedSize = 0;
+    }
+
+    /**
+     * 获取操作数
+     * @return 操作数
+     */
+    public int count() {
+        return operations.size();
+    }
+
+    /**
+     * 是否为空
+     * @return 没有任何操作时返回true
+     */
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * 获取批次中的操作，序号字段未使用
+     * @return 按添加顺序排列的操作（只读）
+     */
+    List<WALRecord> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * 获取编码后的记录体大小
+     * @return 字节数
+     */
+    int getEncodedSize() {
+        return encodedSize;
+    }
+}
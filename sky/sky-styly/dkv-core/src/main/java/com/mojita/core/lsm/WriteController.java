@@ -0,0 +1,212 @@
+package com.mojita.core.lsm;
+
+import com.mojita.core.lsm.config.CompactionConfig;
+import com.mojita.core.lsm.config.MemTableConfig;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * 写入控制器 - 刷盘或压缩跟不上写入时对写入限速和停顿，防止不可变MemTable和L0文件无限堆积
+ *
+ * 不可变MemTable数或L0文件数达到减速阈值后，所有写入共享一个按字节计的速率，
+ * 每次写入按其大小预约一段发送时间并等到该时间；压力从减速阈值到停止阈值线性增加，速率随之从配置值线性降低。
+ * 达到停止阈值后写入等待，直到刷盘安装或版本变更使压力回落。延迟和停顿的次数与时间都计入统计。
+ *
+ * 写入在获取MemTable切换锁之前调用{@link #beforeWrite(long)}，等待期间不持有任何锁，刷盘和压缩可以正常推进
+ */
+public class WriteController {
+    // 停顿时重新检查压力的间隔，避免错过唤醒
+    private static final long STALL_RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final IntSupplier immutableMemTables;
+    private final IntSupplier level0Files;
+    private final int slowdownImmutableMemTables;
+    private final int maxImmutableMemTables;
+    private final int level0SlowdownTrigger;
+    private final int level0StopTrigger;
+    private final long delayedWriteRate;
+
+    // 停顿的写入在此等待
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pressureReleased = lock.newCondition();
+
+    // 限速时下一次写入可以开始的时间，由lock保护
+    private long nextWriteNanos;
+
+    private volatile boolean closed;
+
+    // 统计计数
+    private final LongAdder delayedWrites = new LongAdder();
+    private final LongAdder delayNanos = new LongAdder();
+    private final LongAdder stalledWrites = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+
+    /**
+     * 构造函数
+     * @param memTableConfig MemTable配置，提供不可变MemTable数的阈值和限速速率
+     * @param compactionConfig 压缩配置，提供L0文件数的阈值
+     * @param immutableMemTables 当前不可变MemTable数
+     * @param level0Files 当前L0文件数
+     */
+    public WriteController(MemTableConfig memTableConfig, CompactionConfig compactionConfig,
+                           IntSupplier immutableMemTables, IntSupplier level0Files) {
+        this.immutableMemTables = immutableMemTables;
+        this.level0Files = level0Files;
+        this.maxImmutableMemTables = Math.max(1, memTableConfig.getMaxImmutableMemTables());
+        this.slowdownImmutableMemTables = Math.min(memTableConfig.getSlowdownImmutableMemTables(), maxImmutableMemTables);
+        this.level0StopTrigger = Math.max(1, compactionConfig.getLevel0StopWritesTrigger());
+        this.level0SlowdownTrigger = Math.min(compactionConfig.getLevel0SlowdownWritesTrigger(), level0StopTrigger);
+        this.delayedWriteRate = Math.max(1, memTableConfig.getDelayedWriteRate());
+    }
+
+    /**
+     * 写入前调用：压力达到停止阈值时等待，处于减速区间时按限速等待
+     * @param bytes 本次写入的字节数
+     */
+    public void beforeWrite(long bytes) {
+        double pressure = pressure();
+        if (pressure < 0) {
+            return;
+        }
+        if (pressure >= 1) {
+            stall();
+            pressure = pressure();
+            if (pressure < 0) {
+                return;
+            }
+        }
+        delay(bytes, pressure);
+    }
+
+    /**
+     * 刷盘安装或版本变更后调用，唤醒停顿的写入重新检查压力
+     */
+    public void signal() {
+        lock.lock();
+        try {
+            pressureReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭后不再限速和停顿，唤醒所有等待的写入
+     */
+    public void close() {
+        closed = true;
+        signal();
+    }
+
+    /**
+     * 计算当前写入压力：不可变MemTable数和L0文件数各自换算后取较大者
+     * @return 低于减速阈值时为负数，处于减速区间时在[0, 1)之间，达到停止阈值时不小于1
+     */
+    double pressure() {
+        if (closed) {
+            return -1;
+        }
+        return Math.max(pressure(immutableMemTables.getAsInt(), slowdownImmutableMemTables, maxImmutableMemTables),
+            pressure(level0Files.getAsInt(), level0SlowdownTrigger, level0StopTrigger));
+    }
+
+    private static double pressure(int count, int slowdown, int stop) {
+        if (count >= stop) {
+            return 1;
+        }
+        if (count < slowdown) {
+            return -1;
+        }
+        return (double) (count - slowdown) / (stop - slowdown);
+    }
+
+    private void stall() {
+        long start = System.nanoTime();
+        stalledWrites.increment();
+        lock.lock();
+        try {
+            while (pressure() >= 1) {
+                pressureReleased.awaitNanos(STALL_RECHECK_NANOS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+            stallNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 按当前压力对应的速率预约写入时间并等待
+     * @param bytes 写入字节数
+     * @param pressure 写入压力，在[0, 1)之间
+     */
+    private void delay(long bytes, double pressure) {
+        double rate = delayedWriteRate * (1 - pressure);
+        long cost = (long) (Math.max(1, bytes) * 1e9 / rate);
+        long start = System.nanoTime();
+        long slot;
+        lock.lock();
+        try {
+            slot = Math.max(nextWriteNanos, start);
+            nextWriteNanos = slot + cost;
+        } finally {
+            lock.unlock();
+        }
+        delayedWrites.increment();
+        long wait;
+        while ((wait = slot - System.nanoTime()) > 0 && !closed) {
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        delayNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * 当前是否处于减速或停顿状态
+     * @return 压力达到减速阈值时返回true
+     */
+    public boolean isDelayed() {
+        return pressure() >= 0;
+    }
+
+    /**
+     * 获取被限速的写入次数
+     * @return 次数
+     */
+    public long getDelayedWrites() {
+        return delayedWrites.sum();
+    }
+
+    /**
+     * 获取限速累计等待的时间
+     * @return 纳秒数
+     */
+    public long getDelayNanos() {
+        return delayNanos.sum();
+    }
+
+    /**
+     * 获取因达到停止阈值而停顿的写入次数
+     * @return 次数
+     */
+    public long getStalledWrites() {
+        return stalledWrites.sum();
+    }
+
+    /**
+     * 获取停顿累计的时间
+     * @return 纳秒数
+     */
+    public long getStallNanos() {
+        return stallNanos.sum();
+    }
+}
@@ -0,0 +1,86 @@
+package com.mojita.core.lsm.compaction;
+
+import com.mojita.core.lsm.sstable.SSTableReader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一次压缩任务的描述 - 输入文件及输出层级
+ */
+public class Compaction {
+    private final int level;
+    private final int outputLevel;
+    private final List<SSTableReader> inputs;
+    private final List<SSTableReader> outputLevelInputs;
+    private final long maxOutputFileSize;
+    private final boolean dropDeletions;
+    
+    /**
+     * 构造函数
+     * @param level 输入层级
+     * @param outputLevel 输出层级
+     * @param inputs 输入层级中参与压缩的文件，按从新到旧排列
+     * @param outputLevelInputs 输出层级中与输入重叠的文件
+     * @param maxOutputFileSize 单个输出文件的大小上限，超过后切换到新文件
+     */
+    public Compaction(int level, int outputLevel, List<SSTableReader> inputs, List<SSTableReader> outputLevelInputs,
+                      long maxOutputFileSize) {
+        this(level, outputLevel, inputs, outputLevelInputs, maxOutputFileSize, false);
+    }
+    
+    /**
+     * 构造函数
+     * @param level 输入层级
+     * @param outputLevel 输出层级
+     * @param inputs 输入层级中参与压缩的文件，按从新到旧排列
+     * @param outputLevelInputs 输出层级中与输入重叠的文件
+     * @param maxOutputFileSize 单个输出文件的大小上限，超过后切换到新文件
+     * @param dropDeletions 输入之外没有更旧的数据与输入重叠时为true，此时删除标记可以丢弃
+     */
+    public Compaction(int level, int outputLevel, List<SSTableReader> inputs, List<SSTableReader> outputLevelInputs,
+                      long maxOutputFileSize, boolean dropDeletions) {
+        this.level = level;
+        this.outputLevel = outputLevel;
+        this.inputs = Collections.unmodifiableList(new ArrayList<>(inputs));
+        this.outputLevelInputs = Collections.unmodifiableList(new ArrayList<>(outputLevelInputs));
+        this.maxOutputFileSize = maxOutputFileSize;
+        this.dropDeletions = dropDeletions;
+    }
+    
+    public int getLevel() {
+        return level;
+    }
+    
+    public int getOutputLevel() {
+        return outputLevel;
+    }
+    
+    public List<SSTableReader> getInputs() {
+        return inputs;
+    }
+    
+    public List<SSTableReader> getOutputLevelInputs() {
+        return outputLevelInputs;
+    }
+    
+    public long getMaxOutputFileSize() {
+        return maxOutputFileSize;
+    }
+    
+    public boolean isDropDeletions() {
+        return dropDeletions;
+    }
+    
+    /**
+     * 获取全部输入文件，按从新到旧排列
+     * @return 输入文件
+     */
+    public List<SSTableReader> getAllInputs() {
+        List<SSTableReader> all = new ArrayList<>(inputs.size() + outputLevelInputs.size());
+        all.addAll(inputs);
+        all.addAll(outputLevelInputs);
+        return all;
+    }
+}
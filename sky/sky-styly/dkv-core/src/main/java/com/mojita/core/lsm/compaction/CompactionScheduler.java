@@ -0,0 +1,107 @@
+package com.mojita.core.lsm.compaction;
+
+import com.mojita.core.lsm.config.CompactionConfig;
+import com.mojita.core.lsm.version.Version;
+import com.mojita.core.lsm.version.VersionSet;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 压缩调度器 - 在后台线程中持续执行压缩，直到各层都满足大小目标
+ * 每次版本变更（刷盘或压缩完成）后检查是否需要压缩
+ */
+public class CompactionScheduler implements AutoCloseable {
+    private final VersionSet versionSet;
+    private final CompactionStrategy strategy;
+    private final Compactor compactor;
+    private final ExecutorService executor;
+    
+    // 是否已有后台压缩任务在排队或运行
+    private final AtomicBoolean scheduled;
+    
+    private volatile boolean closed;
+    
+    /**
+     * 构造函数
+     * @param versionSet 版本集合
+     * @param config 压缩配置
+     */
+    public CompactionScheduler(VersionSet versionSet, CompactionConfig config) {
+        this.versionSet = versionSet;
+        this.strategy = CompactionStrategy.create(config);
+        this.compactor = new Compactor(versionSet);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "dkv-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduled = new AtomicBoolean(false);
+        
+        versionSet.addVersionListener(this::maybeScheduleCompaction);
+    }
+    
+    /**
+     * 如果当前版本需要压缩且没有正在进行的压缩，则提交后台任务
+     */
+    public void maybeScheduleCompaction() {
+        if (closed || !strategy.needsCompaction(versionSet.current())) {
+            return;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::backgroundCompaction);
+        }
+    }
+    
+    /**
+     * 同步执行一次压缩
+     * @return 是否执行了压缩
+     * @throws IOException 如果压缩失败
+     */
+    public boolean runCompaction() throws IOException {
+        Version version = versionSet.acquire();
+        try {
+            Compaction compaction = strategy.pickCompaction(version);
+            if (compaction == null) {
+                return false;
+            }
+            compactor.run(compaction);
+            return true;
+        } finally {
+            versionSet.release(version);
+        }
+    }
+    
+    private void backgroundCompaction() {
+        try {
+            while (!closed && runCompaction()) {
+                // 持续压缩直到没有需要处理的层
+            }
+        } catch (Exception e) {
+            // 记录异常，等待下一次版本变更时重试
+            e.printStackTrace();
+            return;
+        } finally {
+            scheduled.set(false);
+        }
+        // 压缩结束前可能有新的刷盘完成，重新检查一次
+        maybeScheduleCompaction();
+    }
+    
+    /**
+     * 停止后台压缩，等待正在执行的压缩完成
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(60, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
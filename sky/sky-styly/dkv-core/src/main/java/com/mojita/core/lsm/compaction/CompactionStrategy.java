@@ -0,0 +1,44 @@
+package com.mojita.core.lsm.compaction;
+
+import com.mojita.core.lsm.config.CompactionConfig;
+import com.mojita.core.lsm.version.Version;
+
+/**
+ * 压缩策略接口 - 决定何时压缩以及选择哪些文件参与压缩
+ */
+public interface CompactionStrategy {
+    /**
+     * 判断当前版本是否需要压缩
+     * @param version 当前版本
+     * @return 是否需要压缩
+     */
+    boolean needsCompaction(Version version);
+    
+    /**
+     * 选择下一次压缩
+     * @param version 当前版本
+     * @return 压缩任务，无需压缩时返回null
+     */
+    Compaction pickCompaction(Version version);
+    
+    /**
+     * 获取计入写入压力的L0文件数，写入控制器按它对写入限速和停顿
+     * 只应计入压缩能够减少的文件，否则永远不会被合并的文件会让写入一直受限
+     * @param version 当前版本
+     * @return 文件数，默认为L0的全部文件
+     */
+    default int level0WritePressure(Version version) {
+        return version.getTables(0).size();
+    }
+    
+    /**
+     * 按配置的压缩风格创建策略
+     * @param config 压缩配置
+     * @return 压缩策略
+     */
+    static CompactionStrategy create(CompactionConfig config) {
+        return config.getStyle() == CompactionConfig.Style.TIERED
+            ? new TieredCompactionStrategy(config)
+            : new LeveledCompactionStrategy(config);
+    }
+}
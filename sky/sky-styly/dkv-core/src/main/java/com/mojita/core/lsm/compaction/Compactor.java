@@ -0,0 +1,107 @@
+package com.mojita.core.lsm.compaction;
+
+import com.mojita.core.lsm.iterator.MergingIterator;
+import com.mojita.core.lsm.sstable.SSTableBuilder;
+import com.mojita.core.lsm.sstable.SSTableReader;
+import com.mojita.core.lsm.util.InternalKey;
+import com.mojita.core.lsm.version.VersionSet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 压缩执行器 - 归并输入文件，按目标大小切分写出新文件并原子安装
+ */
+public class Compactor {
+    private final VersionSet versionSet;
+    
+    /**
+     * 构造函数
+     * @param versionSet 版本集合
+     */
+    public Compactor(VersionSet versionSet) {
+        this.versionSet = versionSet;
+    }
+    
+    /**
+     * 执行压缩
+     * 同一个键只保留最新的版本，被覆盖的旧值在归并时丢弃；
+     * 删除标记一并写出，只有输入之外没有更旧的重叠数据时才丢弃
+     * @param compaction 压缩任务，调用方需持有其输入文件所在版本的引用
+     * @throws IOException 如果读写失败，此时已写出的输出文件会被删除，版本保持不变
+     */
+    public void run(Compaction compaction) throws IOException {
+        List<SSTableReader> inputs = compaction.getAllInputs();
+        List<Iterator<Map.Entry<InternalKey, byte[]>>> sources = new ArrayList<>(inputs.size());
+        long maxSequence = 0;
+        MergingIterator iterator;
+        try {
+            for (SSTableReader input : inputs) {
+                sources.add(input.compactionIterator());
+                maxSequence = Math.max(maxSequence, input.getMetadata().getMaxSequence());
+            }
+            iterator = new MergingIterator(sources);
+        } catch (RuntimeException e) {
+            MergingIterator.closeAll(sources);
+            throw e;
+        }
+        
+        List<SSTableReader> outputs = new ArrayList<>();
+        List<Path> outputPaths = new ArrayList<>();
+        SSTableBuilder builder = null;
+        try {
+            while (iterator.hasNext()) {
+                Map.Entry<InternalKey, byte[]> entry = iterator.next();
+                if (compaction.isDropDeletions() && entry.getKey().isDeletion()) {
+                    continue;
+                }
+                if (builder == null) {
+                    long fileNumber = versionSet.newFileNumber();
+                    Path path = versionSet.tableFilePath(fileNumber);
+                    outputPaths.add(path);
+                    builder = versionSet.newTableBuilder(path, fileNumber, compaction.getOutputLevel());
+                    builder.setMaxSequence(maxSequence);
+                }
+                builder.add(entry.getKey(), entry.getValue());
+                
+                // 输出文件达到目标大小后切换到新文件
+                if (builder.getFileSize() >= compaction.getMaxOutputFileSize()) {
+                    outputs.add(finishOutput(builder));
+                    builder = null;
+                }
+            }
+            if (builder != null) {
+                outputs.add(finishOutput(builder));
+                builder = null;
+            }
+            
+            // 输出和输入在一次版本变更中同时生效
+            versionSet.applyEdit(inputs, outputs);
+        } catch (IOException | RuntimeException e) {
+            if (builder != null) {
+                builder.close();
+            }
+            for (SSTableReader output : outputs) {
+                output.close();
+            }
+            for (Path path : outputPaths) {
+                Files.deleteIfExists(path);
+            }
+            throw e;
+        } finally {
+            // 输入文件在归并期间被固定，结束后交还表缓存
+            iterator.close();
+        }
+    }
+    
+    private SSTableReader finishOutput(SSTableBuilder builder) throws IOException {
+        Path path = builder.finish();
+        builder.close();
+        return versionSet.openTable(path);
+    }
+}
@@ -0,0 +1,130 @@
+package com.mojita.core.lsm.compaction;
+
+import com.mojita.core.lsm.config.CompactionConfig;
+import com.mojita.core.lsm.sstable.SSTableMetadata;
+import com.mojita.core.lsm.sstable.SSTableReader;
+import com.mojita.core.lsm.util.Bytes;
+import com.mojita.core.lsm.version.Version;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分层压缩策略
+ * L0文件数超过阈值时将全部L0文件与重叠的L1文件合并到L1；
+ * L1及以上某层总大小超过目标大小时，轮流选取该层一个文件与下一层重叠的文件合并
+ */
+public class LeveledCompactionStrategy implements CompactionStrategy {
+    private final CompactionConfig config;
+    
+    // 每层上次压缩到的位置（最大键），用于轮流选取文件
+    private final byte[][] compactPointers;
+    
+    /**
+     * 构造函数
+     * @param config 压缩配置
+     */
+    public LeveledCompactionStrategy(CompactionConfig config) {
+        this.config = config;
+        this.compactPointers = new byte[Version.NUM_LEVELS][];
+    }
+    
+    @Override
+    public boolean needsCompaction(Version version) {
+        for (int level = 0; level < Version.NUM_LEVELS - 1; level++) {
+            if (score(version, level) >= 1.0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @Override
+    public synchronized Compaction pickCompaction(Version version) {
+        int bestLevel = -1;
+        double bestScore = 1.0;
+        
+        // 最后一层没有下一层可以合并
+        for (int level = 0; level < Version.NUM_LEVELS - 1; level++) {
+            double score = score(version, level);
+            if (score >= bestScore) {
+                bestScore = score;
+                bestLevel = level;
+            }
+        }
+        if (bestLevel < 0) {
+            return null;
+        }
+        
+        List<SSTableReader> inputs = bestLevel == 0
+            ? version.getTables(0)
+            : Collections.singletonList(pickFile(version.getTables(bestLevel), bestLevel));
+        
+        byte[] smallest = null;
+        byte[] largest = null;
+        for (SSTableReader table : inputs) {
+            SSTableMetadata metadata = table.getMetadata();
+            if (smallest == null || Bytes.compare(metadata.getSmallestKey(), smallest) < 0) {
+                smallest = metadata.getSmallestKey();
+            }
+            if (largest == null || Bytes.compare(metadata.getLargestKey(), largest) > 0) {
+                largest = metadata.getLargestKey();
+            }
+        }
+        
+        List<SSTableReader> outputLevelInputs = version.getOverlappingTables(bestLevel + 1, smallest, largest);
+        return new Compaction(bestLevel, bestLevel + 1, inputs, outputLevelInputs, config.getTargetFileSize(),
+            isBottommost(version, bestLevel + 1, smallest, largest));
+    }
+    
+    /**
+     * 判断输出层之下是否没有与键范围重叠的文件，此时删除标记已无需遮蔽任何旧值
+     * @param version 当前版本
+     * @param outputLevel 输出层级
+     * @param smallest 键范围下界
+     * @param largest 键范围上界
+     * @return 没有更深层的重叠文件时返回true
+     */
+    private static boolean isBottommost(Version version, int outputLevel, byte[] smallest, byte[] largest) {
+        for (int level = outputLevel + 1; level < Version.NUM_LEVELS; level++) {
+            if (!version.getOverlappingTables(level, smallest, largest).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 计算某层的压缩紧迫程度，大于等于1表示需要压缩
+     * @param version 当前版本
+     * @param level 层级
+     * @return 分数
+     */
+    private double score(Version version, int level) {
+        if (level == 0) {
+            return (double) version.getTables(0).size() / config.getLevel0FileNumTrigger();
+        }
+        return (double) version.getLevelSize(level) / config.maxBytesForLevel(level);
+    }
+    
+    /**
+     * 从上次压缩位置之后选取一个文件
+     * @param tables 该层文件，按最小键升序
+     * @param level 层级
+     * @return 选中的文件
+     */
+    private SSTableReader pickFile(List<SSTableReader> tables, int level) {
+        SSTableReader picked = tables.get(0);
+        byte[] pointer = compactPointers[level];
+        if (pointer != null) {
+            for (SSTableReader table : tables) {
+                if (Bytes.compare(table.getMetadata().getSmallestKey(), pointer) > 0) {
+                    picked = table;
+                    break;
+                }
+            }
+        }
+        compactPointers[level] = picked.getMetadata().getLargestKey();
+        return picked;
+    }
+}
@@ -0,0 +1,128 @@
+package com.mojita.core.lsm.compaction;
+
+import com.mojita.core.lsm.config.CompactionConfig;
+import com.mojita.core.lsm.sstable.SSTableReader;
+import com.mojita.core.lsm.version.Version;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分级（universal）压缩策略
+ * 所有文件都作为有序段保存在L0中，按新旧排列。从最新的段开始，把大小相近且新旧相邻的一组段
+ * 一次性合并为一个段：只要下一个（更旧的）段不超过已选段总大小的(100 + sizeRatio)%就继续纳入。
+ * 每条数据只在段大小增长一个量级时才被重写，写放大远低于分层压缩，代价是读请求需要检查更多的段。
+ *
+ * 只合并新旧相邻的段，合并结果的新旧位置与输入一致（最大序号取输入的最大值），
+ * 因此不依赖逐条记录的序号也能保证读到最新版本；删除标记只在合并包含最旧的段时丢弃
+ */
+public class TieredCompactionStrategy implements CompactionStrategy {
+    private final CompactionConfig config;
+
+    /**
+     * 构造函数
+     * @param config 压缩配置
+     */
+    public TieredCompactionStrategy(CompactionConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public boolean needsCompaction(Version version) {
+        return pickRuns(version.getTables(0)) != null;
+    }
+
+    @Override
+    public Compaction pickCompaction(Version version) {
+        List<SSTableReader> runs = pickRuns(version.getTables(0));
+        if (runs == null) {
+            return null;
+        }
+        // 合并结果作为一个完整的段输出，不按文件大小切分；包含最旧的段时删除标记可以丢弃
+        return new Compaction(0, 0, runs, Collections.<SSTableReader>emptyList(), Long.MAX_VALUE,
+            includesOldest(version, runs));
+    }
+
+    /**
+     * 只计入能与相邻段组成一次合并的段。大小比例不满足条件的旧段永远不会被选中，
+     * 计入它们会让段数随数据量增长而越过减速和停止阈值，写入一直受限甚至永久停顿；
+     * 计入的段数大于0时{@link #pickRuns(List)}总能选出一次合并，停顿的写入最终会被压缩解除
+     */
+    @Override
+    public int level0WritePressure(Version version) {
+        List<SSTableReader> runs = version.getTables(0);
+        int minWidth = Math.max(2, config.getLevel0FileNumTrigger());
+        // 已计入的段的下一个位置
+        int counted = 0;
+        int pressure = 0;
+        for (int start = 0; start <= runs.size() - minWidth; start++) {
+            int end = extendRun(runs, start, Integer.MAX_VALUE);
+            if (end - start >= minWidth && end > counted) {
+                pressure += end - Math.max(start, counted);
+                counted = end;
+            }
+        }
+        return pressure;
+    }
+    
+    /**
+     * 判断所选的段是否包含全部最旧的数据
+     * @param version 当前版本
+     * @param runs 所选的段
+     * @return 之后没有更旧的段且更深层没有文件时返回true
+     */
+    private static boolean includesOldest(Version version, List<SSTableReader> runs) {
+        List<SSTableReader> all = version.getTables(0);
+        if (runs.get(runs.size() - 1) != all.get(all.size() - 1)) {
+            return false;
+        }
+        for (int level = 1; level < Version.NUM_LEVELS; level++) {
+            if (!version.getTables(level).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 选择一组新旧相邻、大小相近的段
+     * @param runs L0中的段，按从新到旧排列
+     * @return 参与合并的段，没有满足条件的组合时返回null
+     */
+    private List<SSTableReader> pickRuns(List<SSTableReader> runs) {
+        int minWidth = Math.max(2, config.getLevel0FileNumTrigger());
+        int maxWidth = Math.max(minWidth, config.getTieredMaxMergeWidth());
+        if (runs.size() < minWidth) {
+            return null;
+        }
+
+        for (int start = 0; start <= runs.size() - minWidth; start++) {
+            int end = extendRun(runs, start, maxWidth);
+            if (end - start >= minWidth) {
+                return runs.subList(start, end);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 从指定段开始向更旧的方向纳入大小相近的段
+     * @param runs L0中的段，按从新到旧排列
+     * @param start 起始段
+     * @param maxWidth 最多纳入的段数
+     * @return 纳入的最后一个段的下一个位置
+     */
+    private int extendRun(List<SSTableReader> runs, int start, int maxWidth) {
+        long accumulated = runs.get(start).getMetadata().getDataSize();
+        int end = start + 1;
+        while (end < runs.size() && end - start < maxWidth) {
+            long size = runs.get(end).getMetadata().getDataSize();
+            if (size * 100 > accumulated * (100 + config.getTieredSizeRatioPercent())) {
+                break;
+            }
+            accumulated += size;
+            end++;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,158 @@
+package com.mojita.core.lsm.config;
+
+/**
+ * 压缩配置参数
+ */
+public class CompactionConfig {
+    /**
+     * 压缩策略
+     */
+    public enum Style {
+        // 分层压缩：读放大和空间放大小，写放大较大
+        LEVELED,
+        // 分级（universal）压缩：合并大小相近的有序段，写放大小，读放大较大
+        TIERED
+    }
+    
+    // 默认L0文件数达到4个时触发压缩
+    private static final int DEFAULT_LEVEL0_FILE_NUM_TRIGGER = 4;
+    
+    // 默认L0文件数达到20个时开始限速写入
+    private static final int DEFAULT_LEVEL0_SLOWDOWN_WRITES_TRIGGER = 20;
+    
+    // 默认L0文件数达到36个时停止写入
+    private static final int DEFAULT_LEVEL0_STOP_WRITES_TRIGGER = 36;
+    
+    // 默认L1目标大小 (10MB)
+    private static final long DEFAULT_MAX_BYTES_FOR_LEVEL_BASE = 10 * 1024 * 1024;
+    
+    // 默认相邻层级的大小倍数
+    private static final int DEFAULT_LEVEL_SIZE_MULTIPLIER = 10;
+    
+    // 默认压缩输出文件的目标大小 (2MB)
+    private static final long DEFAULT_TARGET_FILE_SIZE = 2 * 1024 * 1024;
+    
+    // 默认分级压缩中参与合并的段大小比例（百分比）
+    private static final int DEFAULT_TIERED_SIZE_RATIO_PERCENT = 20;
+    
+    // 默认分级压缩一次最多合并的段数
+    private static final int DEFAULT_TIERED_MAX_MERGE_WIDTH = 32;
+    
+    private Style style;
+    private int level0FileNumTrigger;
+    private int level0SlowdownWritesTrigger;
+    private int level0StopWritesTrigger;
+    private long maxBytesForLevelBase;
+    private int levelSizeMultiplier;
+    private long targetFileSize;
+    private int tieredSizeRatioPercent;
+    private int tieredMaxMergeWidth;
+    
+    /**
+     * 默认构造函数
+     */
+    public CompactionConfig() {
+        this.style = Style.LEVELED;
+        this.level0FileNumTrigger = DEFAULT_LEVEL0_FILE_NUM_TRIGGER;
+        this.level0SlowdownWritesTrigger = DEFAULT_LEVEL0_SLOWDOWN_WRITES_TRIGGER;
+        this.level0StopWritesTrigger = DEFAULT_LEVEL0_STOP_WRITES_TRIGGER;
+        this.maxBytesForLevelBase = DEFAULT_MAX_BYTES_FOR_LEVEL_BASE;
+        this.levelSizeMultiplier = DEFAULT_LEVEL_SIZE_MULTIPLIER;
+        this.targetFileSize = DEFAULT_TARGET_FILE_SIZE;
+        this.tieredSizeRatioPercent = DEFAULT_TIERED_SIZE_RATIO_PERCENT;
+        this.tieredMaxMergeWidth = DEFAULT_TIERED_MAX_MERGE_WIDTH;
+    }
+    
+    /**
+     * 计算某一层的目标大小
+     * @param level 层级（从1开始）
+     * @return 目标大小（字节）
+     */
+    public long maxBytesForLevel(int level) {
+        long result = maxBytesForLevelBase;
+        for (int i = 1; i < level; i++) {
+            result *= levelSizeMultiplier;
+        }
+        return result;
+    }
+    
+    public Style getStyle() {
+        return style;
+    }
+    
+    public void setStyle(Style style) {
+        this.style = style;
+    }
+    
+    public int getLevel0FileNumTrigger() {
+        return level0FileNumTrigger;
+    }
+    
+    public void setLevel0FileNumTrigger(int level0FileNumTrigger) {
+        this.level0FileNumTrigger = level0FileNumTrigger;
+    }
+    
+    /**
+     * L0文件数达到该值时开始限速写入，越接近停止阈值速率越低
+     * @return 文件数
+     */
+    public int getLevel0SlowdownWritesTrigger() {
+        return level0SlowdownWritesTrigger;
+    }
+    
+    public void setLevel0SlowdownWritesTrigger(int level0SlowdownWritesTrigger) {
+        this.level0SlowdownWritesTrigger = level0SlowdownWritesTrigger;
+    }
+    
+    /**
+     * L0文件数达到该值时停止写入，等待压缩把文件数降下来
+     * @return 文件数
+     */
+    public int getLevel0StopWritesTrigger() {
+        return level0StopWritesTrigger;
+    }
+    
+    public void setLevel0StopWritesTrigger(int level0StopWritesTrigger) {
+        this.level0StopWritesTrigger = level0StopWritesTrigger;
+    }
+    
+    public long getMaxBytesForLevelBase() {
+        return maxBytesForLevelBase;
+    }
+    
+    public void setMaxBytesForLevelBase(long maxBytesForLevelBase) {
+        this.maxBytesForLevelBase = maxBytesForLevelBase;
+    }
+    
+    public int getLevelSizeMultiplier() {
+        return levelSizeMultiplier;
+    }
+    
+    public void setLevelSizeMultiplier(int levelSizeMultiplier) {
+        this.levelSizeMultiplier = levelSizeMultiplier;
+    }
+    
+    public long getTargetFileSize() {
+        return targetFileSize;
+    }
+    
+    public void setTargetFileSize(long targetFileSize) {
+        this.targetFileSize = targetFileSize;
+    }
+    
+    public int getTieredSizeRatioPercent() {
+        return tieredSizeRatioPercent;
+    }
+    
+    public void setTieredSizeRatioPercent(int tieredSizeRatioPercent) {
+        this.tieredSizeRatioPercent = tieredSizeRatioPercent;
+    }
+    
+    public int getTieredMaxMergeWidth() {
+        return tieredMaxMergeWidth;
+    }
+    
+    public void setTieredMaxMergeWidth(int tieredMaxMergeWidth) {
+        this.tieredMaxMergeWidth = tieredMaxMergeWidth;
+    }
+}
@@ -0,0 +1,53 @@
+package com.mojita.core.lsm.config;
+
+/**
+ * LSM引擎配置 - 汇总各组件的配置
+ */
+public class LSMConfig {
+    private MemTableConfig memTableConfig;
+    private CompactionConfig compactionConfig;
+    private WALConfig walConfig;
+    private SSTableConfig sstableConfig;
+    
+    /**
+     * 默认构造函数
+     */
+    public LSMConfig() {
+        this.memTableConfig = new MemTableConfig();
+        this.compactionConfig = new CompactionConfig();
+        this.walConfig = new WALConfig();
+        this.sstableConfig = new SSTableConfig();
+    }
+    
+    public MemTableConfig getMemTableConfig() {
+        return memTableConfig;
+    }
+    
+    public void setMemTableConfig(MemTableConfig memTableConfig) {
+        this.memTableConfig = memTableConfig;
+    }
+    
+    public CompactionConfig getCompactionConfig() {
+        return compactionConfig;
+    }
+    
+    public void setCompactionConfig(CompactionConfig compactionConfig) {
+        this.compactionConfig = compactionConfig;
+    }
+    
+    public WALConfig getWalConfig() {
+        return walConfig;
+    }
+    
+    public void setWalConfig(WALConfig walConfig) {
+        this.walConfig = walConfig;
+    }
+    
+    public SSTableConfig getSstableConfig() {
+        return sstableConfig;
+    }
+    
+    public void setSstableConfig(SSTableConfig sstableConfig) {
+        this.sstableConfig = sstableConfig;
+    }
+}
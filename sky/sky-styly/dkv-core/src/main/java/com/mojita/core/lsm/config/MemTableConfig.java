@@ -4,21 +4,58 @@ package com.mojita.core.lsm.config;
  * MemTable配置参数
  */
 public class MemTableConfig {
+    /**
+     * MemTable的实现方式
+     */
+    public enum Type {
+        // 堆上的ConcurrentSkipListMap，每条记录是若干个堆对象
+        SKIP_LIST,
+        // 堆外内存池中的跳表，记录不产生堆对象，刷盘后整体释放
+        ARENA
+    }
+    
     // 默认最大大小 (4MB)
     private static final long DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
     
     // 默认最大生命周期 (30分钟)
     private static final long DEFAULT_MAX_LIFETIME_MS = 30 * 60 * 1000;
     
+    // 默认刷盘线程数
+    private static final int DEFAULT_FLUSH_THREADS = 2;
+    
+    // 默认内存池块大小 (1MB)
+    private static final int DEFAULT_ARENA_BLOCK_SIZE = 1024 * 1024;
+    
+    // 默认达到3个不可变MemTable时开始限速
+    private static final int DEFAULT_SLOWDOWN_IMMUTABLE_MEMTABLES = 3;
+    
+    // 默认达到5个不可变MemTable时停止写入
+    private static final int DEFAULT_MAX_IMMUTABLE_MEMTABLES = 5;
+    
+    // 默认限速时的写入速率 (16MB/s)
+    private static final long DEFAULT_DELAYED_WRITE_RATE = 16 * 1024 * 1024;
+    
+    private Type type;
+    private int arenaBlockSize;
     private long maxSize;
     private long maxLifetimeMs;
+    private int flushThreads;
+    private int slowdownImmutableMemTables;
+    private int maxImmutableMemTables;
+    private long delayedWriteRate;
     
     /**
      * 默认构造函数
      */
     public MemTableConfig() {
+        this.type = Type.SKIP_LIST;
+        this.arenaBlockSize = DEFAULT_ARENA_BLOCK_SIZE;
         this.maxSize = DEFAULT_MAX_SIZE;
         this.maxLifetimeMs = DEFAULT_MAX_LIFETIME_MS;
+        this.flushThreads = DEFAULT_FLUSH_THREADS;
+        this.slowdownImmutableMemTables = DEFAULT_SLOWDOWN_IMMUTABLE_MEMTABLES;
+        this.maxImmutableMemTables = DEFAULT_MAX_IMMUTABLE_MEMTABLES;
+        this.delayedWriteRate = DEFAULT_DELAYED_WRITE_RATE;
     }
     
     /**
@@ -27,10 +64,31 @@ public class MemTableConfig {
      * @param maxLifetimeMs 最大生命周期（毫秒）
      */
     public MemTableConfig(long maxSize, long maxLifetimeMs) {
+        this();
         this.maxSize = maxSize;
         this.maxLifetimeMs = maxLifetimeMs;
     }
     
+    public Type getType() {
+        return type;
+    }
+    
+    public void setType(Type type) {
+        this.type = type;
+    }
+    
+    /**
+     * ARENA实现的内存池块大小（字节），实际使用时不超过MemTable上限的1/4
+     * @return 块大小
+     */
+    public int getArenaBlockSize() {
+        return arenaBlockSize;
+    }
+    
+    public void setArenaBlockSize(int arenaBlockSize) {
+        this.arenaBlockSize = arenaBlockSize;
+    }
+    
     public long getMaxSize() {
         return maxSize;
     }
@@ -46,4 +104,52 @@ public class MemTableConfig {
     public void setMaxLifetimeMs(long maxLifetimeMs) {
         this.maxLifetimeMs = maxLifetimeMs;
     }
-} 
\ No newline at end of file
+    
+    /**
+     * 并行刷盘的线程数，多个不可变MemTable可以同时写SSTable，但总是按切换顺序安装
+     * @return 线程数
+     */
+    public int getFlushThreads() {
+        return flushThreads;
+    }
+    
+    public void setFlushThreads(int flushThreads) {
+        this.flushThreads = flushThreads;
+    }
+    
+    /**
+     * 不可变MemTable数达到该值时开始限速，越接近上限速率越低
+     * @return 不可变MemTable数
+     */
+    public int getSlowdownImmutableMemTables() {
+        return slowdownImmutableMemTables;
+    }
+    
+    public void setSlowdownImmutableMemTables(int slowdownImmutableMemTables) {
+        this.slowdownImmutableMemTables = slowdownImmutableMemTables;
+    }
+    
+    /**
+     * 不可变MemTable数的上限，达到后写入等待刷盘
+     * @return 不可变MemTable数
+     */
+    public int getMaxImmutableMemTables() {
+        return maxImmutableMemTables;
+    }
+    
+    public void setMaxImmutableMemTables(int maxImmutableMemTables) {
+        this.maxImmutableMemTables = maxImmutableMemTables;
+    }
+    
+    /**
+     * 刚进入限速时允许的写入速率（字节/秒），随压力增加线性降低
+     * @return 字节/秒
+     */
+    public long getDelayedWriteRate() {
+        return delayedWriteRate;
+    }
+    
+    public void setDelayedWriteRate(long delayedWriteRate) {
+        this.delayedWriteRate = delayedWriteRate;
+    }
+}
@@ -0,0 +1,185 @@
+package com.mojita.core.lsm.config;
+
+import com.mojita.core.lsm.sstable.BlockCache;
+import com.mojita.core.lsm.sstable.ChecksumVerifier;
+import com.mojita.core.lsm.sstable.compress.CompressionType;
+
+import java.util.Arrays;
+
+/**
+ * SSTable读取配置参数
+ */
+public class SSTableConfig {
+    // 默认不使用内存映射读取
+    private static final boolean DEFAULT_MMAP_READS = false;
+
+    // 默认块缓存容量 (8MB)
+    private static final long DEFAULT_BLOCK_CACHE_SIZE = 8 * 1024 * 1024;
+
+    // 默认块缓存分片数
+    private static final int DEFAULT_BLOCK_CACHE_SHARDS = 16;
+
+    // 默认最多同时打开的SSTable文件数
+    private static final int DEFAULT_MAX_OPEN_FILES = 1000;
+
+    // 默认写缓冲区大小 (1MB)
+    private static final int DEFAULT_WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    // 默认增量同步间隔 (1MB)
+    private static final long DEFAULT_BYTES_PER_SYNC = 1024 * 1024;
+
+    private boolean mmapReads;
+    private long blockCacheSize;
+    private int blockCacheShards;
+    private BlockCache.EvictionPolicy blockCacheEvictionPolicy;
+    private boolean blockCacheOffHeap;
+    private int maxOpenFiles;
+    private CompressionType[] compressionPerLevel;
+    private ChecksumVerifier.Policy checksumVerification;
+    private int writeBufferSize;
+    private long bytesPerSync;
+
+    /**
+     * 默认构造函数
+     */
+    public SSTableConfig() {
+        this.mmapReads = DEFAULT_MMAP_READS;
+        this.blockCacheSize = DEFAULT_BLOCK_CACHE_SIZE;
+        this.blockCacheShards = DEFAULT_BLOCK_CACHE_SHARDS;
+        this.blockCacheEvictionPolicy = BlockCache.EvictionPolicy.CLOCK;
+        this.blockCacheOffHeap = false;
+        this.maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+        this.compressionPerLevel = new CompressionType[] {CompressionType.LZ};
+        this.checksumVerification = ChecksumVerifier.Policy.ALWAYS;
+        this.writeBufferSize = DEFAULT_WRITE_BUFFER_SIZE;
+        this.bytesPerSync = DEFAULT_BYTES_PER_SYNC;
+    }
+
+    /**
+     * 是否以内存映射方式读取SSTable
+     * 开启后整个文件映射到内存，数据块和索引直接在映射区域上解析，不再为每次读取分配堆缓冲区，
+     * 由操作系统页缓存负责缓存，适合读多写少的节点
+     * @return 是否开启
+     */
+    public boolean isMmapReads() {
+        return mmapReads;
+    }
+
+    public void setMmapReads(boolean mmapReads) {
+        this.mmapReads = mmapReads;
+    }
+
+    /**
+     * 块缓存容量（字节），为0时不使用块缓存
+     * @return 容量
+     */
+    public long getBlockCacheSize() {
+        return blockCacheSize;
+    }
+
+    public void setBlockCacheSize(long blockCacheSize) {
+        this.blockCacheSize = blockCacheSize;
+    }
+
+    public int getBlockCacheShards() {
+        return blockCacheShards;
+    }
+
+    public void setBlockCacheShards(int blockCacheShards) {
+        this.blockCacheShards = blockCacheShards;
+    }
+
+    public BlockCache.EvictionPolicy getBlockCacheEvictionPolicy() {
+        return blockCacheEvictionPolicy;
+    }
+
+    public void setBlockCacheEvictionPolicy(BlockCache.EvictionPolicy blockCacheEvictionPolicy) {
+        this.blockCacheEvictionPolicy = blockCacheEvictionPolicy;
+    }
+
+    /**
+     * 块缓存是否把块内容存放在堆外
+     * @return 是否堆外
+     */
+    public boolean isBlockCacheOffHeap() {
+        return blockCacheOffHeap;
+    }
+
+    public void setBlockCacheOffHeap(boolean blockCacheOffHeap) {
+        this.blockCacheOffHeap = blockCacheOffHeap;
+    }
+
+    /**
+     * 最多同时打开的SSTable文件数，超过后关闭最冷的文件，再次访问时重新打开；为0时不限制
+     * @return 文件数上限
+     */
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * 获取指定层级的数据块压缩方式，超出配置长度的层级沿用最后一项
+     * @param level 层级
+     * @return 压缩方式
+     */
+    public CompressionType getCompression(int level) {
+        if (compressionPerLevel.length == 0) {
+            return CompressionType.NONE;
+        }
+        return compressionPerLevel[Math.min(level, compressionPerLevel.length - 1)];
+    }
+
+    public CompressionType[] getCompressionPerLevel() {
+        return Arrays.copyOf(compressionPerLevel, compressionPerLevel.length);
+    }
+
+    /**
+     * 设置各层的压缩方式，例如L0和L1不压缩、更深的层用LZ、最底层用DEFLATE
+     * @param compressionPerLevel 从L0开始的压缩方式，更深的层沿用最后一项
+     */
+    public void setCompressionPerLevel(CompressionType... compressionPerLevel) {
+        this.compressionPerLevel = Arrays.copyOf(compressionPerLevel, compressionPerLevel.length);
+    }
+
+    /**
+     * 数据块的校验和验证策略：ALWAYS校验所有从磁盘读取的块，COMPACTION_ONLY只校验压缩的输入，NEVER不校验。
+     * 除NEVER外，打开文件时总是校验页脚、索引块和过滤器块
+     * @return 验证策略
+     */
+    public ChecksumVerifier.Policy getChecksumVerification() {
+        return checksumVerification;
+    }
+
+    public void setChecksumVerification(ChecksumVerifier.Policy checksumVerification) {
+        this.checksumVerification = checksumVerification;
+    }
+
+    /**
+     * 写SSTable时的写缓冲区大小（字节），按4KB向上取整
+     * 每个构建器使用两个缓冲区：一个接收编码好的块，另一个由后台I/O线程写入文件
+     * @return 缓冲区大小
+     */
+    public int getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    public void setWriteBufferSize(int writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    /**
+     * 写SSTable时每写入多少字节fsync一次，把刷盘分摊到整个写入过程；为0时只在完成时fsync
+     * @return 字节数
+     */
+    public long getBytesPerSync() {
+        return bytesPerSync;
+    }
+
+    public void setBytesPerSync(long bytesPerSync) {
+        this.bytesPerSync = bytesPerSync;
+    }
+}
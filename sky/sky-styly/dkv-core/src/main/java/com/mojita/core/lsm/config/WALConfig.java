@@ -0,0 +1,116 @@
+package com.mojita.core.lsm.config;
+
+/**
+ * WAL配置参数
+ */
+public class WALConfig {
+    /**
+     * 落盘策略
+     */
+    public enum SyncPolicy {
+        // 每条记录单独写入并fsync，最安全也最慢
+        PER_WRITE,
+        // 并发写入合并为一批，整批写入后fsync一次再返回
+        PER_BATCH,
+        // 按批写入但不等待fsync，由后台线程每隔syncIntervalMs执行一次fsync
+        INTERVAL,
+        // 只写入操作系统页缓存，从不主动fsync（进程崩溃不丢数据，机器掉电可能丢失）
+        NONE
+    }
+
+    // 默认落盘策略
+    private static final SyncPolicy DEFAULT_SYNC_POLICY = SyncPolicy.PER_BATCH;
+
+    // 默认后台fsync间隔 (100毫秒)
+    private static final long DEFAULT_SYNC_INTERVAL_MS = 100;
+
+    // 默认单批最大字节数 (1MB)
+    private static final int DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+
+    // 默认段预分配大小 (4MB，与MemTable默认大小相当)
+    private static final long DEFAULT_SEGMENT_PREALLOCATE_BYTES = 4 * 1024 * 1024;
+
+    // 默认最多保留的复用段文件数
+    private static final int DEFAULT_MAX_RECYCLED_SEGMENTS = 2;
+
+    // 默认回放解码线程数
+    private static final int DEFAULT_RECOVERY_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private SyncPolicy syncPolicy;
+    private long syncIntervalMs;
+    private int maxBatchBytes;
+    private long segmentPreallocateBytes;
+    private int maxRecycledSegments;
+    private int recoveryThreads;
+
+    /**
+     * 默认构造函数
+     */
+    public WALConfig() {
+        this.syncPolicy = DEFAULT_SYNC_POLICY;
+        this.syncIntervalMs = DEFAULT_SYNC_INTERVAL_MS;
+        this.maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+        this.segmentPreallocateBytes = DEFAULT_SEGMENT_PREALLOCATE_BYTES;
+        this.maxRecycledSegments = DEFAULT_MAX_RECYCLED_SEGMENTS;
+        this.recoveryThreads = DEFAULT_RECOVERY_THREADS;
+    }
+
+    /**
+     * 完整构造函数
+     * @param syncPolicy 落盘策略
+     * @param syncIntervalMs 后台fsync间隔（毫秒），仅INTERVAL策略使用
+     */
+    public WALConfig(SyncPolicy syncPolicy, long syncIntervalMs) {
+        this();
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalMs = syncIntervalMs;
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    public long getSyncIntervalMs() {
+        return syncIntervalMs;
+    }
+
+    public void setSyncIntervalMs(long syncIntervalMs) {
+        this.syncIntervalMs = syncIntervalMs;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public long getSegmentPreallocateBytes() {
+        return segmentPreallocateBytes;
+    }
+
+    public void setSegmentPreallocateBytes(long segmentPreallocateBytes) {
+        this.segmentPreallocateBytes = segmentPreallocateBytes;
+    }
+
+    public int getMaxRecycledSegments() {
+        return maxRecycledSegments;
+    }
+
+    public void setMaxRecycledSegments(int maxRecycledSegments) {
+        this.maxRecycledSegments = maxRecycledSegments;
+    }
+
+    public int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    public void setRecoveryThreads(int recoveryThreads) {
+        this.recoveryThreads = recoveryThreads;
+    }
+}
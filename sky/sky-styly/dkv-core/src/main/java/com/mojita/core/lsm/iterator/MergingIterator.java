@@ -0,0 +1,113 @@
+package com.mojita.core.lsm.iterator;
+
+import com.mojita.core.lsm.util.Bytes;
+import com.mojita.core.lsm.util.InternalKey;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * 归并迭代器 - 将多个各自按内部键有序的输入合并为一个有序序列
+ * 同一个用户键只返回序号最大的版本（包括删除标记），序号相同时以下标较小（较新）的输入为准；
+ * 关闭时一并关闭实现了{@link AutoCloseable}的输入（例如固定了SSTable文件的迭代器）
+ */
+public class MergingIterator implements Iterator<Map.Entry<InternalKey, byte[]>>, AutoCloseable {
+    private final PriorityQueue<Source> heap;
+    private final List<? extends Iterator<Map.Entry<InternalKey, byte[]>>> sources;
+
+    /**
+     * 构造函数
+     * @param sources 有序输入，下标越小数据越新
+     */
+    public MergingIterator(List<? extends Iterator<Map.Entry<InternalKey, byte[]>>> sources) {
+        this.sources = sources;
+        this.heap = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+            int cmp = InternalKey.COMPARATOR.compare(a.current.getKey(), b.current.getKey());
+            return cmp != 0 ? cmp : Integer.compare(a.priority, b.priority);
+        });
+        for (int i = 0; i < sources.size(); i++) {
+            Source source = new Source(sources.get(i), i);
+            if (source.advance()) {
+                heap.add(source);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<InternalKey, byte[]> next() {
+        Source top = heap.poll();
+        if (top == null) {
+            throw new NoSuchElementException("No more entries");
+        }
+        Map.Entry<InternalKey, byte[]> result = top.current;
+        if (top.advance()) {
+            heap.add(top);
+        }
+
+        // 跳过同一用户键的旧版本
+        byte[] userKey = result.getKey().getUserKey();
+        while (!heap.isEmpty() && Bytes.compare(heap.peek().current.getKey().getUserKey(), userKey) == 0) {
+            Source older = heap.poll();
+            if (older.advance()) {
+                heap.add(older);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 关闭所有可关闭的输入，重复调用无副作用
+     */
+    @Override
+    public void close() {
+        heap.clear();
+        closeAll(sources);
+    }
+
+    /**
+     * 关闭列表中所有可关闭的迭代器，用于创建归并迭代器之前或创建失败时的清理
+     * @param sources 迭代器列表
+     */
+    public static void closeAll(List<? extends Iterator<Map.Entry<InternalKey, byte[]>>> sources) {
+        for (Iterator<Map.Entry<InternalKey, byte[]>> source : sources) {
+            if (source instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) source).close();
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed to close iterator", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 单个输入及其当前位置
+     */
+    private static class Source {
+        private final Iterator<Map.Entry<InternalKey, byte[]>> iterator;
+        private final int priority;
+        private Map.Entry<InternalKey, byte[]> current;
+
+        Source(Iterator<Map.Entry<InternalKey, byte[]>> iterator, int priority) {
+            this.iterator = iterator;
+            this.priority = priority;
+        }
+
+        boolean advance() {
+            if (iterator.hasNext()) {
+                current = iterator.next();
+                return true;
+            }
+            current = null;
+            return false;
+        }
+    }
+}
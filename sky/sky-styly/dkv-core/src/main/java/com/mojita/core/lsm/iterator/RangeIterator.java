@@ -0,0 +1,89 @@
+package com.mojita.core.lsm.iterator;
+
+import com.mojita.core.lsm.util.Bytes;
+import com.mojita.core.lsm.util.InternalKey;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 范围迭代器 - 在归并结果上应用上界和条数限制，跳过删除标记，返回用户视角的键值对
+ * 结果边迭代边产生，不在内存中缓存整个范围；用完后必须关闭以释放底层资源
+ */
+public class RangeIterator implements Iterator<Map.Entry<byte[], byte[]>>, AutoCloseable {
+    private final Iterator<Map.Entry<InternalKey, byte[]>> merged;
+    private final byte[] endKey;
+    private final int limit;
+    private final Runnable onClose;
+
+    private Map.Entry<byte[], byte[]> nextEntry;
+    private int returned;
+    private boolean closed;
+
+    /**
+     * 构造函数
+     * @param merged 已定位到起始键的归并迭代器，每个用户键只出现一次
+     * @param endKey 结束用户键（不包含），null表示无上界
+     * @param limit 最多返回的条数，小于等于0表示不限制
+     * @param onClose 关闭时执行的清理动作
+     */
+    public RangeIterator(Iterator<Map.Entry<InternalKey, byte[]>> merged, byte[] endKey, int limit, Runnable onClose) {
+        this.merged = merged;
+        this.endKey = endKey;
+        this.limit = limit;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextEntry != null) {
+            return true;
+        }
+        if (limit > 0 && returned >= limit) {
+            close();
+            return false;
+        }
+        if (closed) {
+            return false;
+        }
+        while (merged.hasNext()) {
+            Map.Entry<InternalKey, byte[]> entry = merged.next();
+            byte[] userKey = entry.getKey().getUserKey();
+            if (endKey != null && Bytes.compare(userKey, endKey) >= 0) {
+                // 超出上界，后面的记录都更大
+                close();
+                return false;
+            }
+            if (!entry.getKey().isDeletion()) {
+                nextEntry = new AbstractMap.SimpleImmutableEntry<>(userKey, entry.getValue());
+                return true;
+            }
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more entries in range");
+        }
+        Map.Entry<byte[], byte[]> result = nextEntry;
+        nextEntry = null;
+        returned++;
+        return result;
+    }
+
+    /**
+     * 关闭迭代器，重复调用无副作用；迭代到末尾时自动关闭
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            onClose.run();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.mojita.core.lsm.sstable;
+
+import com.mojita.core.lsm.sstable.bloom.BloomFilter;
+import com.mojita.core.lsm.util.InternalKey;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 数据块 - 解析{@link BlockBuilder}生成的块，支持基于重启点的查找和顺序迭代
+ * 查找时在重启点上二分（直接与块内字节比较，不分配键），随后最多扫描一个重启间隔的记录
+ */
+class Block {
+    private final ByteBuffer data;
+    private final int entryCount;
+    private final int restartsOffset;
+    private final int numRestarts;
+    // 延迟解码的布隆过滤器
+    private volatile BloomFilter bloomFilter;
+
+    /**
+     * 构造函数
+     * @param data 块内容，position为块起始
+     */
+    Block(ByteBuffer data) {
+        this.data = data.slice();
+        this.entryCount = this.data.getInt(0);
+        int limit = this.data.limit();
+        this.numRestarts = this.data.getInt(limit - 4);
+        this.restartsOffset = limit - 4 - 4 * numRestarts;
+    }
+
+    int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * 用块内的布隆过滤器判断键是否可能存在
+     * @param key 用户键
+     * @return 如果可能存在返回true，如果一定不存在返回false
+     */
+    boolean mayContain(byte[] key) {
+        BloomFilter filter = bloomFilter;
+        if (filter == null) {
+            int bloomFilterSize = data.getInt(4);
+            if (bloomFilterSize <= 0 || bloomFilterSize > data.limit() - 8) {
+                // 没有布隆过滤器
+                return true;
+            }
+            byte[] bloomFilterData = new byte[bloomFilterSize];
+            ByteBuffer view = data.duplicate();
+            view.position(8);
+            view.get(bloomFilterData);
+            // 块被缓存时只解码一次，并发解码的结果相同
+            filter = BloomFilter.fromByteArray(bloomFilterData);
+            bloomFilter = filter;
+        }
+        return filter.mightContain(key);
+    }
+
+    /**
+     * 查找用户键
+     * @param key 用户键
+     * @return 内部键及值，块中没有该键时返回null
+     */
+    Map.Entry<InternalKey, byte[]> get(byte[] key) {
+        BlockIterator iterator = iterator(key);
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        Map.Entry<InternalKey, byte[]> entry = iterator.next();
+        return Arrays.equals(entry.getKey().getUserKey(), key) ? entry : null;
+    }
+
+    /**
+     * 从头迭代
+     * @return 迭代器
+     */
+    BlockIterator iterator() {
+        BlockIterator iterator = new BlockIterator();
+        iterator.seekToRestart(0);
+        return iterator;
+    }
+
+    /**
+     * 从第一个用户键不小于给定键的记录开始迭代
+     * @param key 起始用户键
+     * @return 迭代器
+     */
+    BlockIterator iterator(byte[] key) {
+        // 找到最后一个键小于目标键的重启点
+        int low = 0;
+        int high = numRestarts - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (compareRestartKey(mid, key) < 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        BlockIterator iterator = new BlockIterator();
+        iterator.seekToRestart(low);
+        iterator.skipBefore(key);
+        return iterator;
+    }
+
+    private int restartPoint(int index) {
+        return data.getInt(restartsOffset + 4 * index);
+    }
+
+    /**
+     * 比较重启点处的完整键与目标键
+     * @param index 重启点下标
+     * @param key 目标键
+     * @return 比较结果
+     */
+    private int compareRestartKey(int index, byte[] key) {
+        int offset = restartPoint(index);
+        // 重启点的共享长度为0
+        int length = data.getInt(offset + 4);
+        int start = offset + 8;
+        int limit = Math.min(length, key.length);
+        for (int i = 0; i < limit; i++) {
+            int cmp = Byte.compare(data.get(start + i), key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    /**
+     * 块内迭代器，重用键缓冲区解码前缀压缩的键
+     */
+    class BlockIterator implements Iterator<Map.Entry<InternalKey, byte[]>> {
+        private int position;
+        private byte[] keyBuffer = new byte[32];
+        private int keyLength;
+        // 定位时已解码、尚未返回的记录
+        private Map.Entry<InternalKey, byte[]> peeked;
+
+        void seekToRestart(int index) {
+            position = numRestarts > 0 ? restartPoint(index) : restartsOffset;
+            keyLength = 0;
+        }
+
+        /**
+         * 跳过用户键小于给定键的记录，只解码键不复制值
+         * @param key 目标键
+         */
+        void skipBefore(byte[] key) {
+            while (position < restartsOffset) {
+                int start = position;
+                decodeKey();
+                if (compareCurrentKey(key) >= 0) {
+                    position = start;
+                    peeked = next();
+                    return;
+                }
+                // 跳过标记和值
+                position += 8;
+                position += 4 + data.getInt(position);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return peeked != null || position < restartsOffset;
+        }
+
+        @Override
+        public Map.Entry<InternalKey, byte[]> next() {
+            if (peeked != null) {
+                Map.Entry<InternalKey, byte[]> entry = peeked;
+                peeked = null;
+                return entry;
+            }
+            if (position >= restartsOffset) {
+                throw new NoSuchElementException("No more entries in block");
+            }
+            decodeKey();
+            long tag = data.getLong(position);
+            position += 8;
+            byte[] value = new byte[data.getInt(position)];
+            position += 4;
+            ByteBuffer view = data.duplicate();
+            view.position(position);
+            view.get(value);
+            position += value.length;
+            byte[] key = Arrays.copyOf(keyBuffer, keyLength);
+            return new AbstractMap.SimpleImmutableEntry<>(InternalKey.fromTag(key, tag), value);
+        }
+
+        /**
+         * 解码当前位置的键到键缓冲区，position移动到标记处
+         */
+        private void decodeKey() {
+            int shared = data.getInt(position);
+            int unshared = data.getInt(position + 4);
+            position += 8;
+            if (shared + unshared > keyBuffer.length) {
+                keyBuffer = Arrays.copyOf(keyBuffer, Math.max(keyBuffer.length * 2, shared + unshared));
+            }
+            ByteBuffer view = data.duplicate();
+            view.position(position);
+            view.get(keyBuffer, shared, unshared);
+            position += unshared;
+            keyLength = shared + unshared;
+        }
+
+        private int compareCurrentKey(byte[] key) {
+            int limit = Math.min(keyLength, key.length);
+            for (int i = 0; i < limit; i++) {
+                int cmp = Byte.compare(keyBuffer[i], key[i]);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return Integer.compare(keyLength, key.length);
+        }
+    }
+}
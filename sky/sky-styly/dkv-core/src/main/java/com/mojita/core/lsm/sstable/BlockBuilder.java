@@ -0,0 +1,190 @@
+package com.mojita.core.lsm.sstable;
+
+import com.mojita.core.lsm.util.Bytes;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 数据块构建器 - 按键升序追加记录，生成带重启点的数据块
+ *
+ * 块格式：条目数(4) + 布隆过滤器长度(4) + 布隆过滤器 + 记录... + 重启点偏移(4)... + 重启点数(4)
+ * 记录格式：共享前缀长度(4) + 非共享长度(4) + 非共享键字节 + 序号和类型标记(8) + 值长度(4) + 值
+ *
+ * 键相对前一个键做前缀压缩，每隔restartInterval条记录设一个重启点，重启点处的键完整存储，
+ * 其偏移（相对块起始位置）记录在块尾，读取时先在重启点上二分查找，再在一小段记录中顺序扫描。
+ *
+ * 记录直接编码进一个复用的缓冲区，块头预留在缓冲区开头，完成时就地写入块头和重启点，
+ * 新文件的块内不再带布隆过滤器，过滤器长度总为0。上一个键也复制到复用的缓冲区中，
+ * 追加记录不为键和值分配对象
+ */
+class BlockBuilder {
+    // 默认重启间隔
+    static final int DEFAULT_RESTART_INTERVAL = 16;
+
+    // 块头：条目数(4) + 布隆过滤器长度(4)
+    private static final int HEADER_SIZE = 8;
+
+    private final int restartInterval;
+
+    // 块头 + 记录区，完成时在其后追加重启点
+    private byte[] buffer;
+    private int size;
+
+    // 重启点相对块起始的偏移
+    private int[] restarts;
+    private int restartCount;
+
+    // 上一个追加的键，重置后保留，供调用方检查跨块的键顺序
+    private byte[] lastKey;
+    private int lastKeyLength;
+    private boolean hasLastKey;
+    private int count;
+
+    /**
+     * 构造函数
+     * @param restartInterval 重启间隔
+     */
+    BlockBuilder(int restartInterval) {
+        this.restartInterval = Math.max(1, restartInterval);
+        this.buffer = new byte[4096];
+        this.restarts = new int[16];
+        this.lastKey = new byte[32];
+        this.size = HEADER_SIZE;
+    }
+
+    /**
+     * 追加一条记录，键必须大于之前追加的所有键
+     * @param key 用户键
+     * @param tag 序号和类型标记
+     * @param value 值
+     */
+    void add(byte[] key, long tag, byte[] value) {
+        int shared = 0;
+        if (count % restartInterval == 0) {
+            if (restartCount == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restartCount * 2);
+            }
+            restarts[restartCount++] = size;
+        } else {
+            int limit = Math.min(lastKeyLength, key.length);
+            while (shared < limit && lastKey[shared] == key[shared]) {
+                shared++;
+            }
+        }
+        int unshared = key.length - shared;
+        ensureCapacity(4 + 4 + unshared + 8 + 4 + value.length);
+        putInt(shared);
+        putInt(unshared);
+        System.arraycopy(key, shared, buffer, size, unshared);
+        size += unshared;
+        putLong(tag);
+        putInt(value.length);
+        System.arraycopy(value, 0, buffer, size, value.length);
+        size += value.length;
+
+        if (key.length > lastKey.length) {
+            lastKey = Arrays.copyOf(lastKey, Math.max(lastKey.length * 2, key.length));
+        }
+        System.arraycopy(key, shared, lastKey, shared, unshared);
+        lastKeyLength = key.length;
+        hasLastKey = true;
+        count++;
+    }
+
+    /**
+     * 比较给定键与上一个追加的键
+     * @param key 用户键
+     * @return 给定键大于上一个键时为正数；还没有追加过记录时为正数
+     */
+    int compareToLastKey(byte[] key) {
+        if (!hasLastKey) {
+            return 1;
+        }
+        int limit = Math.min(lastKeyLength, key.length);
+        for (int i = 0; i < limit; i++) {
+            int cmp = Byte.compare(key[i], lastKey[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(key.length, lastKeyLength);
+    }
+
+    /**
+     * 计算上一个键与给定键之间的最短分隔键
+     * @param key 大于上一个键的用户键
+     * @return 分隔键
+     */
+    byte[] separatorFromLastKey(byte[] key) {
+        return Bytes.shortestSeparator(lastKey, lastKeyLength, key);
+    }
+
+    /**
+     * 复制上一个追加的键
+     * @return 键的副本，没有追加过记录时返回null
+     */
+    byte[] lastKey() {
+        return hasLastKey ? Arrays.copyOf(lastKey, lastKeyLength) : null;
+    }
+
+    /**
+     * 估计完成后块的大小，随追加记录累加，不需要遍历记录
+     * @return 字节数
+     */
+    int estimatedSize() {
+        return size + 4 * restartCount + 4;
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * 就地生成完整的数据块
+     * @return 块内容，是内部缓冲区的视图，在{@link #reset()}之前有效
+     */
+    ByteBuffer finish() {
+        ensureCapacity(4 * restartCount + 4);
+        for (int i = 0; i < restartCount; i++) {
+            putInt(restarts[i]);
+        }
+        putInt(restartCount);
+        ByteBuffer block = ByteBuffer.wrap(buffer, 0, size);
+        block.putInt(0, count);
+        block.putInt(4, 0);
+        return block;
+    }
+
+    /**
+     * 清空以构建下一个块，复用缓冲区
+     */
+    void reset() {
+        size = HEADER_SIZE;
+        count = 0;
+        restartCount = 0;
+    }
+
+    private void putInt(int v) {
+        buffer[size] = (byte) (v >>> 24);
+        buffer[size + 1] = (byte) (v >>> 16);
+        buffer[size + 2] = (byte) (v >>> 8);
+        buffer[size + 3] = (byte) v;
+        size += 4;
+    }
+
+    private void putLong(long v) {
+        putInt((int) (v >>> 32));
+        putInt((int) v);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
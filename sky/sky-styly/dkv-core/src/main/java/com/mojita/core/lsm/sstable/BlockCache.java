@@ -0,0 +1,309 @@
+package com.mojita.core.lsm.sstable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数据块缓存 - 缓存已解析的数据块，以（SSTable ID，块偏移）为键，由同一引擎的所有SSTable共享
+ *
+ * 缓存按键的哈希分成若干分片，每个分片独立加锁并独立按容量淘汰，避免所有读线程争用一把锁。
+ * 支持两种淘汰策略：
+ * LRU - 每次命中都调整访问顺序，命中也需要加分片锁；
+ * CLOCK - 命中只设置引用位，查找无锁，淘汰时给被引用过的块第二次机会。
+ * 开启堆外存储时块内容复制到直接内存，不占用Java堆。
+ * 分区索引的索引分区也缓存在这里，与数据块共享容量，分区总是存放在堆上
+ */
+public class BlockCache {
+    /**
+     * 淘汰策略
+     */
+    public enum EvictionPolicy {
+        LRU,
+        CLOCK
+    }
+
+    private final Shard[] shards;
+    private final int shardMask;
+    private final boolean offHeap;
+
+    // 统计计数
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 构造函数
+     * @param capacity 总容量（字节）
+     * @param shardCount 分片数，向上取整为2的幂
+     * @param policy 淘汰策略
+     * @param offHeap 是否把块内容存放在堆外
+     */
+    public BlockCache(long capacity, int shardCount, EvictionPolicy policy, boolean offHeap) {
+        if (capacity <= 0 || shardCount <= 0) {
+            throw new IllegalArgumentException("Block cache capacity and shard count must be positive");
+        }
+        int count = Integer.highestOneBit(shardCount);
+        if (count < shardCount) {
+            count <<= 1;
+        }
+        long shardCapacity = Math.max(1, capacity / count);
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = policy == EvictionPolicy.CLOCK ? new ClockShard(shardCapacity) : new LruShard(shardCapacity);
+        }
+        this.shardMask = count - 1;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * 查找缓存的数据块
+     * @param tableId SSTable ID
+     * @param offset 块在文件中的偏移
+     * @return 数据块，未缓存时返回null
+     */
+    Block get(long tableId, long offset) {
+        return (Block) lookup(tableId, offset);
+    }
+
+    /**
+     * 查找缓存的索引分区
+     * @param tableId SSTable ID
+     * @param offset 分区在文件中的偏移
+     * @return 索引分区，未缓存时返回null
+     */
+    BlockIndex getIndex(long tableId, long offset) {
+        return (BlockIndex) lookup(tableId, offset);
+    }
+
+    private Object lookup(long tableId, long offset) {
+        CacheKey key = new CacheKey(tableId, offset);
+        Object value = shardFor(key).get(key);
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    /**
+     * 解析并缓存数据块，其他线程已缓存同一块时返回已有的块
+     * @param tableId SSTable ID
+     * @param offset 块在文件中的偏移
+     * @param contents 块内容
+     * @return 数据块
+     */
+    Block put(long tableId, long offset, ByteBuffer contents) {
+        int charge = contents.remaining();
+        if (offHeap) {
+            ByteBuffer copy = ByteBuffer.allocateDirect(charge);
+            copy.put(contents.duplicate());
+            copy.flip();
+            contents = copy;
+        }
+        CacheKey key = new CacheKey(tableId, offset);
+        return (Block) shardFor(key).put(key, new Block(contents), charge);
+    }
+
+    /**
+     * 缓存解析后的索引分区，其他线程已缓存同一分区时返回已有的分区
+     * @param tableId SSTable ID
+     * @param offset 分区在文件中的偏移
+     * @param index 索引分区
+     * @return 索引分区
+     */
+    BlockIndex putIndex(long tableId, long offset, BlockIndex index) {
+        CacheKey key = new CacheKey(tableId, offset);
+        return (BlockIndex) shardFor(key).put(key, index, index.memoryUsage());
+    }
+
+    private Shard shardFor(CacheKey key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & shardMask];
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * 获取当前缓存占用的字节数
+     * @return 已用字节数
+     */
+    public long getUsage() {
+        long usage = 0;
+        for (Shard shard : shards) {
+            usage += shard.usage();
+        }
+        return usage;
+    }
+
+    /**
+     * 缓存键
+     */
+    private static final class CacheKey {
+        private final long tableId;
+        private final long offset;
+
+        CacheKey(long tableId, long offset) {
+            this.tableId = tableId;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return tableId == other.tableId && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(tableId) * 31 + Long.hashCode(offset);
+        }
+    }
+
+    /**
+     * 缓存分片
+     */
+    private abstract static class Shard {
+        protected final long capacity;
+        protected long usage;
+
+        Shard(long capacity) {
+            this.capacity = capacity;
+        }
+
+        abstract Object get(CacheKey key);
+
+        abstract Object put(CacheKey key, Object value, int charge);
+
+        synchronized long usage() {
+            return usage;
+        }
+    }
+
+    /**
+     * LRU分片，按访问顺序淘汰最久未使用的块
+     */
+    private final class LruShard extends Shard {
+        private final LinkedHashMap<CacheKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        LruShard(long capacity) {
+            super(capacity);
+        }
+
+        @Override
+        synchronized Object get(CacheKey key) {
+            Entry entry = entries.get(key);
+            return entry != null ? entry.value : null;
+        }
+
+        @Override
+        synchronized Object put(CacheKey key, Object value, int charge) {
+            Entry existing = entries.get(key);
+            if (existing != null) {
+                return existing.value;
+            }
+            if (charge > capacity) {
+                // 大于分片容量的块不缓存
+                return value;
+            }
+            entries.put(key, new Entry(key, value, charge));
+            usage += charge;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (usage > capacity && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                usage -= eldest.charge;
+                evictions.increment();
+            }
+            return value;
+        }
+    }
+
+    /**
+     * CLOCK分片，查找无锁，命中时设置引用位；淘汰时按插入顺序轮转，
+     * 引用位被设置的块清除引用位后放回队尾，否则淘汰
+     */
+    private final class ClockShard extends Shard {
+        private final ConcurrentHashMap<CacheKey, Entry> entries = new ConcurrentHashMap<>();
+        private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+
+        ClockShard(long capacity) {
+            super(capacity);
+        }
+
+        @Override
+        Object get(CacheKey key) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.value;
+        }
+
+        @Override
+        synchronized Object put(CacheKey key, Object value, int charge) {
+            Entry existing = entries.get(key);
+            if (existing != null) {
+                return existing.value;
+            }
+            if (charge > capacity) {
+                return value;
+            }
+            Entry entry = new Entry(key, value, charge);
+            entries.put(key, entry);
+            clock.addLast(entry);
+            usage += charge;
+            while (usage > capacity) {
+                Entry candidate = clock.pollFirst();
+                if (candidate.referenced && candidate != entry) {
+                    candidate.referenced = false;
+                    clock.addLast(candidate);
+                    continue;
+                }
+                entries.remove(candidate.key);
+                usage -= candidate.charge;
+                evictions.increment();
+            }
+            return value;
+        }
+    }
+
+    /**
+     * 缓存条目
+     */
+    private static final class Entry {
+        final CacheKey key;
+        // 数据块或索引分区
+        final Object value;
+        final int charge;
+        // CLOCK策略的引用位
+        volatile boolean referenced;
+
+        Entry(CacheKey key, Object value, int charge) {
+            this.key = key;
+            this.value = value;
+            this.charge = charge;
+        }
+    }
+}
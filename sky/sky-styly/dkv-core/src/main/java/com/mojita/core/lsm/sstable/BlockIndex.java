@@ -1,159 +1,250 @@
 package com.mojita.core.lsm.sstable;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Comparator;
 
 /**
  * 块索引 - 快速定位键所在的数据块
+ * 每个块有一个索引键：第一个块为其最小键，其余块为大于前一个块的最大键、且不大于本块最小键的最短分隔键，
+ * 最后一个索引键不大于目标键的块就是唯一可能包含该键的块。
+ *
+ * 所有索引键连续存放在一个字节数组中，由偏移数组记录每个键的起点，块句柄也拆成偏移和大小两个基本类型数组，
+ * 整个索引只有几个数组对象。序列化格式与内存布局相同：
+ * 条目数(4) + 块偏移(8*n) + 块大小(4*n) + 键起点(4*(n+1)) + 键数据。
+ *
+ * 分区索引的顶层索引与分区使用同一格式，顶层条目指向索引分区，索引键为分区第一个条目的键
  */
 public class BlockIndex {
-    private final BlockHandle[] blockHandles;
-    private final byte[][] blockKeys; // 每个块的最小键
-    
+    private final long[] blockOffsets;
+    private final int[] blockSizes;
+    // 第i个键位于keys的[keyOffsets[i], keyOffsets[i + 1])
+    private final int[] keyOffsets;
+    private final byte[] keys;
+
+    private BlockIndex(long[] blockOffsets, int[] blockSizes, int[] keyOffsets, byte[] keys) {
+        this.blockOffsets = blockOffsets;
+        this.blockSizes = blockSizes;
+        this.keyOffsets = keyOffsets;
+        this.keys = keys;
+    }
+
     /**
-     * 构造函数
-     * @param blockHandles 块句柄数组
+     * 解析索引块
+     * @param buffer 索引块内容，从position开始
+     * @return 块索引
      */
-    public BlockIndex(BlockHandle[] blockHandles) {
-        this.blockHandles = blockHandles;
-        this.blockKeys = new byte[blockHandles.length][];
+    public static BlockIndex deserialize(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate();
+        int count = view.getInt();
+        long[] blockOffsets = new long[count];
+        int[] blockSizes = new int[count];
+        int[] keyOffsets = new int[count + 1];
+        view.asLongBuffer().get(blockOffsets);
+        view.position(view.position() + 8 * count);
+        view.asIntBuffer().get(blockSizes);
+        view.position(view.position() + 4 * count);
+        view.asIntBuffer().get(keyOffsets);
+        view.position(view.position() + 4 * (count + 1));
+        byte[] keys = new byte[keyOffsets[count]];
+        view.get(keys);
+        return new BlockIndex(blockOffsets, blockSizes, keyOffsets, keys);
     }
-    
+
     /**
-     * 设置块的最小键
-     * @param blockIndex 块索引
-     * @param key 最小键
+     * 解析旧格式（格式版本3之前）的索引块：条目数 + 每个条目的（句柄长度 + 句柄 + 最小键长度 + 最小键）
+     * @param buffer 索引块内容，从position开始
+     * @return 块索引
      */
-    public void setBlockKey(int blockIndex, byte[] key) {
-        if (blockIndex >= 0 && blockIndex < blockKeys.length) {
-            blockKeys[blockIndex] = key;
+    static BlockIndex deserializeLegacy(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate();
+        int count = view.getInt();
+        Builder builder = new Builder();
+        for (int i = 0; i < count; i++) {
+            byte[] handleBytes = new byte[view.getInt()];
+            view.get(handleBytes);
+            // 没有最小键的条目以空键表示，空键不大于任何键
+            byte[] key = new byte[view.getInt()];
+            view.get(key);
+            builder.add(BlockHandle.deserialize(handleBytes), key);
         }
+        return builder.build();
     }
-    
+
     /**
-     * 查找包含特定键的块句柄
+     * 查找可能包含特定键的块句柄：索引键不大于该键的最后一个块
+     * 只在内存中的索引上二分查找，可以被多个线程同时调用
      * @param key 要查找的键
-     * @return 块句柄，如果未找到返回null
+     * @return 块句柄，键小于第一个块的最小键时返回null
      */
     public BlockHandle findBlockHandle(byte[] key) {
-        // 检查索引是否为空
-        if (blockHandles.length == 0) {
-            System.out.println("Empty index");
+        if (blockOffsets.length == 0) {
             return null;
         }
-        
-        // 如果只有一个数据块且没有键信息，直接返回第一个块
-        if (blockHandles.length == 1 && (blockKeys == null || blockKeys.length == 0 || blockKeys[0] == null)) {
-            System.out.println("Single block with no key - returning it directly");
-            return blockHandles[0];
-        }
-        
-        // 创建字节数组比较器
-        Comparator<byte[]> comparator = (a, b) -> {
-            int minLen = Math.min(a.length, b.length);
-            for (int i = 0; i < minLen; i++) {
-                int cmp = Byte.compare(a[i], b[i]);
-                if (cmp != 0) return cmp;
-            }
-            return Integer.compare(a.length, b.length);
-        };
-        
-        // 对于小数据集，直接扫描可能更简单
-        if (blockHandles.length < 10) {
-            for (int i = 0; i < blockHandles.length; i++) {
-                if (blockKeys[i] != null) {
-                    // 使用安全的方法显示二进制键
-                    System.out.println("Block " + i + " with min key: " + bytesToHex(blockKeys[i]) + 
-                                      ", searching for: " + bytesToHex(key));
-                    
-                    if (i == blockHandles.length - 1 || 
-                        comparator.compare(key, blockKeys[i + 1]) < 0) {
-                        if (comparator.compare(key, blockKeys[i]) >= 0) {
-                            return blockHandles[i];
-                        }
-                    }
-                }
-            }
+        int index = findStartBlock(key);
+        if (compareKey(index, key) > 0) {
             return null;
         }
-        
-        // 二分查找
-        System.out.println("Using binary search for " + blockHandles.length + " blocks");
+        return getBlockHandle(index);
+    }
+
+    /**
+     * 查找迭代应从哪个块开始：索引键不大于给定键的最后一个块
+     * @param key 起始键
+     * @return 块下标，键小于第一个块的最小键时返回0
+     */
+    public int findStartBlock(byte[] key) {
         int low = 0;
-        int high = blockKeys.length - 1;
-        
+        int high = blockOffsets.length - 1;
+        int result = 0;
         while (low <= high) {
             int mid = (low + high) >>> 1;
-            System.out.println("Binary search: low=" + low + ", high=" + high + ", mid=" + mid);
-            
-            if (mid == blockKeys.length - 1 || comparator.compare(key, blockKeys[mid + 1]) < 0) {
-                // 键小于下一个块的最小键
-                if (comparator.compare(key, blockKeys[mid]) >= 0) {
-                    // 键大于等于当前块的最小键
-                    System.out.println("Found block at index: " + mid);
-                    return blockHandles[mid];
-                } else {
-                    high = mid - 1;
-                }
-            } else {
+            if (compareKey(mid, key) <= 0) {
+                result = mid;
                 low = mid + 1;
+            } else {
+                high = mid - 1;
             }
         }
-        
-        System.out.println("No block found for key");
-        return null;
+        return result;
     }
-    
+
+    /**
+     * 比较第index个索引键与目标键，规则与{@link com.mojita.core.lsm.util.Bytes#compare}相同
+     * @param index 条目下标
+     * @param key 目标键
+     * @return 比较结果
+     */
+    private int compareKey(int index, byte[] key) {
+        int start = keyOffsets[index];
+        int length = keyOffsets[index + 1] - start;
+        int limit = Math.min(length, key.length);
+        for (int i = 0; i < limit; i++) {
+            int cmp = Byte.compare(keys[start + i], key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    /**
+     * 获取第index个块的句柄
+     * @param index 块下标
+     * @return 块句柄
+     */
+    public BlockHandle getBlockHandle(int index) {
+        return new BlockHandle(blockOffsets[index], blockSizes[index]);
+    }
+
+    /**
+     * 获取第index个块的索引键
+     * @param index 块下标
+     * @return 索引键的副本
+     */
+    public byte[] getKey(int index) {
+        return Arrays.copyOfRange(keys, keyOffsets[index], keyOffsets[index + 1]);
+    }
+
     /**
      * 获取所有块句柄
      * @return 块句柄数组
      */
     public BlockHandle[] getBlockHandles() {
-        return Arrays.copyOf(blockHandles, blockHandles.length);
+        BlockHandle[] handles = new BlockHandle[blockOffsets.length];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = getBlockHandle(i);
+        }
+        return handles;
     }
-    
+
     /**
      * 获取块数量
      * @return 块数量
      */
     public int size() {
-        return blockHandles.length;
+        return blockOffsets.length;
+    }
+
+    /**
+     * 估算索引占用的堆内存
+     * @return 字节数
+     */
+    public int memoryUsage() {
+        return keys.length + 16 * blockOffsets.length + 64;
     }
 
     /**
-     * 将字节数组转换为十六进制字符串，用于安全显示
-     * @param bytes 字节数组
-     * @return 十六进制字符串
+     * 索引构建器，按块顺序追加条目
      */
-    private static String bytesToHex(byte[] bytes) {
-        if (bytes == null) {
-            return "null";
+    public static class Builder {
+        private long[] blockOffsets = new long[16];
+        private int[] blockSizes = new int[16];
+        private int[] keyOffsets = new int[17];
+        private byte[] keys = new byte[256];
+        private int count;
+
+        /**
+         * 追加一个条目
+         * @param handle 块句柄
+         * @param key 索引键
+         */
+        public void add(BlockHandle handle, byte[] key) {
+            if (count == blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, count * 2);
+                blockSizes = Arrays.copyOf(blockSizes, count * 2);
+                keyOffsets = Arrays.copyOf(keyOffsets, count * 2 + 1);
+            }
+            int keyStart = keyOffsets[count];
+            if (keyStart + key.length > keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keyStart + key.length));
+            }
+            System.arraycopy(key, 0, keys, keyStart, key.length);
+            blockOffsets[count] = handle.getOffset();
+            blockSizes[count] = (int) handle.getSize();
+            count++;
+            keyOffsets[count] = keyStart + key.length;
+        }
+
+        public int size() {
+            return count;
         }
-        
-        // 尝试将其作为UTF-8字符串，如果失败则使用十六进制
-        try {
-            String str = new String(bytes, "UTF-8");
-            // 检查是否只包含可打印ASCII字符
-            boolean isPrintable = true;
-            for (int i = 0; i < str.length(); i++) {
-                if (str.charAt(i) < 32 || str.charAt(i) > 126) {
-                    isPrintable = false;
-                    break;
-                }
+
+        /**
+         * 序列化后的大小
+         * @return 字节数
+         */
+        public int serializedSize() {
+            return 4 + 16 * count + 4 + keyOffsets[count];
+        }
+
+        /**
+         * 序列化为索引块
+         * @return 索引块内容
+         */
+        public ByteBuffer serialize() {
+            ByteBuffer buffer = ByteBuffer.allocate(serializedSize());
+            buffer.putInt(count);
+            for (int i = 0; i < count; i++) {
+                buffer.putLong(blockOffsets[i]);
             }
-            if (isPrintable) {
-                return "\"" + str + "\"";
+            for (int i = 0; i < count; i++) {
+                buffer.putInt(blockSizes[i]);
             }
-        } catch (Exception e) {
-            // 忽略异常，使用十六进制
+            for (int i = 0; i <= count; i++) {
+                buffer.putInt(keyOffsets[i]);
+            }
+            buffer.put(keys, 0, keyOffsets[count]);
+            buffer.flip();
+            return buffer;
         }
-        
-        // 转为十六进制
-        StringBuilder result = new StringBuilder();
-        result.append("0x");
-        for (byte b : bytes) {
-            result.append(String.format("%02X", b));
+
+        /**
+         * 构建内存中的索引
+         * @return 块索引
+         */
+        public BlockIndex build() {
+            return new BlockIndex(Arrays.copyOf(blockOffsets, count), Arrays.copyOf(blockSizes, count),
+                Arrays.copyOf(keyOffsets, count + 1), Arrays.copyOf(keys, keyOffsets[count]));
         }
-        return result.toString();
     }
-} 
\ No newline at end of file
+}
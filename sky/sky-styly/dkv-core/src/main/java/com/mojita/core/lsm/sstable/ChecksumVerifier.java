@@ -0,0 +1,113 @@
+package com.mojita.core.lsm.sstable;
+
+import com.mojita.core.lsm.util.Crc32c;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 校验和验证器 - 按策略校验SSTable块尾部的CRC32C，并统计校验耗时和失败次数，由同一引擎的所有SSTable共享
+ *
+ * 页脚、索引块和布隆过滤器块只在打开文件时读取一次，除NEVER外总是校验；
+ * 数据块在点查和迭代的热路径上，是否校验由策略决定。从块缓存命中的块不重复校验
+ */
+public class ChecksumVerifier {
+    /**
+     * 数据块校验策略
+     */
+    public enum Policy {
+        /**
+         * 所有从磁盘读取的数据块都校验
+         */
+        ALWAYS,
+        /**
+         * 只校验压缩读取的输入，避免损坏的数据被重写进新文件；普通读取不校验
+         */
+        COMPACTION_ONLY,
+        /**
+         * 不校验
+         */
+        NEVER
+    }
+
+    private final Policy policy;
+
+    // 统计计数
+    private final LongAdder verifiedCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder verifyNanos = new LongAdder();
+
+    /**
+     * 构造函数
+     * @param policy 校验策略
+     */
+    public ChecksumVerifier(Policy policy) {
+        this.policy = policy != null ? policy : Policy.ALWAYS;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * 普通读取的数据块是否需要校验
+     * @return 是否校验
+     */
+    boolean verifiesReads() {
+        return policy == Policy.ALWAYS;
+    }
+
+    /**
+     * 压缩输入和打开文件时读取的元数据块是否需要校验
+     * @return 是否校验
+     */
+    boolean verifiesCompaction() {
+        return policy != Policy.NEVER;
+    }
+
+    /**
+     * 校验一段内容
+     * @param path 文件路径，用于错误信息
+     * @param offset 内容在文件中的偏移，用于错误信息
+     * @param data 被校验的内容，从position到limit
+     * @param expected 记录的校验和
+     * @throws IOException 如果校验和不匹配
+     */
+    void verify(Path path, long offset, ByteBuffer data, int expected) throws IOException {
+        long start = System.nanoTime();
+        int actual = Crc32c.compute(data);
+        verifyNanos.add(System.nanoTime() - start);
+        verifiedCount.increment();
+        if (actual != expected) {
+            failureCount.increment();
+            throw new IOException(String.format("Checksum mismatch in SSTable %s at offset %d: expected %08x, got %08x",
+                path, offset, expected, actual));
+        }
+    }
+
+    /**
+     * 获取累计校验的块数
+     * @return 校验次数
+     */
+    public long getVerifiedCount() {
+        return verifiedCount.sum();
+    }
+
+    /**
+     * 获取校验失败的次数
+     * @return 失败次数
+     */
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    /**
+     * 获取校验累计耗费的时间
+     * @return 纳秒数
+     */
+    public long getVerifyNanos() {
+        return verifyNanos.sum();
+    }
+}
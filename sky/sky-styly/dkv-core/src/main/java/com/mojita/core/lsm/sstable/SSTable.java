@@ -3,7 +3,6 @@ package com.mojita.core.lsm.sstable;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.Iterator;
 import java.util.Map;
 
 /**
@@ -38,12 +37,11 @@ public interface SSTable extends Closeable, Iterable<Map.Entry<byte[], byte[]>>
     byte[] get(byte[] key) throws IOException;
     
     /**
-     * 获取键值对迭代器
+     * 获取键值对迭代器，迭代完之前停止时必须关闭
      * @return 键值对迭代器
-     * @throws IOException 如果读取出错
      */
     @Override
-    Iterator<Map.Entry<byte[], byte[]>> iterator();
+    TableIterator<Map.Entry<byte[], byte[]>> iterator();
     
     /**
      * 获取SSTable的元数据
@@ -2,25 +2,52 @@ package com.mojita.core.lsm.sstable;
 
 import com.mojita.core.lsm.sstable.bloom.BloomFilter;
 import com.mojita.core.lsm.sstable.bloom.BloomFilterPolicy;
+import com.mojita.core.lsm.sstable.compress.CompressionType;
+import com.mojita.core.lsm.util.Bytes;
+import com.mojita.core.lsm.util.Crc32c;
+import com.mojita.core.lsm.util.InternalKey;
+import com.mojita.core.lsm.util.ValueType;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * SSTable构建器 - 创建SSTable文件
+ * 记录必须按用户键严格递增的顺序添加，每条记录直接编码进当前数据块，不缓存、不复制键和值，
+ * 块大小随编码累加，达到目标大小即写出，构建大文件的耗时与记录数成线性。
+ * 数据块由{@link BlockBuilder}编码：键相对前一个键前缀压缩，每隔固定条数设一个重启点，
+ * 删除标记的值为空。
+ *
+ * 文件布局：数据块... + 布隆过滤器块 + 索引块 + 页脚。
+ * 索引键是相邻两个块之间的最短分隔键；索引超过一个数据块大小时拆成若干索引分区，
+ * 分区依次写在过滤器块之后，页脚指向的顶层索引只记录每个分区的第一个键，分区数记录在元数据中。
+ * 每个数据块按层级配置的方式压缩，压缩后节省不到1/8的块按原样存储。
+ * 数据块、布隆过滤器块和索引块之后都追加尾部：压缩方式(1) + CRC32C(4)，
+ * 校验和覆盖块内容和压缩方式，块句柄的大小不含尾部；页脚在魔数之前记录页脚其余部分的CRC32C。
+ * 整个文件只有一个布隆过滤器，写入过程中只收集每个键的哈希，完成时按实际键数创建；
+ * 过滤器块紧跟在数据区之后，其大小记录在元数据中。
+ *
+ * 编码在调用线程上进行，写出的块追加到{@link TableWriter}的写缓冲区，缓冲区写满后由后台I/O线程写入文件，
+ * 编码下一批块与写入上一批块重叠；写入过程中每隔bytesPerSync字节fsync一次，完成时只需同步剩余部分
  */
 public class SSTableBuilder implements AutoCloseable {
     private static final int DEFAULT_BLOCK_SIZE = 4096;  // 4KB
     private static final int FOOTER_SIZE = 512;         // 增大页脚大小，容纳更多元数据
+    private static final int DEFAULT_WRITE_BUFFER_SIZE = 1024 * 1024;  // 1MB
+    private static final long DEFAULT_BYTES_PER_SYNC = 1024 * 1024;    // 1MB
+    // 文件格式版本：1表示数据块后带1字节的压缩方式尾部，2表示所有块的尾部和页脚都带CRC32C，
+    // 3表示紧凑格式的索引块、最短分隔键和分区索引
+    static final int FORMAT_VERSION = 3;
+    static final int BLOCK_TRAILER_SIZE = 5;
+    // 页脚校验和的位置，紧挨魔数之前
+    static final int FOOTER_CHECKSUM_OFFSET = FOOTER_SIZE - 12;
+    // 普通写入（序号为0）的标记
+    private static final long PUT_TAG = InternalKey.pack(0, ValueType.PUT);
+    private static final byte[] EMPTY_VALUE = new byte[0];
     
     private final FileChannel channel;                  // 输出文件通道
     private final Path path;                            // 文件路径
@@ -28,19 +55,29 @@ public class SSTableBuilder implements AutoCloseable {
     private final int blockSize;                        // 数据块大小
     private final BloomFilterPolicy bloomFilterPolicy;  // 布隆过滤器策略
     
-    private final List<BlockHandle> indexBlocks;        // 索引块列表
-    private final Map<byte[], byte[]> pendingEntries;   // 待写入的键值对
-    private final ByteBuffer dataBlockBuffer;           // 数据块缓冲区
+    private final BlockIndex.Builder indexBuilder;      // 所有数据块的索引条目
+    private final BlockBuilder blockBuilder;            // 数据块编码器
+    private final Crc32c crc = new Crc32c();            // 块尾部的校验和，复用
+    private final ByteBuffer trailer = ByteBuffer.allocate(BLOCK_TRAILER_SIZE); // 块尾部，复用
     
     private long currentOffset;                        // 当前文件偏移量
     private byte[] smallestKey;                        // 最小键
-    private byte[] largestKey;                         // 最大键
     private long recordCount;                          // 记录数
-    
-    private final Comparator<byte[]> comparator;       // 键比较器
-
-    // 成员变量用于存储每个数据块的最小键
-    private List<byte[]> blockMinKeysForIndex;
+    private int level;                                 // 所属层级
+    private long maxSequence;                          // 数据的最大序号
+    private long deletionCount;                        // 删除标记数
+    private long[] keyHashes;                          // 布隆过滤器的键哈希，每个键两个
+    private int keyHashCount;                          // 已收集的键数
+    private long dataSize;                             // 数据区大小
+    private long filterSize;                           // 布隆过滤器块大小
+    private long indexSize;                            // 索引区大小（含分区）
+    private int indexPartitions;                       // 索引分区数
+    private byte[] blockIndexKey;                      // 当前数据块的索引键
+    private CompressionType compression = CompressionType.NONE; // 数据块压缩方式
+    private int writeBufferSize = DEFAULT_WRITE_BUFFER_SIZE;    // 写缓冲区大小
+    private long bytesPerSync = DEFAULT_BYTES_PER_SYNC;         // 增量同步间隔
+    private TableWriter writer;                        // 写入第一个块时创建
+    private boolean finished;                          // 是否已完成
 
     /**
      * 构造函数
@@ -57,31 +94,12 @@ public class SSTableBuilder implements AutoCloseable {
         this.blockSize = blockSize > 0 ? blockSize : DEFAULT_BLOCK_SIZE;
         this.bloomFilterPolicy = bloomFilterPolicy;
         
-        this.indexBlocks = new ArrayList<>();
-        this.pendingEntries = new TreeMap<>((a, b) -> {
-            // 字节数组比较逻辑
-            int minLen = Math.min(a.length, b.length);
-            for (int i = 0; i < minLen; i++) {
-                int cmp = Byte.compare(a[i], b[i]);
-                if (cmp != 0) return cmp;
-            }
-            return Integer.compare(a.length, b.length);
-        });
-        this.comparator = (a, b) -> {
-            // 字节数组比较逻辑
-            int minLen = Math.min(a.length, b.length);
-            for (int i = 0; i < minLen; i++) {
-                int cmp = Byte.compare(a[i], b[i]);
-                if (cmp != 0) return cmp;
-            }
-            return Integer.compare(a.length, b.length);
-        };
-        
-        this.dataBlockBuffer = ByteBuffer.allocateDirect(this.blockSize * 4);
+        this.indexBuilder = new BlockIndex.Builder();
+        this.blockBuilder = new BlockBuilder(BlockBuilder.DEFAULT_RESTART_INTERVAL);
         this.currentOffset = 0;
         this.recordCount = 0;
         
-        this.blockMinKeysForIndex = new ArrayList<>();
+        this.keyHashes = new long[bloomFilterPolicy != null ? 256 : 0];
     }
     
     /**
@@ -95,264 +113,242 @@ public class SSTableBuilder implements AutoCloseable {
     }
 
     /**
-     * 添加键值对
-     * @param key 键
+     * 设置SSTable所属层级，写入元数据
+     * @param level 层级
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+    
+    /**
+     * 设置数据块的压缩方式，默认不压缩
+     * @param compression 压缩方式
+     */
+    public void setCompression(CompressionType compression) {
+        this.compression = compression != null ? compression : CompressionType.NONE;
+    }
+    
+    /**
+     * 设置写缓冲区大小，按4KB向上取整；写入器使用两个这样的缓冲区，一个填充时另一个写入文件。
+     * 必须在添加记录之前设置
+     * @param writeBufferSize 字节数
+     */
+    public void setWriteBufferSize(int writeBufferSize) {
+        if (writeBufferSize > 0) {
+            this.writeBufferSize = writeBufferSize;
+        }
+    }
+    
+    /**
+     * 设置增量同步间隔：每写入这么多字节fsync一次，为0时只在完成时fsync。必须在添加记录之前设置
+     * @param bytesPerSync 字节数
+     */
+    public void setBytesPerSync(long bytesPerSync) {
+        this.bytesPerSync = Math.max(0, bytesPerSync);
+    }
+    
+    /**
+     * 设置文件中数据的最大序号下限，写入元数据
+     * 元数据中的最大序号取该值与所有记录序号中的较大者；压缩时传入输入文件的最大序号，
+     * 即使被覆盖的记录已丢弃，输出文件在L0中的新旧位置仍与输入一致
+     * @param maxSequence 最大序号
+     */
+    public void setMaxSequence(long maxSequence) {
+        this.maxSequence = Math.max(this.maxSequence, maxSequence);
+    }
+    
+    /**
+     * 获取已写出的字节数（含写缓冲区中尚未落盘的部分，不含尚未刷出的数据块）
+     * @return 当前文件大小
+     */
+    public long getFileSize() {
+        return currentOffset;
+    }
+    
+    /**
+     * 添加键值对（序号为0的普通写入）
+     * @param key 键，必须大于之前添加的所有键
      * @param value 值
      * @throws IOException 如果写入失败
+     * @throws IllegalArgumentException 如果键不大于之前添加的键
      */
     public void add(byte[] key, byte[] value) throws IOException {
         if (key == null || value == null) {
             throw new IllegalArgumentException("Key and value cannot be null");
         }
-        
-        // 更新统计信息
-        if (smallestKey == null || comparator.compare(key, smallestKey) < 0) {
+        addEntry(key, PUT_TAG, false, value);
+    }
+    
+    /**
+     * 添加记录，用户键必须严格递增，同一用户键只能添加一个版本
+     * @param internalKey 内部键
+     * @param value 值，删除标记可以为null
+     * @throws IOException 如果写入失败
+     * @throws IllegalArgumentException 如果用户键不大于之前添加的键
+     */
+    public void add(InternalKey internalKey, byte[] value) throws IOException {
+        if (internalKey == null || (value == null && !internalKey.isDeletion())) {
+            throw new IllegalArgumentException("Key and value cannot be null");
+        }
+        addEntry(internalKey.getUserKey(), internalKey.getTag(), internalKey.isDeletion(),
+            value != null ? value : EMPTY_VALUE);
+        // 被拒绝的记录不计入最大序号
+        maxSequence = Math.max(maxSequence, internalKey.getSequence());
+    }
+    
+    private void addEntry(byte[] key, long tag, boolean deletion, byte[] value) throws IOException {
+        if (blockBuilder.compareToLastKey(key) <= 0) {
+            throw new IllegalArgumentException("Keys must be added in strictly increasing order");
+        }
+        if (deletion) {
+            deletionCount++;
+        }
+        if (smallestKey == null) {
             smallestKey = key.clone();
         }
-        if (largestKey == null || comparator.compare(key, largestKey) > 0) {
-            largestKey = key.clone();
+        if (blockBuilder.isEmpty()) {
+            // 索引键：第一个块用最小键，之后用与上一个块的最大键之间的最短分隔键
+            blockIndexKey = recordCount == 0 ? smallestKey : blockBuilder.separatorFromLastKey(key);
         }
         recordCount++;
         
-        // 添加到待处理条目
-        pendingEntries.put(key.clone(), value.clone());
+        blockBuilder.add(key, tag, value);
+        if (bloomFilterPolicy != null) {
+            addKeyHash(key);
+        }
         
-        // 如果积累的数据大小超过块大小，则刷新
-        int estimatedSize = estimateBlockSize();
-        if (estimatedSize >= blockSize) {
+        // 编码后的块大小达到目标大小时写出
+        if (blockBuilder.estimatedSize() >= blockSize) {
             flushDataBlock();
         }
     }
 
-    /**
-     * 估计当前块大小
-     * @return 估计的大小（字节）
-     */
-    private int estimateBlockSize() {
-        int size = 0;
-        for (Map.Entry<byte[], byte[]> entry : pendingEntries.entrySet()) {
-            // 每个条目: keyLength(4) + key + valueLength(4) + value
-            size += 8 + entry.getKey().length + entry.getValue().length;
-        }
-        return size;
-    }
-
     /**
      * 刷新数据块到文件
      * @return 数据块句柄
      * @throws IOException 如果写入失败
      */
     private BlockHandle flushDataBlock() throws IOException {
-        if (pendingEntries.isEmpty()) {
+        if (blockBuilder.isEmpty()) {
             return null;
         }
         
-        System.out.println("Flushing data block with " + pendingEntries.size() + " entries");
-        
-        // 保存当前块的最小键（用于索引）
-        byte[] minKey = null;
-        for (byte[] key : pendingEntries.keySet()) {
-            if (minKey == null || comparator.compare(key, minKey) < 0) {
-                minKey = key.clone();
+        // 按配置的方式压缩，压缩后节省不到1/8时存储原始内容
+        ByteBuffer raw = blockBuilder.finish();
+        ByteBuffer contents = raw;
+        CompressionType type = CompressionType.NONE;
+        if (compression != CompressionType.NONE) {
+            byte[] compressed = compression.compress(raw);
+            if (compressed.length < raw.remaining() - raw.remaining() / 8) {
+                contents = ByteBuffer.wrap(compressed);
+                type = compression;
             }
-            break; // 只需要第一个键（TreeMap已排序）
         }
-        System.out.println("Data block min key: " + (minKey != null ? new String(minKey) : "null"));
         
-        // 保存此块的最小键供索引使用
-        if (minKey != null) {
-            blockMinKeysForIndex.add(minKey.clone());
-        }
-        
-        // 创建布隆过滤器
-        BloomFilter bloomFilter = null;
-        byte[] bloomFilterData = new byte[0];
-        
-        if (bloomFilterPolicy != null) {
-            bloomFilter = bloomFilterPolicy.createFilter();
-            // 向布隆过滤器添加所有键
-            for (byte[] key : pendingEntries.keySet()) {
-                System.out.println("Adding key to bloom filter: " + new String(key));
-                bloomFilter.add(key);
-            }
-            bloomFilterData = bloomFilter.toByteArray();
-            System.out.println("Bloom filter size: " + bloomFilterData.length + " bytes");
-        }
-        
-        // 计算需要的缓冲区大小
-        int bufferSize = 8; // 条目数和布隆过滤器大小各4字节
-        bufferSize += bloomFilterData.length;
-        
-        // 为每条记录分配大小
-        for (Map.Entry<byte[], byte[]> entry : pendingEntries.entrySet()) {
-            byte[] key = entry.getKey();
-            byte[] value = entry.getValue();
-            
-            if (bufferSize == 8 + bloomFilterData.length) {
-                // 第一个键，完整存储
-                bufferSize += 4 + key.length; // 键长度 + 键
-            } else {
-                // 后续键，使用前缀压缩
-                byte[] prevKey = null;
-                for (byte[] k : pendingEntries.keySet()) {
-                    if (Arrays.equals(k, key)) {
-                        break;
-                    }
-                    prevKey = k;
-                }
-                
-                int prefixLen = calculatePrefixLength(prevKey, key);
-                bufferSize += 8 + (key.length - prefixLen); // 前缀长度 + 后缀长度 + 后缀
-            }
-            
-            bufferSize += 4 + value.length; // 值长度 + 值
-        }
-        
-        // 创建数据块缓冲区 - 使用计算出的实际大小而不是固定大小
-        int dataBufferSize = bufferSize;
-        
-        // 检查是否需要更大的缓冲区
-        ByteBuffer tempBuffer = null;
-        if (dataBufferSize > dataBlockBuffer.capacity()) {
-            System.out.println("Creating larger buffer: " + dataBufferSize + " bytes");
-            ByteBuffer largerBuffer = ByteBuffer.allocateDirect(dataBufferSize);
-            dataBlockBuffer.clear();
-            largerBuffer.put(dataBlockBuffer);
-            largerBuffer.clear();
-            // 使用临时缓冲区写入数据
-            tempBuffer = largerBuffer;
-        } else {
-            dataBlockBuffer.clear();
-            // 使用已有缓冲区
-            tempBuffer = dataBlockBuffer;
-        }
-        
-        // 写入条目数
-        tempBuffer.putInt(pendingEntries.size());
-        
-        // 写入布隆过滤器
-        tempBuffer.putInt(bloomFilterData.length);
-        tempBuffer.put(bloomFilterData);
-        
-        // 写入键值对
-        byte[] firstKey = null;
-        for (Map.Entry<byte[], byte[]> entry : pendingEntries.entrySet()) {
-            byte[] key = entry.getKey();
-            byte[] value = entry.getValue();
-            
-            if (firstKey == null) {
-                firstKey = key;
-                
-                // 写入完整的第一个键
-                tempBuffer.putInt(key.length);
-                tempBuffer.put(key);
-            } else {
-                // 前缀压缩: 计算与前一个键的共同前缀
-                int prefixLen = calculatePrefixLength(firstKey, key);
-                
-                // 写入共享前缀长度、剩余部分长度、剩余部分
-                tempBuffer.putInt(prefixLen);
-                tempBuffer.putInt(key.length - prefixLen);
-                tempBuffer.put(key, prefixLen, key.length - prefixLen);
-            }
-            
-            // 写入值长度和值
-            tempBuffer.putInt(value.length);
-            tempBuffer.put(value);
+        // 写入数据块和尾部，创建索引条目: 分隔键 -> 块位置
+        BlockHandle blockHandle = writeBlock(contents, type);
+        indexBuilder.add(blockHandle, blockIndexKey);
+        blockBuilder.reset();
+        return blockHandle;
+    }
+
+    /**
+     * 写入块及其尾部：压缩方式(1) + CRC32C(4)，校验和覆盖块内容和压缩方式
+     * 块内容和尾部依次追加到写缓冲区
+     * @param contents 块内容
+     * @param type 压缩方式
+     * @return 块句柄，大小不含尾部
+     * @throws IOException 如果写入失败
+     */
+    private BlockHandle writeBlock(ByteBuffer contents, CompressionType type) throws IOException {
+        BlockHandle handle = new BlockHandle(currentOffset, contents.remaining());
+        crc.reset();
+        crc.update(contents, contents.position(), contents.remaining());
+        crc.update(type.getCode());
+        trailer.clear();
+        trailer.put(type.getCode());
+        trailer.putInt((int) crc.getValue());
+        trailer.flip();
+        TableWriter out = writer();
+        out.write(contents);
+        out.write(trailer);
+        currentOffset += handle.getSize() + BLOCK_TRAILER_SIZE;
+        return handle;
+    }
+
+    /**
+     * 获取文件写入器，用于检查后台写入和增量同步
+     * @return 写入器，写出第一个块之前为null
+     */
+    TableWriter getWriter() {
+        return writer;
+    }
+    
+    private TableWriter writer() {
+        if (writer == null) {
+            writer = new TableWriter(channel, writeBufferSize, bytesPerSync);
         }
-        
-        // 准备写入
-        tempBuffer.flip();
-        
-        // 记录块的位置和大小
-        long blockOffset = currentOffset;
-        int blockSize = tempBuffer.remaining();
-        
-        // 写入数据块
-        while (tempBuffer.hasRemaining()) {
-            channel.write(tempBuffer);
+        return writer;
+    }
+
+    private void addKeyHash(byte[] key) {
+        if (2 * keyHashCount + 2 > keyHashes.length) {
+            keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
         }
-        
-        // 更新偏移量
-        currentOffset += blockSize;
-        
-        // 创建索引条目: 最小键 -> 块位置
-        BlockHandle blockHandle = new BlockHandle(blockOffset, blockSize);
-        indexBlocks.add(blockHandle);
-        
-        // 清空待处理条目
-        pendingEntries.clear();
-        
-        return blockHandle;
+        long hash1 = BloomFilter.hash(key, 0);
+        keyHashes[2 * keyHashCount] = hash1;
+        keyHashes[2 * keyHashCount + 1] = BloomFilter.hash(key, hash1);
+        keyHashCount++;
     }
 
     /**
-     * 计算两个字节数组的共同前缀长度
-     * @param a 第一个数组
-     * @param b 第二个数组
-     * @return 共同前缀长度
+     * 按实际键数创建整表布隆过滤器并写入
+     * @throws IOException 如果写入失败
      */
-    private int calculatePrefixLength(byte[] a, byte[] b) {
-        int minLen = Math.min(a.length, b.length);
-        int i = 0;
-        while (i < minLen && a[i] == b[i]) {
-            i++;
+    private void writeFilterBlock() throws IOException {
+        dataSize = currentOffset;
+        if (bloomFilterPolicy == null || keyHashCount == 0) {
+            return;
+        }
+        BloomFilter bloomFilter = bloomFilterPolicy.createFilter(keyHashCount);
+        for (int i = 0; i < keyHashCount; i++) {
+            bloomFilter.addHashes(keyHashes[2 * i], keyHashes[2 * i + 1]);
         }
-        return i;
+        filterSize = writeBlock(ByteBuffer.wrap(bloomFilter.toByteArray()), CompressionType.NONE).getSize();
+        keyHashes = new long[0];
     }
 
     /**
-     * 写入索引块
-     * @return 索引块句柄
+     * 写入索引：不超过一个数据块大小时写单层索引，否则按数据块大小拆成分区，再写入指向各分区的顶层索引
+     * @return 单层索引或顶层索引的句柄
      * @throws IOException 如果写入失败
      */
     private BlockHandle writeIndexBlock() throws IOException {
-        if (indexBlocks.isEmpty()) {
-            return new BlockHandle(0, 0);  // 空表
-        }
-        
-        // 创建索引块缓冲区
-        int estimatedSize = indexBlocks.size() * 32;  // 估计每个索引条目32字节
-        estimatedSize += indexBlocks.size() * 64;    // 为每个块的键增加空间
-        ByteBuffer indexBuffer = ByteBuffer.allocate(estimatedSize);
-        
-        // 写入索引块数量
-        indexBuffer.putInt(indexBlocks.size());
-        
-        // 写入每个索引条目
-        for (int i = 0; i < indexBlocks.size(); i++) {
-            BlockHandle handle = indexBlocks.get(i);
-            byte[] handleBytes = handle.serialize();
-            
-            // 写入块句柄
-            indexBuffer.putInt(handleBytes.length);
-            indexBuffer.put(handleBytes);
-            
-            // 写入块的最小键
-            if (i < blockMinKeysForIndex.size() && blockMinKeysForIndex.get(i) != null) {
-                byte[] minKey = blockMinKeysForIndex.get(i);
-                indexBuffer.putInt(minKey.length);
-                indexBuffer.put(minKey);
-            } else {
-                // 如果没有最小键信息，写入空键
-                indexBuffer.putInt(0);
+        long indexOffset = currentOffset;
+        BlockHandle handle;
+        if (indexBuilder.serializedSize() <= blockSize) {
+            handle = writeBlock(indexBuilder.serialize(), CompressionType.NONE);
+        } else {
+            BlockIndex entries = indexBuilder.build();
+            BlockIndex.Builder topIndex = new BlockIndex.Builder();
+            BlockIndex.Builder partition = new BlockIndex.Builder();
+            byte[] partitionKey = null;
+            for (int i = 0; i < entries.size(); i++) {
+                byte[] key = entries.getKey(i);
+                if (partition.size() == 0) {
+                    partitionKey = key;
+                }
+                partition.add(entries.getBlockHandle(i), key);
+                if (partition.serializedSize() >= blockSize || i == entries.size() - 1) {
+                    topIndex.add(writeBlock(partition.serialize(), CompressionType.NONE), partitionKey);
+                    partition = new BlockIndex.Builder();
+                    indexPartitions++;
+                }
             }
+            handle = writeBlock(topIndex.serialize(), CompressionType.NONE);
         }
-        
-        // 准备写入
-        indexBuffer.flip();
-        
-        // 记录索引块的位置和大小
-        long indexOffset = currentOffset;
-        int indexSize = indexBuffer.remaining();
-        
-        // 写入索引块
-        channel.write(indexBuffer);
-        
-        // 更新偏移量
-        currentOffset += indexSize;
-        
-        return new BlockHandle(indexOffset, indexSize);
+        indexSize = currentOffset - indexOffset;
+        return handle;
     }
 
     /**
@@ -366,12 +362,16 @@ public class SSTableBuilder implements AutoCloseable {
             .id(tableId)
             .recordCount(recordCount)
             .smallestKey(smallestKey)
-            .largestKey(largestKey)
+            .largestKey(blockBuilder.lastKey())
             .creationTime(System.currentTimeMillis())
-            .level(0)  // 默认为0级
-            .dataSize(indexBlockHandle.getOffset())
-            .indexSize(indexBlockHandle.getSize())
-            .bloomFilterSize(0)  // 内嵌在数据块中
+            .level(level)
+            .maxSequence(maxSequence)
+            .deletionCount(deletionCount)
+            .formatVersion(FORMAT_VERSION)
+            .dataSize(dataSize)
+            .indexSize(indexSize)
+            .indexPartitions(indexPartitions)
+            .bloomFilterSize(filterSize)  // 过滤器块位于数据区之后
             .build();
         
         // 序列化元数据
@@ -379,7 +379,7 @@ public class SSTableBuilder implements AutoCloseable {
         byte[] handleBytes = indexBlockHandle.serialize();
         
         // 计算所需总大小，确保不超过FOOTER_SIZE
-        int requiredSize = 4 + handleBytes.length + 4 + metadataBytes.length + 8; // 句柄长度+句柄+元数据长度+元数据+魔数
+        int requiredSize = 4 + handleBytes.length + 4 + metadataBytes.length + 12; // 句柄长度+句柄+元数据长度+元数据+校验和+魔数
         if (requiredSize > FOOTER_SIZE) {
             throw new IOException("Footer size exceeded: " + requiredSize + " > " + FOOTER_SIZE);
         }
@@ -395,11 +395,16 @@ public class SSTableBuilder implements AutoCloseable {
         footerBuffer.put(metadataBytes);
         
         // 填充至固定大小
-        int remainingBytes = FOOTER_SIZE - footerBuffer.position() - 8; // 减去魔数的8字节
+        int remainingBytes = FOOTER_CHECKSUM_OFFSET - footerBuffer.position(); // 减去校验和与魔数的12字节
         for (int i = 0; i < remainingBytes; i++) {
             footerBuffer.put((byte) 0);
         }
         
+        // 写入页脚其余部分的校验和
+        Crc32c crc = new Crc32c();
+        crc.update(footerBuffer.array(), 0, FOOTER_CHECKSUM_OFFSET);
+        footerBuffer.putInt((int) crc.getValue());
+        
         // 写入魔数
         footerBuffer.putLong(0x73737461626c6500L);  // "sstable\0" 的ASCII码
         
@@ -407,7 +412,7 @@ public class SSTableBuilder implements AutoCloseable {
         footerBuffer.flip();
         
         // 写入脚注
-        channel.write(footerBuffer);
+        writer().write(footerBuffer);
         
         // 更新偏移量
         currentOffset += FOOTER_SIZE;
@@ -419,14 +424,16 @@ public class SSTableBuilder implements AutoCloseable {
      * @throws IOException 如果写入失败
      */
     public Path finish() throws IOException {
-        if (!channel.isOpen()) {
-            return path; // 已经关闭了
+        if (finished || !channel.isOpen()) {
+            return path; // 已经完成或关闭了
         }
+        finished = true;
         
         // 写入最后的数据块
-        if (!pendingEntries.isEmpty()) {
-            flushDataBlock();
-        }
+        flushDataBlock();
+        
+        // 写入布隆过滤器块
+        writeFilterBlock();
         
         // 写入索引块
         BlockHandle indexBlockHandle = writeIndexBlock();
@@ -434,26 +441,32 @@ public class SSTableBuilder implements AutoCloseable {
         // 写入脚注
         writeFooter(indexBlockHandle);
         
-        // 确保数据写入磁盘但不关闭文件
-        channel.force(true);
+        // 等待写缓冲区全部写出，确保数据写入磁盘但不关闭文件
+        writer().finish();
         
         return path;
     }
 
     @Override
     public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
         try {
-            if (channel.isOpen()) {
-                if (!pendingEntries.isEmpty()) {
-                    // 如果还有未写入的数据，完成写入
-                    finish();
-                }
-                // 确保关闭通道
-                channel.close();
+            if (!finished && !blockBuilder.isEmpty()) {
+                // 如果还有未写入的数据，完成写入
+                finish();
             }
         } catch (Exception e) {
             // 忽略异常但记录日志
             System.err.println("Error finishing SSTable: " + e.getMessage());
+        } finally {
+            if (writer != null) {
+                // 构建中途失败时等待后台写入结束再关闭
+                writer.abort();
+            }
+            // 确保关闭通道
+            channel.close();
         }
     }
-} 
\ No newline at end of file
+}
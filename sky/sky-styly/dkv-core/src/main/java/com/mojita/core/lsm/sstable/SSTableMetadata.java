@@ -13,8 +13,12 @@ public class SSTableMetadata {
     private final long creationTime;      // 创建时间
     private final int level;              // 层级（用于分层压缩）
     private final long dataSize;          // 数据区大小
-    private final long indexSize;         // 索引区大小
-    private final long bloomFilterSize;   // 布隆过滤器大小（保留为0表示使用块级过滤器）
+    private final long indexSize;         // 索引区大小（分区索引为所有分区和顶层索引的总大小）
+    private final long bloomFilterSize;   // 整表布隆过滤器块大小，位于数据区之后（为0表示旧格式的块级过滤器或没有过滤器）
+    private final long maxSequence;       // 文件中数据的最大序号，用于判断L0文件之间的新旧
+    private final long deletionCount;     // 删除标记数量
+    private final int formatVersion;      // 文件格式版本，旧文件为0
+    private final int indexPartitions;    // 索引分区数，为0表示单层索引
     
     private SSTableMetadata(Builder builder) {
         this.id = builder.id;
@@ -26,6 +30,10 @@ public class SSTableMetadata {
         this.dataSize = builder.dataSize;
         this.indexSize = builder.indexSize;
         this.bloomFilterSize = builder.bloomFilterSize;
+        this.maxSequence = builder.maxSequence;
+        this.deletionCount = builder.deletionCount;
+        this.formatVersion = builder.formatVersion;
+        this.indexPartitions = builder.indexPartitions;
     }
     
     public long getId() {
@@ -64,6 +72,22 @@ public class SSTableMetadata {
         return bloomFilterSize;
     }
     
+    public long getMaxSequence() {
+        return maxSequence;
+    }
+    
+    public long getDeletionCount() {
+        return deletionCount;
+    }
+    
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+    
+    public int getIndexPartitions() {
+        return indexPartitions;
+    }
+    
     /**
      * 序列化元数据到字节数组
      * @return 序列化后的字节数组
@@ -73,7 +97,7 @@ public class SSTableMetadata {
         int smallestKeyLen = smallestKey != null ? smallestKey.length : 0;
         int largestKeyLen = largestKey != null ? largestKey.length : 0;
         // 安全地计算所需缓冲区大小 - 考虑对齐和可能的额外字段
-        int totalSize = 8 + 8 + 4 + smallestKeyLen + 4 + largestKeyLen + 8 + 4 + 8 + 8 + 8 + 8 + 16;
+        int totalSize = 8 + 8 + 4 + smallestKeyLen + 4 + largestKeyLen + 8 + 4 + 8 + 8 + 8 + 8 + 8 + 4 + 4 + 16;
         
         ByteBuffer buffer = ByteBuffer.allocate(totalSize);
         buffer.putLong(id);
@@ -94,7 +118,10 @@ public class SSTableMetadata {
         buffer.putLong(dataSize);
         buffer.putLong(indexSize);
         buffer.putLong(bloomFilterSize);
-        buffer.putLong(0);  // 为了兼容性，保留一个Long字段的位置，替代移除的bloomFilterOffset
+        buffer.putLong(maxSequence);  // 占用原先保留的Long字段，旧文件中该值为0
+        buffer.putLong(deletionCount);
+        buffer.putInt(formatVersion);
+        buffer.putInt(indexPartitions);
         
         // 在实际返回前，修剪到实际使用的大小
         buffer.flip();
@@ -143,7 +170,16 @@ public class SSTableMetadata {
         
         // 只有在还有足够字节的情况下才读取额外字段
         if (buffer.remaining() >= 8) {
-            buffer.getLong();  // 读取但忽略额外的8字节
+            builder.maxSequence(buffer.getLong());
+        }
+        if (buffer.remaining() >= 8) {
+            builder.deletionCount(buffer.getLong());
+        }
+        if (buffer.remaining() >= 4) {
+            builder.formatVersion(buffer.getInt());
+        }
+        if (buffer.remaining() >= 4) {
+            builder.indexPartitions(buffer.getInt());
         }
         
         return builder.build();
@@ -162,6 +198,10 @@ public class SSTableMetadata {
         private long dataSize;
         private long indexSize;
         private long bloomFilterSize;
+        private long maxSequence;
+        private long deletionCount;
+        private int formatVersion;
+        private int indexPartitions;
         
         public Builder id(long id) {
             this.id = id;
@@ -208,6 +248,26 @@ public class SSTableMetadata {
             return this;
         }
         
+        public Builder maxSequence(long maxSequence) {
+            this.maxSequence = maxSequence;
+            return this;
+        }
+        
+        public Builder deletionCount(long deletionCount) {
+            this.deletionCount = deletionCount;
+            return this;
+        }
+        
+        public Builder formatVersion(int formatVersion) {
+            this.formatVersion = formatVersion;
+            return this;
+        }
+        
+        public Builder indexPartitions(int indexPartitions) {
+            this.indexPartitions = indexPartitions;
+            return this;
+        }
+        
         public SSTableMetadata build() {
             return new SSTableMetadata(this);
         }
@@ -1,21 +1,39 @@
 package com.mojita.core.lsm.sstable;
 
 import com.mojita.core.lsm.sstable.bloom.BloomFilter;
-import com.mojita.core.lsm.sstable.bloom.BloomFilterPolicy;
+import com.mojita.core.lsm.sstable.compress.CompressionType;
+import com.mojita.core.lsm.util.InternalKey;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.AbstractMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Arrays;
 
 /**
  * SSTable读取器 - 读取SSTable文件
+ * 打开时把页脚、元数据和块索引读入内存，之后点查和迭代只读取块索引选中的数据块，
+ * 所有文件读取都使用带位置的读取，多个线程可以无锁地并发读取同一个打开的文件。
+ * 分区索引的文件只常驻顶层索引，索引分区在查找时读取，配置了块缓存时与数据块一起缓存。
+ *
+ * 内存映射模式下整个文件映射到内存，页脚、索引和数据块都直接在映射区域的切片上解析，
+ * 块内查找直接比较映射的字节，只有返回给调用方的键和值才复制出来；
+ * 文件超过2GB时退回带位置的读取。
+ *
+ * 整表布隆过滤器在打开文件时随块索引一起加载并常驻，判断键不存在不需要读盘；
+ * 旧格式的文件退回读取数据块内的过滤器。
+ *
+ * 数据块按尾部记录的方式解压；配置了块缓存时，点查和迭代都先在缓存中查找解压并解析后的数据块。
+ *
+ * 配置了表缓存时，文件句柄和块索引可以被表缓存关闭，下次访问时重新打开，
+ * 读取器本身只常驻元数据；每次读取期间以及迭代器迭代完或关闭之前，文件都被固定，不会被关闭。
+ *
+ * 配置了校验和验证器时，新格式文件的页脚、索引块和过滤器块在打开时校验，
+ * 数据块按验证器的策略在从磁盘读取时校验；压缩使用的迭代器直接读盘且不填充块缓存
  */
 public class SSTableReader implements SSTable {
     private static final int FOOTER_SIZE = 512;
@@ -23,10 +41,26 @@ public class SSTableReader implements SSTable {
     private static final long MAGIC_NUMBER = 0x73737461626c6500L;
     
     private final Path path;
-    private final FileChannel channel;
+    private final boolean mmap;
+    private final long fileSize;
     private final SSTableMetadata metadata;
-    private final BlockHandle indexBlockHandle;
-    private final BlockIndex blockIndex;
+    
+    // 共享的块缓存，可以为null
+    private final BlockCache blockCache;
+    
+    // 共享的表缓存，可以为null（此时文件一直打开到关闭读取器）
+    private final TableCache tableCache;
+    
+    // 共享的校验和验证器，可以为null（此时不校验）
+    private final ChecksumVerifier verifier;
+    
+    // 当前打开的文件，被表缓存关闭后为null；以下三个字段由this保护
+    private TableFile file;
+    private int pins;
+    private boolean closed;
+    
+    // 表缓存CLOCK淘汰使用的引用位
+    volatile boolean referenced = true;
     
     /**
      * 构造函数
@@ -34,81 +68,63 @@ public class SSTableReader implements SSTable {
      * @throws IOException 如果打开或读取文件失败
      */
     public SSTableReader(Path path) throws IOException {
+        this(path, false);
+    }
+    
+    /**
+     * 构造函数
+     * @param path SSTable文件路径
+     * @param mmap 是否以内存映射方式读取
+     * @throws IOException 如果打开或读取文件失败
+     */
+    public SSTableReader(Path path, boolean mmap) throws IOException {
+        this(path, mmap, null, null);
+    }
+    
+    /**
+     * 构造函数
+     * @param path SSTable文件路径
+     * @param mmap 是否以内存映射方式读取
+     * @param blockCache 共享的块缓存，null表示不缓存
+     * @throws IOException 如果打开或读取文件失败
+     */
+    public SSTableReader(Path path, boolean mmap, BlockCache blockCache) throws IOException {
+        this(path, mmap, blockCache, null);
+    }
+    
+    /**
+     * 构造函数
+     * @param path SSTable文件路径
+     * @param mmap 是否以内存映射方式读取
+     * @param blockCache 共享的块缓存，null表示不缓存
+     * @param tableCache 共享的表缓存，null表示文件一直保持打开
+     * @throws IOException 如果打开或读取文件失败
+     */
+    public SSTableReader(Path path, boolean mmap, BlockCache blockCache, TableCache tableCache) throws IOException {
+        this(path, mmap, blockCache, tableCache, null);
+    }
+    
+    /**
+     * 构造函数
+     * @param path SSTable文件路径
+     * @param mmap 是否以内存映射方式读取
+     * @param blockCache 共享的块缓存，null表示不缓存
+     * @param tableCache 共享的表缓存，null表示文件一直保持打开
+     * @param verifier 共享的校验和验证器，null表示不校验
+     * @throws IOException 如果打开或读取文件失败，或者校验和不匹配
+     */
+    public SSTableReader(Path path, boolean mmap, BlockCache blockCache, TableCache tableCache,
+                         ChecksumVerifier verifier) throws IOException {
         this.path = path;
-        this.channel = FileChannel.open(path, StandardOpenOption.READ);
-        
-        // 读取页脚
-        long fileSize = channel.size();
-        ByteBuffer footerBuffer = ByteBuffer.allocate(FOOTER_SIZE);
-        channel.position(fileSize - FOOTER_SIZE);
-        channel.read(footerBuffer);
-        footerBuffer.flip();
-        
-        // 验证魔数
-        footerBuffer.position(FOOTER_SIZE - 8);
-        long magic = footerBuffer.getLong();
-        System.out.println("Read magic number: 0x" + Long.toHexString(magic) + 
-                          ", expected: 0x" + Long.toHexString(MAGIC_NUMBER));
-        if (magic != MAGIC_NUMBER) {
-            throw new IOException("Not a valid SSTable file: invalid magic number");
-        }
-        
-        // 读取索引块句柄
-        footerBuffer.position(0);
-        int handleSize = footerBuffer.getInt(); // 首先读取句柄大小
-        if (handleSize != 16) {
-            System.out.println("WARNING: Expected handleSize of 16 bytes, got " + handleSize);
-        }
-        byte[] handleBytes = new byte[16]; // 总是读取16字节
-        footerBuffer.get(handleBytes);
-        this.indexBlockHandle = BlockHandle.deserialize(handleBytes);
-        
-        // 读取元数据长度和数据
-        int metadataLength = footerBuffer.getInt();
-        byte[] metadataBytes = new byte[metadataLength];
-        footerBuffer.get(metadataBytes);
-        this.metadata = SSTableMetadata.deserialize(metadataBytes);
-        
-        // 读取索引块
-        ByteBuffer indexBuffer = ByteBuffer.allocate((int)indexBlockHandle.getSize());
-        channel.position(indexBlockHandle.getOffset());
-        channel.read(indexBuffer);
-        indexBuffer.flip();
-        
-        // 解析索引块
-        int indexCount = indexBuffer.getInt();
-        System.out.println("Reading index with " + indexCount + " blocks");
-        BlockHandle[] handles = new BlockHandle[indexCount];
-        
-        // 首先解析所有块句柄
-        for (int i = 0; i < indexCount; i++) {
-            int handleByteSize = indexBuffer.getInt();
-            byte[] blockHandleBytes = new byte[handleByteSize];
-            indexBuffer.get(blockHandleBytes);
-            handles[i] = BlockHandle.deserialize(blockHandleBytes);
-        }
-        
-        // 创建块索引
-        this.blockIndex = new BlockIndex(handles);
-        
-        // 现在解析和设置每个块的最小键
-        // 回到索引块的开始位置（跳过块计数）
-        indexBuffer.position(4);
-        for (int i = 0; i < indexCount; i++) {
-            // 跳过块句柄
-            int blockHandleSize = indexBuffer.getInt();
-            indexBuffer.position(indexBuffer.position() + blockHandleSize);
-            
-            // 读取块的最小键
-            int keyLength = indexBuffer.getInt();
-            if (keyLength > 0) {
-                byte[] blockKey = new byte[keyLength];
-                indexBuffer.get(blockKey);
-                System.out.println("Block " + i + " has min key: " + new String(blockKey));
-                blockIndex.setBlockKey(i, blockKey);
-            } else {
-                System.out.println("Block " + i + " has no min key");
-            }
+        this.mmap = mmap;
+        this.blockCache = blockCache;
+        this.tableCache = tableCache;
+        this.verifier = verifier;
+        this.file = TableFile.open(path, mmap, compactionVerifier());
+        this.fileSize = file.fileSize;
+        this.metadata = file.metadata;
+        if (tableCache != null) {
+            tableCache.opened(this);
         }
     }
     
@@ -124,171 +140,237 @@ public class SSTableReader implements SSTable {
     
     @Override
     public long size() {
-        try {
-            return channel.size();
-        } catch (IOException e) {
-            return -1;
-        }
+        return fileSize;
     }
     
     /**
      * 查找特定键的值
      * @param key 要查找的键
-     * @return 键对应的值，如果不存在则返回null
+     * @return 键对应的值，如果不存在或已被删除则返回null
      * @throws IOException 如果读取失败
      */
     @Override
     public byte[] get(byte[] key) throws IOException {
-        // 首先检查布隆过滤器，快速判断键是否可能存在
-        // 暂时跳过布隆过滤器检查，确保我们尝试读取所有数据
-        /*if (!mayContain(key)) {
+        Map.Entry<InternalKey, byte[]> entry = getEntry(key);
+        if (entry == null || entry.getKey().isDeletion()) {
             return null;
-        }*/
-        
-        // 添加调试日志
-        System.out.println("Looking for key: " + new String(key));
-        
-        // 由于索引可能有问题，先尝试线性扫描所有块
-        for (int i = 0; i < blockIndex.size(); i++) {
-            BlockHandle handle = blockIndex.getBlockHandles()[i];
-            ByteBuffer blockBuffer = ByteBuffer.allocate((int)handle.getSize());
-            channel.position(handle.getOffset());
-            channel.read(blockBuffer);
-            blockBuffer.flip();
-            
-            int entryCount = blockBuffer.getInt();
-            System.out.println("Scanning block " + i + " with " + entryCount + " entries");
-            
-            // 跳过布隆过滤器
-            int bloomFilterSize = blockBuffer.getInt();
-            blockBuffer.position(blockBuffer.position() + bloomFilterSize);
-            
-            // 扫描所有条目
-            byte[] currentKey = null;
-            for (int j = 0; j < entryCount; j++) {
-                // 读取键
-                byte[] entryKey;
-                if (j == 0) {
-                    int keyLength = blockBuffer.getInt();
-                    entryKey = new byte[keyLength];
-                    blockBuffer.get(entryKey);
-                    currentKey = entryKey;
-                } else {
-                    int prefixLength = blockBuffer.getInt();
-                    int suffixLength = blockBuffer.getInt();
-                    entryKey = new byte[prefixLength + suffixLength];
-                    System.arraycopy(currentKey, 0, entryKey, 0, prefixLength);
-                    blockBuffer.get(entryKey, prefixLength, suffixLength);
-                    currentKey = entryKey;
-                }
-                
-                int valueLength = blockBuffer.getInt();
-                
-                // 比较键
-                if (Arrays.equals(entryKey, key)) {
-                    byte[] value = new byte[valueLength];
-                    blockBuffer.get(value);
-                    System.out.println("Found key in linear scan: " + new String(key) + " -> " + new String(value));
-                    return value;
-                }
-                
-                // 跳过值
-                blockBuffer.position(blockBuffer.position() + valueLength);
+        }
+        return entry.getValue();
+    }
+    
+    /**
+     * 查找特定键的记录，包括删除标记
+     * @param key 要查找的用户键
+     * @return 内部键及值，本文件中没有该键时返回null
+     * @throws IOException 如果读取失败
+     */
+    public Map.Entry<InternalKey, byte[]> getEntry(byte[] key) throws IOException {
+        TableFile table = pin();
+        try {
+            // 查找该键所在的数据块
+            BlockHandle blockHandle = findDataBlock(table, key);
+            if (blockHandle == null) {
+                return null;
             }
+            
+            // 块内先在重启点上二分，再扫描一个重启间隔
+            return readBlock(table, blockHandle).get(key);
+        } finally {
+            unpin();
         }
-        
-        // 如果线性扫描失败，尝试使用索引查找
-        System.out.println("Linear scan failed, trying index lookup");
-        
-        // 查找该键所在的数据块
-        BlockHandle blockHandle = blockIndex.findBlockHandle(key);
-        if (blockHandle == null) {
-            System.out.println("No block found containing key");
-            return null;
+    }
+    
+    /**
+     * 查找可能包含特定键的数据块，分区索引先在顶层索引中定位分区
+     * @param table 已固定的文件
+     * @param key 用户键
+     * @return 数据块句柄，键小于文件的最小键时返回null
+     * @throws IOException 如果读取索引分区失败
+     */
+    private BlockHandle findDataBlock(TableFile table, byte[] key) throws IOException {
+        if (!table.partitioned) {
+            return table.blockIndex.findBlockHandle(key);
         }
-        
-        // 读取数据块
-        ByteBuffer blockBuffer = ByteBuffer.allocate((int)blockHandle.getSize());
-        channel.position(blockHandle.getOffset());
-        channel.read(blockBuffer);
-        blockBuffer.flip();
-        
-        // 读取数据块头部信息
-        if (blockBuffer.remaining() < 8) { // 至少需要条目数和布隆过滤器大小
-            System.out.println("Block too small: " + blockBuffer.remaining());
+        BlockHandle partitionHandle = table.blockIndex.findBlockHandle(key);
+        if (partitionHandle == null) {
             return null;
         }
-        
-        int entryCount = blockBuffer.getInt();
-        System.out.println("Block contains " + entryCount + " entries");
-        int bloomFilterSize = blockBuffer.getInt();
-        
-        // 跳过布隆过滤器
-        blockBuffer.position(blockBuffer.position() + bloomFilterSize);
-        
-        // 在数据块中线性搜索键
-        byte[] currentKey = null;
-        for (int i = 0; i < entryCount; i++) {
-            // 读取键
-            byte[] entryKey;
-            if (i == 0) {
-                // 第一个条目是完整键
-                int keyLength = blockBuffer.getInt();
-                if (blockBuffer.remaining() < keyLength) {
-                    System.out.println("Not enough data for key at position " + i);
-                    return null;
-                }
-                entryKey = new byte[keyLength];
-                blockBuffer.get(entryKey);
-                currentKey = entryKey;
-            } else {
-                // 前缀压缩键
-                int prefixLength = blockBuffer.getInt();
-                int suffixLength = blockBuffer.getInt();
-                if (blockBuffer.remaining() < suffixLength) {
-                    System.out.println("Not enough data for key suffix at position " + i);
-                    return null;
-                }
-                entryKey = new byte[prefixLength + suffixLength];
-                System.arraycopy(currentKey, 0, entryKey, 0, prefixLength);
-                blockBuffer.get(entryKey, prefixLength, suffixLength);
-                currentKey = entryKey;
+        return readIndexPartition(table, partitionHandle, false).findBlockHandle(key);
+    }
+    
+    /**
+     * 读取并解析索引分区，优先从块缓存获取
+     * @param table 已固定的文件
+     * @param handle 分区句柄
+     * @param compaction 是否为压缩读取，压缩读取不经过块缓存
+     * @return 索引分区
+     * @throws IOException 如果读取失败
+     */
+    private BlockIndex readIndexPartition(TableFile table, BlockHandle handle, boolean compaction) throws IOException {
+        if (compaction) {
+            return BlockIndex.deserialize(table.readBlockContents(handle, compactionVerifier()));
+        }
+        ChecksumVerifier readVerifier = verifier != null && verifier.verifiesReads() ? verifier : null;
+        if (blockCache == null) {
+            return BlockIndex.deserialize(table.readBlockContents(handle, readVerifier));
+        }
+        BlockIndex partition = blockCache.getIndex(getId(), handle.getOffset());
+        if (partition == null) {
+            partition = blockCache.putIndex(getId(), handle.getOffset(),
+                BlockIndex.deserialize(table.readBlockContents(handle, readVerifier)));
+        }
+        return partition;
+    }
+    
+    /**
+     * 读取并解析数据块，优先从块缓存获取；缓存中存放的是解压后的块
+     * @param table 已固定的文件
+     * @param handle 块句柄
+     * @return 数据块
+     * @throws IOException 如果读取失败
+     */
+    private Block readBlock(TableFile table, BlockHandle handle) throws IOException {
+        ChecksumVerifier readVerifier = verifier != null && verifier.verifiesReads() ? verifier : null;
+        if (blockCache == null) {
+            return new Block(table.readBlockContents(handle, readVerifier));
+        }
+        Block block = blockCache.get(getId(), handle.getOffset());
+        if (block == null) {
+            block = blockCache.put(getId(), handle.getOffset(), table.readBlockContents(handle, readVerifier));
+        }
+        return block;
+    }
+    
+    /**
+     * 压缩读取使用的验证器，打开文件时的页脚、索引块和过滤器块也按此校验
+     * @return 验证器，不需要校验时返回null
+     */
+    private ChecksumVerifier compactionVerifier() {
+        return verifier != null && verifier.verifiesCompaction() ? verifier : null;
+    }
+    
+    /**
+     * 固定文件，必要时重新打开；固定期间表缓存不会关闭它
+     * @return 打开的文件
+     * @throws IOException 如果读取器已关闭或重新打开失败
+     */
+    private TableFile pin() throws IOException {
+        TableFile table;
+        boolean reopened = false;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("SSTable is closed: " + path);
+            }
+            if (file == null) {
+                file = TableFile.open(path, mmap, compactionVerifier());
+                reopened = true;
+            }
+            pins++;
+            table = file;
+        }
+        referenced = true;
+        if (reopened) {
+            tableCache.opened(this);
+        }
+        return table;
+    }
+    
+    private void unpin() {
+        synchronized (this) {
+            pins--;
+        }
+        if (tableCache != null) {
+            tableCache.unpinned();
+        }
+    }
+    
+    /**
+     * 由表缓存调用，在没有被固定时关闭文件
+     * @return 文件已关闭返回true，正在使用返回false
+     */
+    boolean release() {
+        TableFile table;
+        synchronized (this) {
+            if (pins > 0) {
+                return false;
             }
+            table = file;
+            file = null;
+        }
+        if (table != null) {
+            table.close();
+        }
+        return true;
+    }
+    
+    /**
+     * 获取用户视角的迭代器，跳过删除标记
+     * @return 键值对迭代器，迭代完之前停止时必须关闭
+     */
+    @Override
+    public TableIterator<Map.Entry<byte[], byte[]>> iterator() {
+        TableIterator<Map.Entry<InternalKey, byte[]>> internal = internalIterator();
+        return new TableIterator<Map.Entry<byte[], byte[]>>() {
+            private Map.Entry<byte[], byte[]> nextEntry = advance();
             
-            // 读取值长度
-            int valueLength = blockBuffer.getInt();
-            if (blockBuffer.remaining() < valueLength) {
-                System.out.println("Not enough data for value at position " + i);
+            private Map.Entry<byte[], byte[]> advance() {
+                while (internal.hasNext()) {
+                    Map.Entry<InternalKey, byte[]> entry = internal.next();
+                    if (!entry.getKey().isDeletion()) {
+                        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey().getUserKey(), entry.getValue());
+                    }
+                }
                 return null;
             }
             
-            // 比较键
-            int compareResult = compareKeys(entryKey, key);
-            System.out.println("Comparing key at position " + i + ": " + new String(entryKey) + " result: " + compareResult);
+            @Override
+            public boolean hasNext() {
+                return nextEntry != null;
+            }
             
-            if (compareResult == 0) {
-                // 找到键，读取值
-                byte[] value = new byte[valueLength];
-                blockBuffer.get(value);
-                System.out.println("Found value for key: length=" + value.length);
-                return value;
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                if (nextEntry == null) {
+                    throw new NoSuchElementException("No more entries in SSTable");
+                }
+                Map.Entry<byte[], byte[]> result = nextEntry;
+                nextEntry = advance();
+                return result;
             }
             
-            // 跳过值
-            blockBuffer.position(blockBuffer.position() + valueLength);
-        }
-        
-        System.out.println("Key not found in block");
-        return null;
+            @Override
+            public void close() {
+                nextEntry = null;
+                internal.close();
+            }
+        };
     }
     
-    @Override
-    public Iterator<Map.Entry<byte[], byte[]>> iterator() {
-        try {
-            return new SSTableIterator();
-        } catch (IOException e) {
-            throw new RuntimeException("Error creating iterator", e);
-        }
+    /**
+     * 获取按内部键顺序的迭代器，包含删除标记，供压缩和归并使用
+     * 迭代器迭代完或关闭之前文件保持固定
+     * @return 内部记录迭代器
+     */
+    public TableIterator<Map.Entry<InternalKey, byte[]>> internalIterator() {
+        return new SSTableIterator(null, false);
+    }
+    
+    /**
+     * 获取供压缩读取输入使用的内部记录迭代器
+     * 数据块直接从磁盘读取并按压缩策略校验，不查找也不填充块缓存，避免一次性扫描挤掉热块
+     * @return 内部记录迭代器
+     */
+    public TableIterator<Map.Entry<InternalKey, byte[]>> compactionIterator() {
+        return new SSTableIterator(null, true);
+    }
+    
+    /**
+     * 获取从指定用户键开始的内部记录迭代器，通过块索引直接定位到起始块
+     * @param startKey 起始用户键（包含），null表示从头开始
+     * @return 内部记录迭代器
+     */
+    public TableIterator<Map.Entry<InternalKey, byte[]>> internalIterator(byte[] startKey) {
+        return new SSTableIterator(startKey, false);
     }
     
     @Override
@@ -304,202 +386,355 @@ public class SSTableReader implements SSTable {
     @Override
     public boolean mayContain(byte[] key) {
         try {
-            System.out.println("Checking if key might contain: " + bytesToHex(key));
-            
-            // 查找包含键的数据块
-            BlockHandle handle = blockIndex.findBlockHandle(key);
-            if (handle == null) {
-                System.out.println("No block found for key in mayContain");
-                return false;
-            }
-            
-            // 读取数据块的布隆过滤器
-            ByteBuffer buffer = ByteBuffer.allocate((int)handle.getSize());
-            channel.position(handle.getOffset());
-            channel.read(buffer);
-            buffer.flip();
-            
-            if (buffer.remaining() < 8) {
-                System.out.println("Buffer too small to read bloom filter");
-                return true; // 安全处理
-            }
-            
-            // 读取布隆过滤器
-            int entryCount = buffer.getInt();
-            int bloomFilterSize = buffer.getInt();
-            
-            if (bloomFilterSize <= 0 || bloomFilterSize > 1024*1024) {
-                System.out.println("Invalid bloom filter size: " + bloomFilterSize);
-                return true; // 安全处理
+            TableFile table = pin();
+            try {
+                // 只有索引选中的块可能包含该键
+                BlockHandle handle = findDataBlock(table, key);
+                if (handle == null) {
+                    return false;
+                }
+                if (table.filter != null) {
+                    return table.filter.mightContain(key);
+                }
+                if (metadata.getFormatVersion() > 0) {
+                    // 新格式的数据块内不带过滤器
+                    return true;
+                }
+                if (blockCache != null) {
+                    // 读取整个块并缓存，紧随其后的点查可以直接命中
+                    return readBlock(table, handle).mayContain(key);
+                }
+                // 块头：条目数(4) + 布隆过滤器长度(4)，只读取块头和布隆过滤器
+                ByteBuffer header = table.read(handle.getOffset(), 8);
+                header.getInt();
+                int bloomFilterSize = header.getInt();
+                if (bloomFilterSize <= 0 || bloomFilterSize > handle.getSize() - 8) {
+                    // 没有布隆过滤器
+                    return true;
+                }
+                byte[] bloomFilterData = new byte[bloomFilterSize];
+                table.read(handle.getOffset() + 8, bloomFilterSize).get(bloomFilterData);
+                return BloomFilter.fromByteArray(bloomFilterData).mightContain(key);
+            } finally {
+                unpin();
             }
-            
-            byte[] bloomFilterData = new byte[bloomFilterSize];
-            buffer.get(bloomFilterData);
-            
-            // 恢复布隆过滤器
-            BloomFilter filter = BloomFilter.fromByteArray(bloomFilterData);
-            
-            // 检查键是否可能存在
-            boolean result = filter.mightContain(key);
-            System.out.println("Bloom filter result for key " + new String(key) + ": " + result);
-            return result;
         } catch (IOException e) {
-            System.out.println("Exception in mayContain: " + e.getMessage());
-            e.printStackTrace();
-            return true; // 出错时假设可能存在，以避免漏查询
+            // 出错时假设可能存在，以避免漏查询
+            return true;
         }
     }
     
     @Override
     public void close() throws IOException {
-        if (channel.isOpen()) {
-            channel.close();
+        TableFile table;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            table = file;
+            file = null;
         }
-    }
-    
-    /**
-     * 比较两个字节数组键
-     * @param a 第一个键
-     * @param b 第二个键
-     * @return 比较结果
-     */
-    private int compareKeys(byte[] a, byte[] b) {
-        int minLen = Math.min(a.length, b.length);
-        for (int i = 0; i < minLen; i++) {
-            int cmp = Byte.compare(a[i], b[i]);
-            if (cmp != 0) return cmp;
+        if (tableCache != null) {
+            tableCache.remove(this);
+        }
+        if (table != null) {
+            table.close();
         }
-        return Integer.compare(a.length, b.length);
     }
     
     /**
-     * SSTable迭代器实现
+     * 打开的文件 - 文件句柄、可选的内存映射和块索引（分区索引时为顶层索引）
      */
-    private class SSTableIterator implements Iterator<Map.Entry<byte[], byte[]>> {
-        private int currentBlockIndex = 0;
-        private ByteBuffer currentBlockBuffer;
-        private int entriesInCurrentBlock;
-        private int entriesRead;
-        private byte[] currentKey;
-        private byte[] lastReturnedKey;
-        private byte[] lastReturnedValue;
-        
-        public SSTableIterator() throws IOException {
-            if (blockIndex.size() > 0) {
-                loadNextBlock();
-            }
-        }
+    private static final class TableFile {
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer mapped;
+        private final long fileSize;
+        private final SSTableMetadata metadata;
+        private final BlockIndex blockIndex;
+        // 块索引是否为指向索引分区的顶层索引
+        private final boolean partitioned;
+        // 整表布隆过滤器，旧格式的文件为null
+        private final BloomFilter filter;
         
-        @Override
-        public boolean hasNext() {
-            return currentBlockBuffer != null && 
-                  (entriesRead < entriesInCurrentBlock || currentBlockIndex < blockIndex.size() - 1);
+        private TableFile(Path path, FileChannel channel, MappedByteBuffer mapped, long fileSize,
+                          SSTableMetadata metadata, BlockIndex blockIndex, BloomFilter filter) {
+            this.path = path;
+            this.channel = channel;
+            this.mapped = mapped;
+            this.fileSize = fileSize;
+            this.metadata = metadata;
+            this.blockIndex = blockIndex;
+            this.partitioned = metadata.getIndexPartitions() > 0;
+            this.filter = filter;
         }
         
-        @Override
-        public Map.Entry<byte[], byte[]> next() {
-            if (!hasNext()) {
-                throw new NoSuchElementException("No more entries in SSTable");
-            }
-            
+        /**
+         * 打开文件，读取页脚、元数据、块索引和布隆过滤器
+         * @param path SSTable文件路径
+         * @param mmap 是否以内存映射方式读取
+         * @param verifier 校验页脚、索引块和过滤器块的验证器，null表示不校验
+         * @return 打开的文件
+         * @throws IOException 如果打开或读取文件失败，或者校验和不匹配
+         */
+        static TableFile open(Path path, boolean mmap, ChecksumVerifier verifier) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
             try {
-                if (entriesRead >= entriesInCurrentBlock) {
-                    // 移动到下一个块
-                    loadNextBlock();
+                // 读取页脚
+                long fileSize = channel.size();
+                if (fileSize < FOOTER_SIZE) {
+                    throw new IOException("Not a valid SSTable file: too small");
                 }
+                MappedByteBuffer mapped = mmap && fileSize <= Integer.MAX_VALUE
+                    ? channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize)
+                    : null;
+                ByteBuffer footerBuffer = read(path, channel, mapped, fileSize - FOOTER_SIZE, FOOTER_SIZE);
                 
-                // 读取下一个键值对
-                byte[] key;
-                byte[] value;
+                // 验证魔数
+                footerBuffer.position(FOOTER_SIZE - 8);
+                long magic = footerBuffer.getLong();
+                if (magic != MAGIC_NUMBER) {
+                    throw new IOException("Not a valid SSTable file: invalid magic number");
+                }
                 
-                if (entriesRead == 0) {
-                    // 读取第一个完整键
-                    int keyLength = currentBlockBuffer.getInt();
-                    key = new byte[keyLength];
-                    currentBlockBuffer.get(key);
-                    currentKey = key;
-                } else {
-                    // 读取前缀压缩的键
-                    int prefixLength = currentBlockBuffer.getInt();
-                    int suffixLength = currentBlockBuffer.getInt();
+                // 读取索引块句柄
+                footerBuffer.position(0);
+                BlockHandle indexBlockHandle;
+                SSTableMetadata metadata;
+                try {
+                    footerBuffer.getInt(); // 句柄大小，固定为16
+                    byte[] handleBytes = new byte[16]; // 总是读取16字节
+                    footerBuffer.get(handleBytes);
+                    indexBlockHandle = BlockHandle.deserialize(handleBytes);
                     
-                    key = new byte[prefixLength + suffixLength];
-                    System.arraycopy(currentKey, 0, key, 0, prefixLength);
-                    currentBlockBuffer.get(key, prefixLength, suffixLength);
-                    currentKey = key;
+                    // 读取元数据长度和数据
+                    int metadataLength = footerBuffer.getInt();
+                    byte[] metadataBytes = new byte[metadataLength];
+                    footerBuffer.get(metadataBytes);
+                    metadata = SSTableMetadata.deserialize(metadataBytes);
+                } catch (RuntimeException e) {
+                    throw new IOException("Corrupted SSTable footer: " + path, e);
                 }
+                int formatVersion = metadata.getFormatVersion();
                 
-                // 读取值
-                int valueLength = currentBlockBuffer.getInt();
-                value = new byte[valueLength];
-                currentBlockBuffer.get(value);
+                // 新格式校验页脚
+                if (verifier != null && formatVersion >= 2) {
+                    ByteBuffer covered = footerBuffer.duplicate();
+                    covered.position(0).limit(SSTableBuilder.FOOTER_CHECKSUM_OFFSET);
+                    verifier.verify(path, fileSize - FOOTER_SIZE, covered,
+                        footerBuffer.getInt(SSTableBuilder.FOOTER_CHECKSUM_OFFSET));
+                }
                 
-                entriesRead++;
-                lastReturnedKey = key;
-                lastReturnedValue = value;
+                // 读取索引块
+                ByteBuffer indexBuffer = formatVersion >= 2
+                    ? readChecked(path, channel, mapped, indexBlockHandle, verifier)
+                    : read(path, channel, mapped, indexBlockHandle.getOffset(), (int) indexBlockHandle.getSize());
                 
-                return new AbstractMap.SimpleImmutableEntry<>(key, value);
-            } catch (IOException e) {
-                throw new RuntimeException("Error reading from SSTable", e);
+                // 解析索引块，格式版本3之前的索引块按旧格式解析
+                BlockIndex blockIndex = formatVersion >= 3
+                    ? BlockIndex.deserialize(indexBuffer)
+                    : BlockIndex.deserializeLegacy(indexBuffer);
+                
+                // 读取位于数据区之后的布隆过滤器块
+                BloomFilter filter = null;
+                if (metadata.getBloomFilterSize() > 0) {
+                    BlockHandle filterHandle = new BlockHandle(metadata.getDataSize(), metadata.getBloomFilterSize());
+                    filter = BloomFilter.fromByteBuffer(formatVersion >= 2
+                        ? readChecked(path, channel, mapped, filterHandle, verifier)
+                        : read(path, channel, mapped, filterHandle.getOffset(), (int) filterHandle.getSize()));
+                }
+                return new TableFile(path, channel, mapped, fileSize, metadata, blockIndex, filter);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
             }
         }
         
-        private void loadNextBlock() throws IOException {
-            if (currentBlockIndex >= blockIndex.size()) {
-                return;
+        ByteBuffer read(long position, int length) throws IOException {
+            return read(path, channel, mapped, position, length);
+        }
+        
+        /**
+         * 读取数据块，按尾部记录的压缩方式解压
+         * @param handle 块句柄
+         * @param verifier 校验数据块的验证器，null表示不校验
+         * @return 解压后的块内容
+         * @throws IOException 如果读取失败、校验和不匹配或压缩数据损坏
+         */
+        ByteBuffer readBlockContents(BlockHandle handle, ChecksumVerifier verifier) throws IOException {
+            int size = (int) handle.getSize();
+            int formatVersion = metadata.getFormatVersion();
+            if (formatVersion < 1) {
+                // 旧格式没有块尾部
+                return read(handle.getOffset(), size);
+            }
+            if (formatVersion < 2) {
+                // 版本1的尾部只有1字节的压缩方式
+                ByteBuffer raw = read(handle.getOffset(), size + 1);
+                CompressionType type = CompressionType.fromCode(raw.get(size));
+                raw.limit(size);
+                return type.decompress(raw);
+            }
+            return readChecked(path, channel, mapped, handle, verifier);
+        }
+        
+        /**
+         * 读取带尾部（压缩方式 + CRC32C）的块，校验后按压缩方式解压
+         * @param path 文件路径，用于错误信息
+         * @param channel 文件通道
+         * @param mapped 内存映射，未映射时为null
+         * @param handle 块句柄，大小不含尾部
+         * @param verifier 验证器，null表示不校验
+         * @return 解压后的块内容
+         * @throws IOException 如果读取失败、校验和不匹配或压缩数据损坏
+         */
+        private static ByteBuffer readChecked(Path path, FileChannel channel, MappedByteBuffer mapped,
+                                              BlockHandle handle, ChecksumVerifier verifier) throws IOException {
+            int size = (int) handle.getSize();
+            ByteBuffer raw = read(path, channel, mapped, handle.getOffset(), size + SSTableBuilder.BLOCK_TRAILER_SIZE);
+            if (verifier != null) {
+                ByteBuffer covered = raw.duplicate();
+                covered.limit(size + 1);
+                verifier.verify(path, handle.getOffset(), covered, raw.getInt(size + 1));
+            }
+            CompressionType type = CompressionType.fromCode(raw.get(size));
+            raw.limit(size);
+            return type.decompress(raw);
+        }
+        
+        /**
+         * 读取文件的一段内容
+         * 内存映射模式下返回映射区域的切片，否则使用带位置的读取，不改变通道的共享位置，
+         * 多个线程可以同时读取同一个文件
+         * @param path 文件路径，用于错误信息
+         * @param channel 文件通道
+         * @param mapped 内存映射，未映射时为null
+         * @param position 文件偏移
+         * @param length 长度
+         * @return 读出的内容
+         * @throws IOException 如果读取失败或文件提前结束
+         */
+        private static ByteBuffer read(Path path, FileChannel channel, MappedByteBuffer mapped,
+                                       long position, int length) throws IOException {
+            if (mapped != null) {
+                if (position + length > mapped.capacity()) {
+                    throw new IOException("Unexpected end of SSTable file: " + path);
+                }
+                ByteBuffer view = mapped.duplicate();
+                view.position((int) position).limit((int) position + length);
+                return view.slice();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of SSTable file: " + path);
+                }
+                position += n;
+            }
+            buffer.flip();
+            return buffer;
+        }
+        
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close SSTable " + path + ": " + e.getMessage());
             }
-            
-            BlockHandle handle = blockIndex.getBlockHandles()[currentBlockIndex++];
-            currentBlockBuffer = ByteBuffer.allocate((int)handle.getSize());
-            
-            channel.position(handle.getOffset());
-            channel.read(currentBlockBuffer);
-            currentBlockBuffer.flip();
-            
-            // 读取条目数
-            entriesInCurrentBlock = currentBlockBuffer.getInt();
-            entriesRead = 0;
-            
-            // 跳过布隆过滤器
-            int bloomFilterSize = currentBlockBuffer.getInt();
-            currentBlockBuffer.position(currentBlockBuffer.position() + bloomFilterSize);
         }
     }
     
     /**
-     * 将字节数组转换为十六进制字符串，用于安全显示
-     * @param bytes 字节数组
-     * @return 十六进制字符串
+     * SSTable迭代器实现，逐块读取，分区索引时逐个分区读取索引；创建时固定文件，迭代完或关闭时释放
      */
-    private static String bytesToHex(byte[] bytes) {
-        if (bytes == null) {
-            return "null";
+    private class SSTableIterator implements TableIterator<Map.Entry<InternalKey, byte[]>> {
+        private final TableFile table;
+        // 压缩读取：直接读盘并按压缩策略校验，不经过块缓存
+        private final boolean compaction;
+        // 当前遍历的数据块索引：单层索引或当前分区
+        private BlockIndex dataIndex;
+        private int nextBlockIndex;
+        // 下一个要读取的索引分区，只在分区索引时使用
+        private int nextPartition;
+        private Block.BlockIterator currentBlock;
+        // 起始键，只在第一个块内定位时使用
+        private byte[] startKey;
+        private boolean released;
+        
+        SSTableIterator(byte[] startKey, boolean compaction) {
+            this.compaction = compaction;
+            try {
+                this.table = pin();
+            } catch (IOException e) {
+                throw new RuntimeException("Error reading from SSTable", e);
+            }
+            try {
+                if (table.partitioned) {
+                    int partition = startKey != null ? table.blockIndex.findStartBlock(startKey) : 0;
+                    this.nextPartition = partition + 1;
+                    this.dataIndex = table.blockIndex.size() > 0
+                        ? readIndexPartition(table, table.blockIndex.getBlockHandle(partition), compaction)
+                        : table.blockIndex;
+                } else {
+                    this.dataIndex = table.blockIndex;
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw new RuntimeException("Error reading from SSTable", e);
+            }
+            this.nextBlockIndex = startKey != null ? dataIndex.findStartBlock(startKey) : 0;
+            this.startKey = startKey;
         }
         
-        // 尝试将其作为UTF-8字符串，如果失败则使用十六进制
-        try {
-            String str = new String(bytes, "UTF-8");
-            // 检查是否只包含可打印ASCII字符
-            boolean isPrintable = true;
-            for (int i = 0; i < str.length(); i++) {
-                if (str.charAt(i) < 32 || str.charAt(i) > 126) {
-                    isPrintable = false;
-                    break;
+        @Override
+        public boolean hasNext() {
+            while (currentBlock == null || !currentBlock.hasNext()) {
+                if (released) {
+                    return false;
+                }
+                try {
+                    if (nextBlockIndex >= dataIndex.size()) {
+                        if (!table.partitioned || nextPartition >= table.blockIndex.size()) {
+                            close();
+                            return false;
+                        }
+                        dataIndex = readIndexPartition(table, table.blockIndex.getBlockHandle(nextPartition++), compaction);
+                        nextBlockIndex = 0;
+                        continue;
+                    }
+                    BlockHandle handle = dataIndex.getBlockHandle(nextBlockIndex++);
+                    Block block = compaction
+                        ? new Block(table.readBlockContents(handle, compactionVerifier()))
+                        : readBlock(table, handle);
+                    currentBlock = startKey != null ? block.iterator(startKey) : block.iterator();
+                    startKey = null;
+                } catch (IOException e) {
+                    close();
+                    throw new RuntimeException("Error reading from SSTable", e);
+                } catch (RuntimeException e) {
+                    close();
+                    throw e;
                 }
             }
-            if (isPrintable) {
-                return "\"" + str + "\"";
+            return true;
+        }
+        
+        @Override
+        public Map.Entry<InternalKey, byte[]> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more entries in SSTable");
             }
-        } catch (Exception e) {
-            // 忽略异常，使用十六进制
+            return currentBlock.next();
         }
         
-        // 转为十六进制
-        StringBuilder result = new StringBuilder();
-        result.append("0x");
-        for (byte b : bytes) {
-            result.append(String.format("%02X", b));
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                unpin();
+            }
         }
-        return result.toString();
     }
-} 
\ No newline at end of file
+}
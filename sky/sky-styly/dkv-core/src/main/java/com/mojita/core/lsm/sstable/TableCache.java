@@ -0,0 +1,106 @@
+package com.mojita.core.lsm.sstable;
+
+import java.util.ArrayDeque;
+
+/**
+ * 表缓存 - 限制同时打开的SSTable文件数，由同一引擎的所有SSTable共享
+ *
+ * 打开的读取器按打开顺序排成一个环，超过上限时按CLOCK策略关闭冷的文件：
+ * 读取时只设置读取器的引用位，不需要获取表缓存的锁；淘汰时引用位被设置的读取器清除引用位后放回队尾，
+ * 正在被读取或迭代（已固定）的读取器跳过。被关闭的读取器只保留元数据，下次访问时重新打开。
+ * 所有文件都被固定时打开数会暂时超过上限，之后读取器解除固定时再补做淘汰
+ */
+public class TableCache {
+    private final int maxOpenFiles;
+    private final ArrayDeque<SSTableReader> clock = new ArrayDeque<>();
+
+    // 当前打开的文件数，供解除固定时无锁判断是否超限
+    private volatile int openFiles;
+
+    // 统计计数
+    private long openCount;
+    private long evictionCount;
+
+    /**
+     * 构造函数
+     * @param maxOpenFiles 最多同时打开的文件数
+     */
+    public TableCache(int maxOpenFiles) {
+        if (maxOpenFiles <= 0) {
+            throw new IllegalArgumentException("Max open files must be positive");
+        }
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * 读取器打开文件后登记，必要时关闭其他冷文件
+     * @param reader 刚打开文件的读取器
+     */
+    synchronized void opened(SSTableReader reader) {
+        openCount++;
+        clock.addLast(reader);
+        evict();
+    }
+
+    /**
+     * 读取器解除固定后调用，打开数超过上限时补做淘汰
+     */
+    void unpinned() {
+        if (openFiles > maxOpenFiles) {
+            synchronized (this) {
+                evict();
+            }
+        }
+    }
+
+    private void evict() {
+        // 每个读取器最多被检查两次：第一次清除引用位，第二次淘汰
+        int budget = 2 * clock.size();
+        while (clock.size() > maxOpenFiles && budget-- > 0) {
+            SSTableReader candidate = clock.pollFirst();
+            if (candidate.referenced) {
+                candidate.referenced = false;
+                clock.addLast(candidate);
+            } else if (candidate.release()) {
+                evictionCount++;
+            } else {
+                // 正在使用，稍后再试
+                clock.addLast(candidate);
+            }
+        }
+        openFiles = clock.size();
+    }
+
+    /**
+     * 读取器关闭时移除
+     * @param reader 读取器
+     */
+    synchronized void remove(SSTableReader reader) {
+        clock.remove(reader);
+        openFiles = clock.size();
+    }
+
+    /**
+     * 获取当前打开的文件数
+     * @return 打开的文件数
+     */
+    public synchronized int getOpenFileCount() {
+        return clock.size();
+    }
+
+    /**
+     * 获取累计打开文件的次数，包括被淘汰后重新打开
+     * @return 打开次数
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+}
@@ -0,0 +1,16 @@
+package com.mojita.core.lsm.sstable;
+
+import java.util.Iterator;
+
+/**
+ * SSTable迭代器 - 创建时固定文件，迭代完、出错或关闭时释放
+ * 提前停止迭代时必须关闭，否则表缓存无法关闭该文件
+ * @param <T> 元素类型
+ */
+public interface TableIterator<T> extends Iterator<T>, AutoCloseable {
+    /**
+     * 释放对文件的固定，重复调用无副作用
+     */
+    @Override
+    void close();
+}
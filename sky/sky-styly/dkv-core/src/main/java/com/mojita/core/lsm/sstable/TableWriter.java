@@ -0,0 +1,246 @@
+package com.mojita.core.lsm.sstable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 流水线文件写入器 - SSTableBuilder的I/O阶段
+ *
+ * 编码线程把块追加到写缓冲区，缓冲区写满后交给后台I/O线程按位置写入，编码线程立即切换到另一个缓冲区继续编码，
+ * 编码与磁盘写入重叠进行。两个缓冲区轮换使用：提交下一个缓冲区前等待上一次写入完成，
+ * 因此最多一个缓冲区在写、一个在填充。除最后一次外每次写入的长度都等于缓冲区大小，
+ * 缓冲区大小按4KB取整，写入总是落在对齐的偏移上。
+ *
+ * 每写入bytesPerSync字节，I/O线程执行一次不含元数据的fsync，把脏页分摊到整个写入过程中刷出，
+ * 避免完成时一次性fsync整个文件造成的长时间停顿。
+ *
+ * 两个直接缓冲区从共享的缓冲池借用，完成或放弃时归还，连续生成多个文件的压缩不会每个文件都申请新的直接内存
+ */
+final class TableWriter {
+    // 写入对齐单位
+    private static final int ALIGNMENT = 4096;
+
+    // 缓冲池最多保留的缓冲区个数，超出的交给GC回收
+    static final int MAX_POOLED_BUFFERS = 8;
+
+    // 空闲的直接缓冲区，后归还的先借出
+    private static final Deque<ByteBuffer> POOL = new ArrayDeque<>();
+
+    // 所有写入器共享的I/O线程，空闲时回收
+    private static final ExecutorService IO_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "dkv-sstable-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FileChannel channel;
+    private final long bytesPerSync;
+
+    // 正在填充的缓冲区和空闲的另一个缓冲区
+    private ByteBuffer current;
+    private ByteBuffer spare;
+    // 正在进行的写入，没有时为null
+    private Future<?> pendingWrite;
+    // 下一个提交的缓冲区在文件中的偏移
+    private long position;
+    // 上次fsync之后写入的字节数，只由I/O线程访问，写入任务之间通过Future建立先后关系
+    private long unsyncedBytes;
+    // 提交给I/O线程的写入次数
+    private int backgroundWrites;
+    // I/O线程执行的增量fsync次数，等待写入完成后读取
+    private int incrementalSyncs;
+
+    /**
+     * 构造函数
+     * @param channel 输出文件通道
+     * @param bufferSize 写缓冲区大小，按4KB向上取整
+     * @param bytesPerSync 每写入多少字节fsync一次，为0时只在完成时fsync
+     */
+    TableWriter(FileChannel channel, int bufferSize, long bytesPerSync) {
+        int size = Math.max(ALIGNMENT, (bufferSize + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+        this.channel = channel;
+        this.bytesPerSync = bytesPerSync;
+        this.current = acquire(size);
+        this.spare = acquire(size);
+    }
+
+    /**
+     * 从缓冲池借用指定大小的缓冲区，没有时新分配
+     * @param size 缓冲区大小
+     * @return 已清空的缓冲区
+     */
+    private static ByteBuffer acquire(int size) {
+        synchronized (POOL) {
+            Iterator<ByteBuffer> iterator = POOL.iterator();
+            while (iterator.hasNext()) {
+                ByteBuffer buffer = iterator.next();
+                if (buffer.capacity() == size) {
+                    iterator.remove();
+                    buffer.clear();
+                    return buffer;
+                }
+            }
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * 归还缓冲区，池满时丢弃最早归还的
+     * @param buffer 不再使用的缓冲区
+     */
+    private static void recycle(ByteBuffer buffer) {
+        synchronized (POOL) {
+            if (POOL.size() >= MAX_POOLED_BUFFERS) {
+                POOL.pollLast();
+            }
+            POOL.addFirst(buffer);
+        }
+    }
+
+    /**
+     * 获取缓冲池中空闲的缓冲区个数
+     * @return 个数
+     */
+    static int pooledBuffers() {
+        synchronized (POOL) {
+            return POOL.size();
+        }
+    }
+
+    /**
+     * 追加内容，缓冲区写满时交给I/O线程
+     * @param src 内容，从position到limit，返回时已全部消费
+     * @throws IOException 如果之前的后台写入失败
+     */
+    void write(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (!current.hasRemaining()) {
+                submit();
+            }
+            int n = Math.min(src.remaining(), current.remaining());
+            ByteBuffer slice = src.duplicate();
+            slice.limit(slice.position() + n);
+            current.put(slice);
+            src.position(src.position() + n);
+        }
+    }
+
+    /**
+     * 写出剩余内容，等待所有写入完成并fsync
+     * @throws IOException 如果写入失败
+     */
+    void finish() throws IOException {
+        try {
+            if (current.position() > 0) {
+                submit();
+            }
+            awaitPendingWrite();
+            channel.force(true);
+        } finally {
+            releaseBuffers();
+        }
+    }
+
+    /**
+     * 放弃写入，等待正在进行的写入结束，忽略其错误；已完成或已放弃时无副作用
+     */
+    void abort() {
+        try {
+            awaitPendingWrite();
+        } catch (IOException e) {
+            // 文件将被丢弃
+        } finally {
+            releaseBuffers();
+        }
+    }
+
+    /**
+     * 把两个缓冲区归还缓冲池；被中断时I/O线程可能仍在使用其中一个，此时不归还
+     */
+    private void releaseBuffers() {
+        if (current == null || pendingWrite != null) {
+            return;
+        }
+        recycle(current);
+        recycle(spare);
+        current = null;
+        spare = null;
+    }
+
+    private void submit() throws IOException {
+        ByteBuffer full = current;
+        full.flip();
+        // 上一次写入完成后另一个缓冲区才能复用
+        awaitPendingWrite();
+        current = spare;
+        current.clear();
+        spare = full;
+        long offset = position;
+        position += full.remaining();
+        backgroundWrites++;
+        pendingWrite = IO_EXECUTOR.submit(() -> {
+            writeFully(full, offset);
+            return null;
+        });
+    }
+
+    private void writeFully(ByteBuffer buffer, long offset) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+        unsyncedBytes += length;
+        if (bytesPerSync > 0 && unsyncedBytes >= bytesPerSync) {
+            channel.force(false);
+            unsyncedBytes = 0;
+            incrementalSyncs++;
+        }
+    }
+
+    private void awaitPendingWrite() throws IOException {
+        Future<?> write = pendingWrite;
+        if (write == null) {
+            return;
+        }
+        try {
+            write.get();
+            pendingWrite = null;
+        } catch (InterruptedException e) {
+            // 写入仍可能在进行，保留pendingWrite，缓冲区不归还
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing SSTable");
+        } catch (ExecutionException e) {
+            pendingWrite = null;
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to write SSTable", cause);
+        }
+    }
+
+    /**
+     * 获取提交给I/O线程的写入次数
+     * @return 次数
+     */
+    int getBackgroundWrites() {
+        return backgroundWrites;
+    }
+
+    /**
+     * 获取增量fsync次数，写入完成后调用
+     * @return 次数
+     */
+    int getIncrementalSyncs() {
+        return incrementalSyncs;
+    }
+}
@@ -1,24 +1,50 @@
 package com.mojita.core.lsm.sstable.bloom;
 
 import java.nio.ByteBuffer;
-import java.util.BitSet;
+import java.nio.ByteOrder;
 
 /**
  * 布隆过滤器 - 用于快速检查键是否可能存在
+ *
+ * 位图存放在long数组中，按64字节（一条缓存行，8个long）分块：键的第一个哈希选定一个块，
+ * 第二个哈希在块内产生全部k个位置，因此一次判断只访问一条缓存行。
+ * 序列化时整体按小端序批量写入和读取long数组，不逐位处理。
+ *
+ * 序列化格式：格式标记(4, 固定为-1) + 哈希函数数量(4) + 块数(4) + 位图(块数 * 64)。
+ * 旧格式（位数(4) + 哈希函数数量(4) + 位图字节）的过滤器在整个位图上取位，仍可读取和判断
  */
 public class BloomFilter {
-    private final BitSet bits;
+    // 每块的位数，对应一条64字节的缓存行
+    private static final int BLOCK_BITS = 512;
+    private static final int WORDS_PER_BLOCK = BLOCK_BITS / 64;
+    // 分块格式的标记，旧格式在该位置存放正的位数
+    private static final int BLOCKED_FORMAT = -1;
+    private static final int BLOCKED_HEADER_SIZE = 12;
+    
+    private final long[] words;
     private final int numHashFunctions;
+    // 分块格式的块数，旧格式为0
+    private final int numBlocks;
+    // 旧格式的位数，分块格式为0
     private final int bitSize;
     
     /**
-     * 构造函数
-     * @param bitSize 比特位数
+     * 构造函数 - 创建分块的布隆过滤器
+     * @param bitSize 比特位数，向上取整为整块
      * @param numHashFunctions 哈希函数数量
      */
     public BloomFilter(int bitSize, int numHashFunctions) {
-        this.bits = new BitSet(bitSize);
+        // 按long计算，位数接近Integer.MAX_VALUE时不溢出
+        this.numBlocks = (int) Math.max(1, ((long) bitSize + BLOCK_BITS - 1) / BLOCK_BITS);
+        this.words = new long[numBlocks * WORDS_PER_BLOCK];
         this.numHashFunctions = numHashFunctions;
+        this.bitSize = 0;
+    }
+    
+    private BloomFilter(long[] words, int numHashFunctions, int numBlocks, int bitSize) {
+        this.words = words;
+        this.numHashFunctions = numHashFunctions;
+        this.numBlocks = numBlocks;
         this.bitSize = bitSize;
     }
     
@@ -28,25 +54,33 @@ public class BloomFilter {
      * @return 布隆过滤器实例
      */
     public static BloomFilter fromByteArray(byte[] data) {
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        int bitSize = buffer.getInt();
+        return fromByteBuffer(ByteBuffer.wrap(data));
+    }
+    
+    /**
+     * 从缓冲区创建布隆过滤器，位图整体复制到long数组
+     * @param data 序列化的布隆过滤器数据，从position开始
+     * @return 布隆过滤器实例
+     */
+    public static BloomFilter fromByteBuffer(ByteBuffer data) {
+        ByteBuffer buffer = data.slice().order(ByteOrder.BIG_ENDIAN);
+        int header = buffer.getInt();
         int numHashFunctions = buffer.getInt();
-        
-        BloomFilter filter = new BloomFilter(bitSize, numHashFunctions);
-        
-        // 读取位集合
-        int byteArraySize = (int) Math.ceil(bitSize / 8.0);
-        byte[] bitArray = new byte[byteArraySize];
-        buffer.get(bitArray);
-        
-        // 设置位
-        for (int i = 0; i < byteArraySize * 8; i++) {
-            if ((bitArray[i / 8] & (1 << (i % 8))) != 0) {
-                filter.bits.set(i);
-            }
+        if (header == BLOCKED_FORMAT) {
+            int numBlocks = buffer.getInt();
+            long[] words = new long[numBlocks * WORDS_PER_BLOCK];
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(words);
+            return new BloomFilter(words, numHashFunctions, numBlocks, 0);
         }
         
-        return filter;
+        // 旧格式：第i位在第i/8个字节的第i%8位，按小端序组成long后即为第i/64个long的第i%64位
+        int bitSize = header;
+        int byteArraySize = (int) (((long) bitSize + 7) / 8);
+        byte[] padded = new byte[(byteArraySize + 7) / 8 * 8];
+        buffer.get(padded, 0, byteArraySize);
+        long[] words = new long[padded.length / 8];
+        ByteBuffer.wrap(padded).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(words);
+        return new BloomFilter(words, numHashFunctions, 0, bitSize);
     }
     
     /**
@@ -54,15 +88,30 @@ public class BloomFilter {
      * @param key 要添加的键
      */
     public void add(byte[] key) {
-        long hash1 = murmurHash3(key, 0);
-        long hash2 = murmurHash3(key, hash1);
-        
+        long hash1 = hash(key, 0);
+        addHashes(hash1, hash(key, hash1));
+    }
+    
+    /**
+     * 按预先计算的两个哈希值添加键，用于先收集键的哈希、最后按实际键数创建过滤器的场景
+     * @param hash1 hash(key, 0)
+     * @param hash2 hash(key, hash1)
+     */
+    public void addHashes(long hash1, long hash2) {
+        if (numBlocks == 0) {
+            for (int i = 0; i < numHashFunctions; i++) {
+                int index = legacyIndex(hash1, hash2, i);
+                words[index >>> 6] |= 1L << index;
+            }
+            return;
+        }
+        int base = blockBase(hash1);
+        long h = hash2;
+        long delta = probeDelta(hash2);
         for (int i = 0; i < numHashFunctions; i++) {
-            long combinedHash = hash1 + i * hash2;
-            // 确保combinedHash为正数
-            combinedHash = combinedHash < 0 ? ~combinedHash : combinedHash;
-            int index = (int) (combinedHash % bitSize);
-            bits.set(index);
+            int bit = (int) (h & (BLOCK_BITS - 1));
+            words[base + (bit >>> 6)] |= 1L << bit;
+            h += delta;
         }
     }
     
@@ -72,41 +121,77 @@ public class BloomFilter {
      * @return 如果可能存在返回true，如果一定不存在返回false
      */
     public boolean mightContain(byte[] key) {
-        long hash1 = murmurHash3(key, 0);
-        long hash2 = murmurHash3(key, hash1);
+        long hash1 = hash(key, 0);
+        long hash2 = hash(key, hash1);
         
+        if (numBlocks == 0) {
+            for (int i = 0; i < numHashFunctions; i++) {
+                int index = legacyIndex(hash1, hash2, i);
+                if ((words[index >>> 6] & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        int base = blockBase(hash1);
+        long h = hash2;
+        long delta = probeDelta(hash2);
         for (int i = 0; i < numHashFunctions; i++) {
-            long combinedHash = hash1 + i * hash2;
-            // 确保combinedHash为正数
-            combinedHash = combinedHash < 0 ? ~combinedHash : combinedHash; 
-            int index = (int) (combinedHash % bitSize);
-            if (!bits.get(index)) {
+            int bit = (int) (h & (BLOCK_BITS - 1));
+            if ((words[base + (bit >>> 6)] & (1L << bit)) == 0) {
                 return false;
             }
+            h += delta;
         }
         return true;
     }
     
     /**
-     * 转换为字节数组
+     * 键所在块的第一个long的下标
+     * @param hash1 第一个哈希
+     * @return 下标
+     */
+    private int blockBase(long hash1) {
+        return (int) ((hash1 >>> 1) % numBlocks) * WORDS_PER_BLOCK;
+    }
+    
+    /**
+     * 块内相邻两次探测的步长，取奇数保证k个位置在块内尽量分散
+     * @param hash2 第二个哈希
+     * @return 步长
+     */
+    private static long probeDelta(long hash2) {
+        return Long.rotateRight(hash2, 21) | 1;
+    }
+    
+    /**
+     * 旧格式在整个位图上的第i个位置
+     */
+    private int legacyIndex(long hash1, long hash2, int i) {
+        long combinedHash = hash1 + i * hash2;
+        // 确保combinedHash为正数
+        combinedHash = combinedHash < 0 ? ~combinedHash : combinedHash;
+        return (int) (combinedHash % bitSize);
+    }
+    
+    /**
+     * 转换为字节数组（分块格式），位图整体按小端序写入
      * @return 序列化的布隆过滤器
      */
     public byte[] toByteArray() {
-        int byteArraySize = (int) Math.ceil(bitSize / 8.0);
-        ByteBuffer buffer = ByteBuffer.allocate(8 + byteArraySize);
+        if (numBlocks == 0) {
+            // 旧格式只用于读取已有文件，不再写出
+            throw new IllegalStateException("Legacy bloom filters are read-only");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCKED_HEADER_SIZE + words.length * 8);
         
         // 写入元数据
-        buffer.putInt(bitSize);
+        buffer.putInt(BLOCKED_FORMAT);
         buffer.putInt(numHashFunctions);
+        buffer.putInt(numBlocks);
         
-        // 写入位集合
-        byte[] bitArray = new byte[byteArraySize];
-        for (int i = 0; i < bitSize; i++) {
-            if (bits.get(i)) {
-                bitArray[i / 8] |= (1 << (i % 8));
-            }
-        }
-        buffer.put(bitArray);
+        // 写入位图
+        buffer.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().put(words);
         
         return buffer.array();
     }
@@ -117,7 +202,7 @@ public class BloomFilter {
      * @param seed 种子
      * @return 哈希值
      */
-    private static long murmurHash3(byte[] key, long seed) {
+    public static long hash(byte[] key, long seed) {
         long h1 = seed;
         final long c1 = 0x87c37b91114253d5L;
         final long c2 = 0x4cf5ad432745937fL;
@@ -10,6 +10,13 @@ public interface BloomFilterPolicy {
      */
     BloomFilter createFilter();
     
+    /**
+     * 按预期键数创建布隆过滤器
+     * @param expectedKeys 预期键数
+     * @return 布隆过滤器实例
+     */
+    BloomFilter createFilter(int expectedKeys);
+    
     /**
      * 从字节数组恢复布隆过滤器
      * @param data 序列化的布隆过滤器数据
@@ -35,7 +42,13 @@ public interface BloomFilterPolicy {
         @Override
         public BloomFilter createFilter() {
             // 估计有1000个键的默认大小
-            int bitSize = 1000 * bitsPerKey;
+            return createFilter(1000);
+        }
+        
+        @Override
+        public BloomFilter createFilter(int expectedKeys) {
+            // 至少64位，键很少时误判率不至于过高
+            int bitSize = (int) Math.min(Integer.MAX_VALUE, Math.max(64L, (long) expectedKeys * bitsPerKey));
             
             // 计算最佳哈希函数数量: (m/n) * ln(2)
             int numHashFunctions = Math.max(1, (int) Math.round(bitsPerKey * 0.693));
@@ -0,0 +1,145 @@
+package com.mojita.core.lsm.sstable.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 数据块压缩方式 - 编号写入每个数据块的尾部
+ *
+ * 压缩后的内容为：原始长度(4) + 压缩数据，解压时按原始长度一次分配输出缓冲区
+ */
+public enum CompressionType {
+    /**
+     * 不压缩
+     */
+    NONE((byte) 0),
+    /**
+     * LZF格式的快速LZ压缩，适合热数据所在的层级
+     */
+    LZ((byte) 1),
+    /**
+     * java.util.zip的Deflate压缩，压缩率更高但更慢，适合底层的冷数据
+     */
+    DEFLATE((byte) 2);
+
+    private final byte code;
+
+    CompressionType(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * 根据编号获取压缩方式
+     * @param code 编号
+     * @return 压缩方式
+     * @throws IOException 如果编号未知
+     */
+    public static CompressionType fromCode(byte code) throws IOException {
+        for (CompressionType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IOException("Unknown block compression type: " + code);
+    }
+
+    /**
+     * 压缩
+     * @param data 原始数据，从position到limit
+     * @return 压缩后的内容（含原始长度前缀）
+     */
+    public byte[] compress(ByteBuffer data) {
+        int length = data.remaining();
+        byte[] raw = new byte[length];
+        data.duplicate().get(raw);
+        switch (this) {
+            case LZ: {
+                byte[] out = new byte[4 + LzCodec.maxCompressedLength(length)];
+                int n = LzCodec.compress(raw, length, out, 4);
+                ByteBuffer.wrap(out).putInt(length);
+                return Arrays.copyOf(out, 4 + n);
+            }
+            case DEFLATE: {
+                Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+                try {
+                    deflater.setInput(raw);
+                    deflater.finish();
+                    ByteBuffer out = ByteBuffer.allocate(4 + length + length / 1000 + 64);
+                    out.putInt(length);
+                    byte[] chunk = new byte[4096];
+                    while (!deflater.finished()) {
+                        int n = deflater.deflate(chunk);
+                        if (out.remaining() < n) {
+                            ByteBuffer larger = ByteBuffer.allocate(out.capacity() * 2 + n);
+                            out.flip();
+                            larger.put(out);
+                            out = larger;
+                        }
+                        out.put(chunk, 0, n);
+                    }
+                    return Arrays.copyOf(out.array(), out.position());
+                } finally {
+                    deflater.end();
+                }
+            }
+            default:
+                return raw;
+        }
+    }
+
+    /**
+     * 解压
+     * @param data 压缩后的内容（含原始长度前缀），从position到limit
+     * @return 原始数据
+     * @throws IOException 如果压缩数据损坏
+     */
+    public ByteBuffer decompress(ByteBuffer data) throws IOException {
+        if (this == NONE) {
+            return data;
+        }
+        ByteBuffer view = data.duplicate();
+        int length = view.getInt();
+        if (length < 0) {
+            throw new IOException("Corrupted compressed block: negative length " + length);
+        }
+        byte[] compressed = new byte[view.remaining()];
+        view.get(compressed);
+        byte[] out = new byte[length];
+        if (this == LZ) {
+            try {
+                LzCodec.decompress(compressed, compressed.length, out);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        } else {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                int n = 0;
+                while (n < length && !inflater.finished()) {
+                    int read = inflater.inflate(out, n, length - n);
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += read;
+                }
+                if (n != length) {
+                    throw new IOException("Corrupted deflate block: expected " + length + " bytes, got " + n);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted deflate block", e);
+            } finally {
+                inflater.end();
+            }
+        }
+        return ByteBuffer.wrap(out);
+    }
+}
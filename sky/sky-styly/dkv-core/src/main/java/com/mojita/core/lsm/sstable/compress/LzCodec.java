@@ -0,0 +1,137 @@
+package com.mojita.core.lsm.sstable.compress;
+
+import java.util.Arrays;
+
+/**
+ * LZ压缩 - LZF格式的LZ77变体，只用一张哈希表查找3字节重复串，压缩和解压都很快
+ *
+ * 压缩流由若干指令组成，每条指令以一个控制字节开头：
+ * 控制字节小于32时表示其后跟随(控制字节+1)个字面字节；
+ * 否则高3位为匹配长度-2（为7时再读一个字节累加），低5位与下一个字节组成回溯距离-1，最大8192
+ */
+final class LzCodec {
+    private static final int HASH_BITS = 14;
+    private static final int HASH_SIZE = 1 << HASH_BITS;
+    private static final int MAX_LITERAL = 32;
+    private static final int MAX_OFFSET = 1 << 13;
+    private static final int MAX_MATCH = 7 + 255 + 2;
+
+    // 每个线程复用一张哈希表，压缩每个数据块时不再分配新表
+    private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[HASH_SIZE]);
+
+    private LzCodec() {
+    }
+
+    /**
+     * 压缩结果的最大长度
+     * @param length 原始长度
+     * @return 最坏情况下的压缩长度
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / MAX_LITERAL + 1;
+    }
+
+    /**
+     * 压缩
+     * @param in 原始数据
+     * @param inLength 原始长度
+     * @param out 输出缓冲区，从outOffset起的空间不小于{@link #maxCompressedLength(int)}
+     * @param outOffset 输出起始位置
+     * @return 压缩后的长度
+     */
+    static int compress(byte[] in, int inLength, byte[] out, int outOffset) {
+        // 表中存放位置+1，0表示空；清空上一次压缩留下的位置，保证同样的输入得到同样的输出
+        int[] table = HASH_TABLE.get();
+        Arrays.fill(table, 0);
+        int ip = 0;
+        int op = outOffset;
+        int literalStart = 0;
+        while (ip + 2 < inLength) {
+            int h = hash(in, ip);
+            int ref = table[h] - 1;
+            table[h] = ip + 1;
+            int distance = ip - ref - 1;
+            if (ref >= 0 && distance < MAX_OFFSET
+                && in[ref] == in[ip] && in[ref + 1] == in[ip + 1] && in[ref + 2] == in[ip + 2]) {
+                op = writeLiterals(in, literalStart, ip - literalStart, out, op);
+                int maxLength = Math.min(MAX_MATCH, inLength - ip);
+                int length = 3;
+                while (length < maxLength && in[ref + length] == in[ip + length]) {
+                    length++;
+                }
+                int encoded = length - 2;
+                if (encoded < 7) {
+                    out[op++] = (byte) ((encoded << 5) + (distance >>> 8));
+                } else {
+                    out[op++] = (byte) ((7 << 5) + (distance >>> 8));
+                    out[op++] = (byte) (encoded - 7);
+                }
+                out[op++] = (byte) distance;
+                ip += length;
+                literalStart = ip;
+            } else {
+                ip++;
+            }
+        }
+        return writeLiterals(in, literalStart, inLength - literalStart, out, op) - outOffset;
+    }
+
+    /**
+     * 解压
+     * @param in 压缩数据
+     * @param inLength 压缩长度
+     * @param out 输出缓冲区，长度等于原始长度
+     * @throws IllegalArgumentException 如果压缩数据损坏
+     */
+    static void decompress(byte[] in, int inLength, byte[] out) {
+        int ip = 0;
+        int op = 0;
+        try {
+            while (ip < inLength) {
+                int control = in[ip++] & 0xff;
+                if (control < MAX_LITERAL) {
+                    int length = control + 1;
+                    System.arraycopy(in, ip, out, op, length);
+                    ip += length;
+                    op += length;
+                } else {
+                    int length = control >>> 5;
+                    if (length == 7) {
+                        length += in[ip++] & 0xff;
+                    }
+                    length += 2;
+                    int ref = op - ((control & 0x1f) << 8) - (in[ip++] & 0xff) - 1;
+                    if (ref < 0) {
+                        throw new IllegalArgumentException("Corrupted LZ data: bad back reference");
+                    }
+                    // 匹配可能与输出重叠，逐字节复制
+                    for (int i = 0; i < length; i++) {
+                        out[op++] = out[ref++];
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Corrupted LZ data", e);
+        }
+        if (op != out.length) {
+            throw new IllegalArgumentException("Corrupted LZ data: length mismatch");
+        }
+    }
+
+    private static int writeLiterals(byte[] in, int start, int length, byte[] out, int op) {
+        while (length > 0) {
+            int run = Math.min(length, MAX_LITERAL);
+            out[op++] = (byte) (run - 1);
+            System.arraycopy(in, start, out, op, run);
+            op += run;
+            start += run;
+            length -= run;
+        }
+        return op;
+    }
+
+    private static int hash(byte[] in, int p) {
+        int v = ((in[p] & 0xff) << 16) | ((in[p + 1] & 0xff) << 8) | (in[p + 2] & 0xff);
+        return (v * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+}
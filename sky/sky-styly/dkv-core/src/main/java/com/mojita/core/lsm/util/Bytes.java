@@ -0,0 +1,62 @@
+package com.mojita.core.lsm.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 字节数组工具类
+ * 统一LSM各组件使用的键比较规则（逐字节有符号比较，再比较长度）
+ */
+public final class Bytes {
+    /**
+     * 字节数组比较器，与MemTable、SSTableBuilder中的键顺序保持一致
+     */
+    public static final Comparator<byte[]> COMPARATOR = Bytes::compare;
+
+    private Bytes() {
+    }
+
+    /**
+     * 比较两个字节数组
+     * @param a 第一个数组
+     * @param b 第二个数组
+     * @return 比较结果
+     */
+    public static int compare(byte[] a, byte[] b) {
+        int minLen = Math.min(a.length, b.length);
+        for (int i = 0; i < minLen; i++) {
+            int cmp = Byte.compare(a[i], b[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    /**
+     * 计算最短分隔键：大于a且不大于b的最短字节数组
+     * 取b中比公共前缀多一个字节的前缀，用作数据块的索引键时比完整的最小键短
+     * @param a 前一个块的最大键
+     * @param b 后一个块的最小键，必须大于a
+     * @return 分隔键
+     */
+    public static byte[] shortestSeparator(byte[] a, byte[] b) {
+        return shortestSeparator(a, a.length, b);
+    }
+
+    /**
+     * 计算最短分隔键
+     * @param a 前一个块的最大键所在的缓冲区
+     * @param aLength 前一个块的最大键的长度
+     * @param b 后一个块的最小键，必须大于a
+     * @return 分隔键
+     */
+    public static byte[] shortestSeparator(byte[] a, int aLength, byte[] b) {
+        int limit = Math.min(aLength, b.length);
+        int common = 0;
+        while (common < limit && a[common] == b[common]) {
+            common++;
+        }
+        return Arrays.copyOf(b, Math.min(common + 1, b.length));
+    }
+}
@@ -0,0 +1,107 @@
+package com.mojita.core.lsm.util;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C校验和（Castagnoli多项式）
+ * 项目以Java 8为目标，不能使用java.util.zip.CRC32C，这里用slicing-by-8查表实现，
+ * 每次处理8个字节；ByteBuffer按绝对位置读取，可以直接校验内存映射区域而不复制
+ */
+public final class Crc32c implements Checksum {
+    // 反射形式的Castagnoli多项式
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int t = 1; t < 8; t++) {
+                int prev = TABLES[t - 1][i];
+                TABLES[t][i] = (prev >>> 8) ^ TABLES[0][prev & 0xff];
+            }
+        }
+    }
+
+    // 取反后的当前值
+    private int crc = 0xFFFFFFFF;
+
+    /**
+     * 计算一段内容的校验和
+     * @param data 数据，从position到limit，不改变其位置
+     * @return 校验和
+     */
+    public static int compute(ByteBuffer data) {
+        Crc32c crc32c = new Crc32c();
+        crc32c.update(data, data.position(), data.remaining());
+        return (int) crc32c.getValue();
+    }
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xff];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        int end = off + len;
+        while (end - off >= 8) {
+            int lo = c ^ ((b[off] & 0xff) | (b[off + 1] & 0xff) << 8
+                | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24);
+            c = TABLES[7][lo & 0xff] ^ TABLES[6][(lo >>> 8) & 0xff]
+                ^ TABLES[5][(lo >>> 16) & 0xff] ^ TABLES[4][lo >>> 24]
+                ^ TABLES[3][b[off + 4] & 0xff] ^ TABLES[2][b[off + 5] & 0xff]
+                ^ TABLES[1][b[off + 6] & 0xff] ^ TABLES[0][b[off + 7] & 0xff];
+            off += 8;
+        }
+        while (off < end) {
+            c = (c >>> 8) ^ TABLES[0][(c ^ b[off++]) & 0xff];
+        }
+        crc = c;
+    }
+
+    /**
+     * 更新校验和
+     * @param buffer 数据
+     * @param offset 起始的绝对位置
+     * @param length 长度
+     */
+    public void update(ByteBuffer buffer, int offset, int length) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + offset, length);
+            return;
+        }
+        int c = crc;
+        int end = offset + length;
+        while (end - offset >= 8) {
+            int lo = c ^ ((buffer.get(offset) & 0xff) | (buffer.get(offset + 1) & 0xff) << 8
+                | (buffer.get(offset + 2) & 0xff) << 16 | (buffer.get(offset + 3) & 0xff) << 24);
+            c = TABLES[7][lo & 0xff] ^ TABLES[6][(lo >>> 8) & 0xff]
+                ^ TABLES[5][(lo >>> 16) & 0xff] ^ TABLES[4][lo >>> 24]
+                ^ TABLES[3][buffer.get(offset + 4) & 0xff] ^ TABLES[2][buffer.get(offset + 5) & 0xff]
+                ^ TABLES[1][buffer.get(offset + 6) & 0xff] ^ TABLES[0][buffer.get(offset + 7) & 0xff];
+            offset += 8;
+        }
+        while (offset < end) {
+            c = (c >>> 8) ^ TABLES[0][(c ^ buffer.get(offset++)) & 0xff];
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return (~crc) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
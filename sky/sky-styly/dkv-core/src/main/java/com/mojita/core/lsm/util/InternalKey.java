@@ -0,0 +1,113 @@
+package com.mojita.core.lsm.util;
+
+import java.util.Comparator;
+
+/**
+ * 内部键 - 用户键 + 序号 + 值类型
+ * 排序规则：用户键升序，同一用户键按序号降序（新版本在前），
+ * 因此在有序结构中查找某个用户键时遇到的第一个版本就是最新版本。
+ *
+ * 序号和类型持久化时打包为一个long：序号左移8位后与类型编码按位或，序号最多56位
+ */
+public final class InternalKey {
+    /**
+     * 最大序号
+     */
+    public static final long MAX_SEQUENCE = (1L << 56) - 1;
+
+    /**
+     * 内部键比较器
+     */
+    public static final Comparator<InternalKey> COMPARATOR = (a, b) -> {
+        int cmp = Bytes.compare(a.userKey, b.userKey);
+        if (cmp != 0) {
+            return cmp;
+        }
+        // 标记最高位可能为1，按无符号比较
+        return Long.compareUnsigned(b.tag, a.tag);
+    };
+
+    private final byte[] userKey;
+    private final long tag;
+
+    /**
+     * 构造函数
+     * @param userKey 用户键
+     * @param sequence 序号
+     * @param type 值类型
+     */
+    public InternalKey(byte[] userKey, long sequence, ValueType type) {
+        this(userKey, pack(sequence, type));
+    }
+
+    private InternalKey(byte[] userKey, long tag) {
+        this.userKey = userKey;
+        this.tag = tag;
+    }
+
+    /**
+     * 从持久化的标记恢复内部键
+     * @param userKey 用户键
+     * @param tag 打包的序号和类型
+     * @return 内部键
+     */
+    public static InternalKey fromTag(byte[] userKey, long tag) {
+        ValueType.fromCode((byte) tag);
+        return new InternalKey(userKey, tag);
+    }
+
+    /**
+     * 构造用于查找的键：排在该用户键所有版本之前
+     * @param userKey 用户键
+     * @return 查找键
+     */
+    public static InternalKey lookupKey(byte[] userKey) {
+        return new InternalKey(userKey, -1L);
+    }
+
+    /**
+     * 打包序号和类型
+     * @param sequence 序号
+     * @param type 值类型
+     * @return 打包结果
+     */
+    public static long pack(long sequence, ValueType type) {
+        if (sequence < 0 || sequence > MAX_SEQUENCE) {
+            throw new IllegalArgumentException("Sequence out of range: " + sequence);
+        }
+        return (sequence << 8) | (type.getCode() & 0xFF);
+    }
+
+    public byte[] getUserKey() {
+        return userKey;
+    }
+
+    public long getSequence() {
+        return tag >>> 8;
+    }
+
+    public ValueType getType() {
+        return ValueType.fromCode((byte) tag);
+    }
+
+    /**
+     * 是否为删除标记
+     * @return 删除标记返回true
+     */
+    public boolean isDeletion() {
+        return (byte) tag == ValueType.DELETE.getCode();
+    }
+
+    /**
+     * 获取打包的序号和类型
+     * @return 打包结果
+     */
+    public long getTag() {
+        return tag;
+    }
+
+    @Override
+    public String toString() {
+        return new String(userKey) + "@" + getSequence() + (isDeletion() ? ":DEL" : ":PUT");
+    }
+}
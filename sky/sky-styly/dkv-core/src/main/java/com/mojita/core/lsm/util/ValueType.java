@@ -0,0 +1,43 @@
+package com.mojita.core.lsm.util;
+
+/**
+ * 值类型 - 区分普通写入和删除标记（墓碑）
+ * 编码与WAL记录类型一致
+ */
+public enum ValueType {
+    // 删除标记，表示该键在此序号处被删除
+    DELETE((byte) 2),
+    // 普通写入
+    PUT((byte) 1);
+
+    private final byte code;
+
+    ValueType(byte code) {
+        this.code = code;
+    }
+
+    /**
+     * 获取持久化编码
+     * @return 编码
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * 根据编码获取值类型
+     * @param code 编码
+     * @return 值类型
+     * @throws IllegalArgumentException 如果编码未知
+     */
+    public static ValueType fromCode(byte code) {
+        switch (code) {
+            case 1:
+                return PUT;
+            case 2:
+                return DELETE;
+            default:
+                throw new IllegalArgumentException("Unknown value type: " + code);
+        }
+    }
+}
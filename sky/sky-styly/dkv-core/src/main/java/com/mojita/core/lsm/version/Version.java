@@ -0,0 +1,312 @@
+package com.mojita.core.lsm.version;
+
+import com.mojita.core.lsm.iterator.MergingIterator;
+import com.mojita.core.lsm.sstable.SSTableMetadata;
+import com.mojita.core.lsm.sstable.SSTableReader;
+import com.mojita.core.lsm.util.Bytes;
+import com.mojita.core.lsm.util.InternalKey;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 版本 - 某一时刻存活SSTable集合的不可变快照
+ * L0中的文件键范围可能重叠，按数据新旧（最大序号）从新到旧排列；
+ * L1及以上各层文件键范围互不重叠，按最小键升序排列
+ * 
+ * 版本带有引用计数：VersionSet持有当前版本的一个引用，读请求和压缩任务通过
+ * {@link VersionSet#acquire()}获取引用，用完后调用{@link VersionSet#release(Version)}释放，
+ * 保证被压缩替换掉的SSTable在所有使用者释放之前不会被关闭或删除
+ */
+public class Version {
+    // 最大层数
+    public static final int NUM_LEVELS = 7;
+
+    // L0按数据最大序号倒序（新表在前），序号相同时按表ID倒序
+    private static final Comparator<SSTableReader> NEWEST_FIRST = (a, b) -> {
+        int cmp = Long.compare(b.getMetadata().getMaxSequence(), a.getMetadata().getMaxSequence());
+        return cmp != 0 ? cmp : Long.compare(b.getId(), a.getId());
+    };
+
+    // L1+按最小键升序
+    private static final Comparator<SSTableReader> BY_SMALLEST_KEY =
+        (a, b) -> compareNullable(a.getMetadata().getSmallestKey(), b.getMetadata().getSmallestKey());
+
+    private final List<List<SSTableReader>> levels;
+    
+    // 引用计数，初始引用由VersionSet持有
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * 构造函数
+     * @param tables 存活的SSTable，按各自元数据中的层级归类
+     */
+    Version(List<SSTableReader> tables) {
+        List<List<SSTableReader>> grouped = new ArrayList<>(NUM_LEVELS);
+        for (int i = 0; i < NUM_LEVELS; i++) {
+            grouped.add(new ArrayList<>());
+        }
+        for (SSTableReader table : tables) {
+            int level = Math.min(Math.max(table.getMetadata().getLevel(), 0), NUM_LEVELS - 1);
+            grouped.get(level).add(table);
+        }
+        grouped.get(0).sort(NEWEST_FIRST);
+        for (int i = 1; i < NUM_LEVELS; i++) {
+            grouped.get(i).sort(BY_SMALLEST_KEY);
+        }
+        for (int i = 0; i < NUM_LEVELS; i++) {
+            grouped.set(i, Collections.unmodifiableList(grouped.get(i)));
+        }
+        this.levels = Collections.unmodifiableList(grouped);
+    }
+
+    /**
+     * 空版本
+     * @return 不包含任何SSTable的版本
+     */
+    static Version empty() {
+        return new Version(Collections.<SSTableReader>emptyList());
+    }
+
+    /**
+     * 尝试增加引用，版本已失效时返回false
+     * @return 是否成功
+     */
+    boolean tryRef() {
+        while (true) {
+            int count = refs.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (refs.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * 减少引用
+     * @return 引用计数是否降为0
+     */
+    boolean unref() {
+        return refs.decrementAndGet() == 0;
+    }
+    
+    /**
+     * 获取某一层的SSTable
+     * @param level 层级
+     * @return 该层的SSTable列表（只读）
+     */
+    public List<SSTableReader> getTables(int level) {
+        return levels.get(level);
+    }
+
+    /**
+     * 获取所有SSTable，L0从新到旧在前，随后依次为L1..Ln
+     * @return SSTable列表
+     */
+    public List<SSTableReader> getAllTables() {
+        List<SSTableReader> all = new ArrayList<>();
+        for (List<SSTableReader> level : levels) {
+            all.addAll(level);
+        }
+        return all;
+    }
+
+    /**
+     * 获取SSTable总数
+     * @return 文件数
+     */
+    public int getTableCount() {
+        int count = 0;
+        for (List<SSTableReader> level : levels) {
+            count += level.size();
+        }
+        return count;
+    }
+
+    /**
+     * 获取某一层所有文件的总大小
+     * @param level 层级
+     * @return 字节数
+     */
+    public long getLevelSize(int level) {
+        long total = 0;
+        for (SSTableReader table : levels.get(level)) {
+            total += fileSize(table.getMetadata());
+        }
+        return total;
+    }
+    
+    /**
+     * 获取某一层中与[smallest, largest]键范围重叠的文件
+     * @param level 层级
+     * @param smallest 范围下界，null表示无下界
+     * @param largest 范围上界，null表示无上界
+     * @return 重叠的文件
+     */
+    public List<SSTableReader> getOverlappingTables(int level, byte[] smallest, byte[] largest) {
+        List<SSTableReader> result = new ArrayList<>();
+        for (SSTableReader table : levels.get(level)) {
+            SSTableMetadata metadata = table.getMetadata();
+            if (smallest != null && metadata.getLargestKey() != null
+                && Bytes.compare(metadata.getLargestKey(), smallest) < 0) {
+                continue;
+            }
+            if (largest != null && metadata.getSmallestKey() != null
+                && Bytes.compare(metadata.getSmallestKey(), largest) > 0) {
+                continue;
+            }
+            result.add(table);
+        }
+        return result;
+    }
+    
+    /**
+     * 根据元数据估算文件大小（数据区 + 布隆过滤器 + 索引区）
+     * @param metadata 元数据
+     * @return 字节数
+     */
+    public static long fileSize(SSTableMetadata metadata) {
+        return metadata.getDataSize() + metadata.getBloomFilterSize() + metadata.getIndexSize();
+    }
+    
+    /**
+     * 点查 - 从新到旧依次查询各SSTable
+     * 通过元数据的键范围和布隆过滤器跳过不可能包含该键的文件，遇到删除标记即停止
+     * @param key 键
+     * @return 值，不存在或已被删除则返回null
+     * @throws IOException 如果读取SSTable失败
+     */
+    public byte[] get(byte[] key) throws IOException {
+        Map.Entry<InternalKey, byte[]> entry = lookup(key);
+        if (entry == null || entry.getKey().isDeletion()) {
+            return null;
+        }
+        return entry.getValue();
+    }
+    
+    /**
+     * 查找键的最新版本，包括删除标记
+     * @param key 键
+     * @return 内部键及值，所有文件中都没有该键时返回null
+     * @throws IOException 如果读取SSTable失败
+     */
+    public Map.Entry<InternalKey, byte[]> lookup(byte[] key) throws IOException {
+        // L0文件之间可能重叠，需要从新到旧逐个检查
+        for (SSTableReader table : levels.get(0)) {
+            Map.Entry<InternalKey, byte[]> entry = getFromTable(table, key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+
+        // L1+每层最多只有一个文件可能包含该键
+        for (int level = 1; level < NUM_LEVELS; level++) {
+            SSTableReader table = findTable(levels.get(level), key);
+            if (table != null) {
+                Map.Entry<InternalKey, byte[]> entry = getFromTable(table, key);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取与[startKey, endKey)范围重叠的所有文件的迭代器，L0从新到旧在前，随后依次为L1..Ln
+     * 迭代期间调用方必须持有本版本的引用
+     * @param startKey 起始用户键（包含），null表示无下界
+     * @param endKey 结束用户键（不包含），null表示无上界
+     * @return 各文件从起始键开始的迭代器
+     */
+    public List<Iterator<Map.Entry<InternalKey, byte[]>>> iterators(byte[] startKey, byte[] endKey) {
+        List<Iterator<Map.Entry<InternalKey, byte[]>>> iterators = new ArrayList<>();
+        try {
+            collectIterators(iterators, startKey, endKey);
+        } catch (RuntimeException e) {
+            // 已创建的迭代器固定了文件，需要释放
+            MergingIterator.closeAll(iterators);
+            throw e;
+        }
+        return iterators;
+    }
+
+    private void collectIterators(List<Iterator<Map.Entry<InternalKey, byte[]>>> iterators,
+                                  byte[] startKey, byte[] endKey) {
+        for (List<SSTableReader> level : levels) {
+            for (SSTableReader table : level) {
+                SSTableMetadata metadata = table.getMetadata();
+                if (startKey != null && metadata.getLargestKey() != null
+                    && Bytes.compare(metadata.getLargestKey(), startKey) < 0) {
+                    continue;
+                }
+                if (endKey != null && metadata.getSmallestKey() != null
+                    && Bytes.compare(metadata.getSmallestKey(), endKey) >= 0) {
+                    continue;
+                }
+                iterators.add(table.internalIterator(startKey));
+            }
+        }
+    }
+
+    /**
+     * 在有序且不重叠的文件列表中二分查找可能包含键的文件
+     * @param tables 文件列表
+     * @param key 键
+     * @return 文件，不存在则返回null
+     */
+    static SSTableReader findTable(List<SSTableReader> tables, byte[] key) {
+        int low = 0;
+        int high = tables.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            byte[] largest = tables.get(mid).getMetadata().getLargestKey();
+            if (largest != null && Bytes.compare(largest, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (low < tables.size() && inRange(tables.get(low).getMetadata(), key)) {
+            return tables.get(low);
+        }
+        return null;
+    }
+
+    private static Map.Entry<InternalKey, byte[]> getFromTable(SSTableReader table, byte[] key) throws IOException {
+        if (!inRange(table.getMetadata(), key) || !table.mayContain(key)) {
+            return null;
+        }
+        return table.getEntry(key);
+    }
+
+    /**
+     * 判断键是否落在文件的[最小键, 最大键]范围内
+     * @param metadata 文件元数据
+     * @param key 键
+     * @return 是否在范围内
+     */
+    static boolean inRange(SSTableMetadata metadata, byte[] key) {
+        byte[] smallest = metadata.getSmallestKey();
+        byte[] largest = metadata.getLargestKey();
+        if (smallest != null && Bytes.compare(key, smallest) < 0) {
+            return false;
+        }
+        return largest == null || Bytes.compare(key, largest) <= 0;
+    }
+
+    private static int compareNullable(byte[] a, byte[] b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return Bytes.compare(a, b);
+    }
+}
@@ -0,0 +1,450 @@
+package com.mojita.core.lsm.version;
+
+import com.mojita.core.lsm.config.SSTableConfig;
+import com.mojita.core.lsm.sstable.BlockCache;
+import com.mojita.core.lsm.sstable.ChecksumVerifier;
+import com.mojita.core.lsm.sstable.SSTableBuilder;
+import com.mojita.core.lsm.sstable.SSTableReader;
+import com.mojita.core.lsm.sstable.TableCache;
+import com.mojita.core.lsm.sstable.compress.CompressionType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 版本集合 - 管理存活SSTable的集合及其变更
+ * 读请求获取当前版本后即可无锁查询，变更时生成新版本并原子替换
+ *
+ * 存活文件列表记录在MANIFEST中，每次变更先写临时文件再原子重命名，
+ * 因此压缩的输出和输入要么同时生效、要么都不生效；
+ * 启动时不在MANIFEST中的SSTable视为残留文件并删除
+ */
+public class VersionSet implements AutoCloseable {
+    // SSTable文件名前缀和后缀
+    private static final String TABLE_FILE_PREFIX = "sst_";
+    private static final String TABLE_FILE_SUFFIX = ".sst";
+
+    // 存活文件清单
+    private static final String MANIFEST_FILE = "MANIFEST";
+    private static final String MANIFEST_TEMP_FILE = "MANIFEST.tmp";
+
+    // SSTable目录
+    private final Path sstableDir;
+
+    // SSTable读写配置
+    private final SSTableConfig sstableConfig;
+
+    // 是否以内存映射方式打开SSTable
+    private final boolean mmapReads;
+
+    // 所有SSTable共享的块缓存，未配置时为null
+    private final BlockCache blockCache;
+
+    // 限制打开文件数的表缓存，未配置时为null
+    private final TableCache tableCache;
+
+    // 共享的校验和验证器
+    private final ChecksumVerifier checksumVerifier;
+
+    // 下一个可用的文件编号（同时作为SSTable ID）
+    private final AtomicLong nextFileNumber;
+
+    // 各SSTable被多少个存活版本引用
+    private final Map<SSTableReader, Integer> tableRefs;
+
+    // 已从当前版本移除、等待所有引用释放后删除的SSTable
+    private final Set<SSTableReader> obsoleteTables;
+
+    // 版本变更监听器
+    private final List<Runnable> listeners;
+
+    // 当前版本
+    private volatile Version current;
+
+    /**
+     * 构造函数 - 加载目录中已有的SSTable
+     * @param sstableDir SSTable目录
+     * @throws IOException 如果读取目录失败
+     */
+    public VersionSet(Path sstableDir) throws IOException {
+        this(sstableDir, new SSTableConfig());
+    }
+
+    /**
+     * 构造函数 - 加载目录中已有的SSTable
+     * @param sstableDir SSTable目录
+     * @param sstableConfig SSTable读取配置
+     * @throws IOException 如果读取目录失败
+     */
+    public VersionSet(Path sstableDir, SSTableConfig sstableConfig) throws IOException {
+        this.sstableDir = sstableDir;
+        this.sstableConfig = sstableConfig;
+        this.mmapReads = sstableConfig.isMmapReads();
+        this.blockCache = sstableConfig.getBlockCacheSize() > 0
+            ? new BlockCache(sstableConfig.getBlockCacheSize(), sstableConfig.getBlockCacheShards(),
+                sstableConfig.getBlockCacheEvictionPolicy(), sstableConfig.isBlockCacheOffHeap())
+            : null;
+        this.tableCache = sstableConfig.getMaxOpenFiles() > 0 ? new TableCache(sstableConfig.getMaxOpenFiles()) : null;
+        this.checksumVerifier = new ChecksumVerifier(sstableConfig.getChecksumVerification());
+        this.tableRefs = new IdentityHashMap<>();
+        this.obsoleteTables = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.listeners = new CopyOnWriteArrayList<>();
+
+        Path manifestPath = sstableDir.resolve(MANIFEST_FILE);
+        Set<Long> liveNumbers = Files.exists(manifestPath) ? readManifest(manifestPath) : null;
+
+        List<SSTableReader> tables = new ArrayList<>();
+        long maxNumber = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(sstableDir, "*" + TABLE_FILE_SUFFIX)) {
+            for (Path path : stream) {
+                long fileNumber = parseFileNumber(path);
+                maxNumber = Math.max(maxNumber, fileNumber);
+                if (liveNumbers != null && !liveNumbers.remove(fileNumber)) {
+                    // 未完成的刷盘或压缩留下的文件
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                try {
+                    SSTableReader reader = openTable(path);
+                    tables.add(reader);
+                    maxNumber = Math.max(maxNumber, reader.getId());
+                } catch (IOException | RuntimeException e) {
+                    if (liveNumbers != null) {
+                        closeQuietly(tables);
+                        throw new IOException("Failed to open live SSTable " + path, e);
+                    }
+                    // 无法识别的文件（例如旧格式的转储文件）不参与读取
+                    System.err.println("Skipping unreadable SSTable " + path + ": " + e.getMessage());
+                }
+            }
+        }
+        if (liveNumbers != null && !liveNumbers.isEmpty()) {
+            closeQuietly(tables);
+            throw new IOException("Missing SSTable files listed in manifest: " + liveNumbers);
+        }
+
+        this.nextFileNumber = new AtomicLong(maxNumber + 1);
+        writeManifest(tables);
+        installVersion(new Version(tables));
+    }
+
+    /**
+     * 获取当前版本（不增加引用，仅用于短时间内读取统计信息）
+     * @return 当前版本
+     */
+    public Version current() {
+        return current;
+    }
+
+    /**
+     * 获取当前版本并增加引用，使用完毕后必须调用{@link #release(Version)}
+     * @return 当前版本
+     */
+    public Version acquire() {
+        while (true) {
+            Version version = current;
+            if (version.tryRef()) {
+                return version;
+            }
+        }
+    }
+
+    /**
+     * 释放版本引用
+     * @param version 通过{@link #acquire()}获取的版本
+     */
+    public void release(Version version) {
+        if (version.unref()) {
+            releaseTables(version);
+        }
+    }
+
+    /**
+     * 注册版本变更监听器，每次安装新版本后调用
+     * @param listener 监听器
+     */
+    public void addVersionListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 分配新的文件编号
+     * @return 文件编号
+     */
+    public long newFileNumber() {
+        return nextFileNumber.getAndIncrement();
+    }
+
+    /**
+     * 按配置的读取方式打开SSTable
+     * @param path SSTable文件路径
+     * @return SSTable读取器
+     * @throws IOException 如果打开文件失败
+     */
+    public SSTableReader openTable(Path path) throws IOException {
+        return new SSTableReader(path, mmapReads, blockCache, tableCache, checksumVerifier);
+    }
+
+    /**
+     * 按配置创建写入指定层级的SSTable构建器：压缩方式、写缓冲区大小和增量同步间隔都取自配置
+     * @param path SSTable文件路径
+     * @param fileNumber 文件编号
+     * @param level 层级
+     * @return SSTable构建器
+     * @throws IOException 如果创建文件失败
+     */
+    public SSTableBuilder newTableBuilder(Path path, long fileNumber, int level) throws IOException {
+        SSTableBuilder builder = new SSTableBuilder(path, fileNumber);
+        builder.setLevel(level);
+        builder.setCompression(compressionForLevel(level));
+        builder.setWriteBufferSize(sstableConfig.getWriteBufferSize());
+        builder.setBytesPerSync(sstableConfig.getBytesPerSync());
+        return builder;
+    }
+
+    /**
+     * 获取写入指定层级的SSTable时使用的压缩方式
+     * @param level 层级
+     * @return 压缩方式
+     */
+    public CompressionType compressionForLevel(int level) {
+        return sstableConfig.getCompression(level);
+    }
+
+    /**
+     * 获取共享的块缓存
+     * @return 块缓存，未配置时返回null
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * 获取限制打开文件数的表缓存
+     * @return 表缓存，未配置时返回null
+     */
+    public TableCache getTableCache() {
+        return tableCache;
+    }
+
+    /**
+     * 获取校验和验证器
+     * @return 验证器
+     */
+    public ChecksumVerifier getChecksumVerifier() {
+        return checksumVerifier;
+    }
+
+    /**
+     * 根据文件编号生成SSTable路径
+     * @param fileNumber 文件编号
+     * @return SSTable路径
+     */
+    public Path tableFilePath(long fileNumber) {
+        return sstableDir.resolve(TABLE_FILE_PREFIX + fileNumber + TABLE_FILE_SUFFIX);
+    }
+
+    /**
+     * 安装新的SSTable，使其对读请求可见
+     * @param table 已打开的SSTable
+     * @throws IOException 如果写入MANIFEST失败
+     */
+    public void addTable(SSTableReader table) throws IOException {
+        applyEdit(Collections.<SSTableReader>emptyList(), Collections.singletonList(table));
+    }
+
+    /**
+     * 原子地应用一次变更：移除一组SSTable并加入另一组
+     * 被移除的文件在所有引用它的版本释放后关闭并删除
+     * @param removed 移除的SSTable
+     * @param added 新增的SSTable
+     * @throws IOException 如果写入MANIFEST失败
+     */
+    public void applyEdit(Collection<SSTableReader> removed, Collection<SSTableReader> added) throws IOException {
+        synchronized (this) {
+            Set<SSTableReader> removedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+            removedSet.addAll(removed);
+
+            List<SSTableReader> tables = new ArrayList<>();
+            for (SSTableReader table : current.getAllTables()) {
+                if (!removedSet.contains(table)) {
+                    tables.add(table);
+                }
+            }
+            tables.addAll(added);
+
+            // 先持久化清单，再切换内存中的版本
+            writeManifest(tables);
+            obsoleteTables.addAll(removedSet);
+            installVersion(new Version(tables));
+        }
+
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * 从SSTable中查询键
+     * @param key 键
+     * @return 值，不存在则返回null
+     * @throws IOException 如果读取失败
+     */
+    public byte[] get(byte[] key) throws IOException {
+        Version version = acquire();
+        try {
+            return version.get(key);
+        } finally {
+            release(version);
+        }
+    }
+
+    /**
+     * 关闭所有SSTable
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (SSTableReader table : new ArrayList<>(tableRefs.keySet())) {
+            try {
+                table.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        tableRefs.clear();
+        obsoleteTables.clear();
+        current = Version.empty();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 安装新版本并释放VersionSet对旧版本的引用
+     * @param version 新版本
+     */
+    private synchronized void installVersion(Version version) {
+        for (SSTableReader table : version.getAllTables()) {
+            tableRefs.merge(table, 1, Integer::sum);
+        }
+        Version old = current;
+        current = version;
+        if (old != null) {
+            release(old);
+        }
+    }
+
+    /**
+     * 版本失效后减少其引用的SSTable计数，关闭并删除不再被引用的废弃文件
+     * @param version 失效的版本
+     */
+    private synchronized void releaseTables(Version version) {
+        for (SSTableReader table : version.getAllTables()) {
+            Integer count = tableRefs.get(table);
+            if (count == null) {
+                // 已经在close()中关闭
+                continue;
+            }
+            if (count > 1) {
+                tableRefs.put(table, count - 1);
+                continue;
+            }
+            tableRefs.remove(table);
+            if (obsoleteTables.remove(table)) {
+                try {
+                    table.close();
+                    Files.deleteIfExists(table.getPath());
+                } catch (IOException e) {
+                    System.err.println("Failed to delete obsolete SSTable " + table.getPath() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 原子地写入存活文件清单
+     * @param tables 存活的SSTable
+     * @throws IOException 如果写入失败
+     */
+    private void writeManifest(List<SSTableReader> tables) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (SSTableReader table : tables) {
+            content.append(parseFileNumber(table.getPath())).append('\n');
+        }
+
+        Path tempPath = sstableDir.resolve(MANIFEST_TEMP_FILE);
+        try (FileChannel channel = FileChannel.open(tempPath,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tempPath, sstableDir.resolve(MANIFEST_FILE),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取存活文件清单
+     * @param manifestPath 清单路径
+     * @return 存活文件编号
+     * @throws IOException 如果读取失败
+     */
+    private static Set<Long> readManifest(Path manifestPath) throws IOException {
+        Set<Long> numbers = new HashSet<>();
+        for (String line : Files.readAllLines(manifestPath, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                numbers.add(Long.parseLong(line));
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * 从文件名中解析文件编号
+     * @param path 文件路径
+     * @return 文件编号，无法解析时返回0
+     */
+    private static long parseFileNumber(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(TABLE_FILE_PREFIX) || !name.endsWith(TABLE_FILE_SUFFIX)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(name.substring(TABLE_FILE_PREFIX.length(),
+                name.length() - TABLE_FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void closeQuietly(List<SSTableReader> tables) {
+        for (SSTableReader table : tables) {
+            try {
+                table.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.mojita.core.lsm;
+
+import com.mojita.core.lsm.config.MemTableConfig;
+import com.mojita.core.lsm.util.InternalKey;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArenaMemTableTest {
+    @TempDir
+    Path tempFolder;
+
+    private WALManager walManager;
+    private MemTableConfig config;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        walManager = new WALManager(tempFolder.resolve("wal"));
+        config = new MemTableConfig(1024 * 1024, 3600000);
+        config.setType(MemTableConfig.Type.ARENA);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        walManager.close();
+    }
+
+    @Test
+    public void testBasicOperations() {
+        MemTable memTable = new ArenaMemTable(config, walManager);
+        byte[] key = "key1".getBytes();
+
+        memTable.put(key, "value1".getBytes());
+        assertArrayEquals("value1".getBytes(), memTable.get(key));
+        assertNull(memTable.get("nonexistent".getBytes()));
+
+        memTable.put(key, "newvalue".getBytes());
+        assertArrayEquals("newvalue".getBytes(), memTable.get(key));
+
+        memTable.delete(key);
+        assertNull(memTable.get(key));
+        assertTrue(memTable.lookup(key).getKey().isDeletion());
+    }
+
+    @Test
+    public void testSizeIsExactArenaUsage() {
+        int blockSize = 64 * 1024;
+        int linkBlockSize = 1 << Arena.linkBlockShift(blockSize);
+        ArenaSkipList list = new ArenaSkipList(blockSize);
+        // 初始申请一个记录块和一个链接块，跳表头节点占用记录地址 + 每层一个后继
+        long headLinks = 1 + ArenaSkipList.MAX_HEIGHT;
+        assertEquals(8 * headLinks, list.allocatedBytes());
+        long reserved = blockSize + 8L * linkBlockSize;
+        assertEquals(reserved, list.memoryUsage());
+
+        // 单线程插入时按同样的规则推算块的申请
+        int recordOffset = 0;
+        long linkEnd = 1 + headLinks;
+        long totalHeight = 0;
+        int records = 5000;
+        for (int i = 0; i < records; i++) {
+            byte[] key = ("key" + i).getBytes();
+            // 偶尔写入超过块大小1/4的大值，单独占一块
+            byte[] value = new byte[i % 500 == 0 ? 20 * 1024 : i % 37];
+            long before = list.allocatedBytes();
+            list.insert(key, i, value);
+
+            int recordBytes = ArenaSkipList.RECORD_HEADER_SIZE + key.length + value.length;
+            // 其余是节点的链接：记录地址 + 1到MAX_HEIGHT层后继，各8字节
+            long linkBytes = list.allocatedBytes() - before - recordBytes;
+            assertEquals(0, linkBytes % 8, "record " + i);
+            int links = (int) (linkBytes / 8);
+            assertTrue(links >= 2 && links <= 1 + ArenaSkipList.MAX_HEIGHT, "links " + links);
+            totalHeight += links - 1;
+
+            if (recordBytes > blockSize / 4) {
+                reserved += recordBytes;
+            } else if (recordOffset + recordBytes > blockSize) {
+                reserved += blockSize;
+                recordOffset = recordBytes;
+            } else {
+                recordOffset += recordBytes;
+            }
+            long start = linkEnd;
+            if (start / linkBlockSize != (start + links - 1) / linkBlockSize) {
+                start = (start + links - 1) / linkBlockSize * linkBlockSize;
+                reserved += 8L * linkBlockSize;
+            }
+            linkEnd = start + links;
+            assertEquals(reserved, list.memoryUsage(), "record " + i);
+        }
+        // 每层以1/4的概率升高，平均层数约为4/3
+        double averageHeight = (double) totalHeight / records;
+        assertTrue(averageHeight > 1.2 && averageHeight < 1.5, "average height " + averageHeight);
+        // 块尾未用的部分也计入，占用不小于实际分配
+        assertTrue(list.memoryUsage() > list.allocatedBytes());
+
+        list.release();
+        assertEquals(0, list.memoryUsage());
+    }
+
+    @Test
+    public void testSizeCountsReservedBlocks() {
+        MemTable memTable = new ArenaMemTable(config, walManager);
+        long initial = memTable.size();
+        // 块大小取配置的内存池块大小和MemTable上限1/4中的较小者
+        int blockSize = (int) Math.min(config.getArenaBlockSize(), config.getMaxSize() / 4);
+        long linkBlockBytes = 8L << Arena.linkBlockShift(blockSize);
+        assertEquals(blockSize + linkBlockBytes, initial);
+
+        memTable.put("key".getBytes(), "value".getBytes());
+        assertEquals(initial, memTable.size());
+        // 写满第一个记录块后申请新块，大小按整块增长；链接块远未用完
+        int records = 0;
+        while (memTable.size() == initial) {
+            memTable.put(("key" + records++).getBytes(), new byte[1000]);
+        }
+        assertEquals(initial + blockSize, memTable.size());
+        // 每条记录约1KB，第一个块装满后的下一条写入申请了新块
+        assertEquals(blockSize / 1024 + 1, records);
+        assertFalse(memTable.shouldFlush());
+        assertEquals(memTable.size(), memTable.switchToImmutable().size());
+    }
+
+    @Test
+    public void testConcurrentInsertsStaySorted() throws Exception {
+        MemTable memTable = new ArenaMemTable(config, walManager);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    memTable.put(String.format("key%05d", i * 4 + thread).getBytes(), ("value" + i).getBytes());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        Iterator<Map.Entry<InternalKey, byte[]>> iterator = memTable.iterator(null);
+        for (int i = 0; i < 8000; i++) {
+            assertTrue(iterator.hasNext());
+            assertArrayEquals(String.format("key%05d", i).getBytes(), iterator.next().getKey().getUserKey());
+        }
+        assertFalse(iterator.hasNext());
+        assertArrayEquals(String.format("key%05d", 5000).getBytes(),
+            memTable.iterator(String.format("key%05d", 5000).getBytes()).next().getKey().getUserKey());
+    }
+
+    @Test
+    public void testReleaseAfterSwitch() {
+        MemTable memTable = new ArenaMemTable(config, walManager);
+        for (int i = 0; i < 5; i++) {
+            memTable.put(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        ImmutableMemTable immutable = memTable.switchToImmutable();
+        assertEquals(memTable.size(), immutable.size());
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(("value" + i).getBytes(), immutable.get(("key" + i).getBytes()));
+        }
+
+        // 迭代器在释放前创建，释放后仍能读完
+        Iterator<Map.Entry<InternalKey, byte[]>> iterator = immutable.iterator(null);
+        immutable.release();
+        assertNull(immutable.get("key0".getBytes()));
+        assertFalse(immutable.iterator(null).hasNext());
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(5, count);
+    }
+}
@@ -4,7 +4,6 @@ import com.mojita.core.lsm.config.MemTableConfig;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.io.TempDir;
-import java.nio.file.Files;
 import java.nio.file.Path;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -18,8 +17,7 @@ public class DefaultMemTableTest {
 
     @BeforeEach
     public void setup() throws Exception {
-        Path walPath = Files.createFile(tempFolder.resolve("test.wal"));
-        walManager = new WALManager(walPath);
+        walManager = new WALManager(tempFolder.resolve("wal"));
 
         // 创建一个小容量的MemTable用于测试
         MemTableConfig config = new MemTableConfig(1000, 3600000);
@@ -0,0 +1,363 @@
+package com.mojita.core.lsm;
+
+import com.mojita.core.lsm.config.CompactionConfig;
+import com.mojita.core.lsm.config.LSMConfig;
+import com.mojita.core.lsm.config.MemTableConfig;
+import com.mojita.core.lsm.iterator.RangeIterator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LSMEngineTest {
+    @TempDir
+    Path tempDir;
+
+    private static byte[] key(int i) {
+        return String.format("key%05d", i).getBytes();
+    }
+
+    private static byte[] value(int i) {
+        return ("value" + i).getBytes();
+    }
+
+    @Test
+    public void testReadFlushedData() throws Exception {
+        // 小容量MemTable，保证写入过程中发生多次刷盘
+        MemTableConfig config = new MemTableConfig(4096, 3600000);
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            for (int i = 0; i < 2000; i++) {
+                engine.put(key(i), value(i));
+            }
+            for (int i = 0; i < 2000; i++) {
+                assertArrayEquals(value(i), engine.get(key(i)), "key " + i);
+            }
+            assertNull(engine.get("missing".getBytes()));
+        }
+
+        // 所有MemTable都已刷盘，只剩关闭前轮转出的空段
+        assertEquals(1, countWalSegments());
+
+        // 重新打开后数据从SSTable读取
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            for (int i = 0; i < 2000; i++) {
+                assertArrayEquals(value(i), engine.get(key(i)), "key " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelFlushesInstallInOrder() throws Exception {
+        MemTableConfig config = new MemTableConfig(4096, 3600000);
+        config.setFlushThreads(4);
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            // 每一轮覆盖同一批键，各轮落在不同的MemTable中
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 500; i++) {
+                    engine.put(key(i), value(round * 1000 + i));
+                }
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (engine.getFlushStats().getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            FlushStats stats = engine.getFlushStats();
+            assertEquals(0, stats.getQueueDepth());
+            assertTrue(stats.getCompletedFlushes() > 0);
+            assertTrue(stats.getMaxLatencyNanos() >= stats.getAverageLatencyNanos());
+            for (int i = 0; i < 500; i++) {
+                assertArrayEquals(value(4000 + i), engine.get(key(i)), "key " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testArenaMemTablesFlushAndRelease() throws Exception {
+        MemTableConfig config = new MemTableConfig(4096, 3600000);
+        config.setType(MemTableConfig.Type.ARENA);
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 1000; i++) {
+                    engine.put(key(i), value(round * 1000 + i));
+                }
+            }
+            for (int i = 0; i < 1000; i += 3) {
+                engine.delete(key(i));
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (engine.getFlushStats().getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // 刷盘安装后内存池已释放，数据从SSTable读取
+            assertEquals(0, engine.getFlushStats().getQueueDepth());
+            assertTrue(engine.getFlushStats().getCompletedFlushes() > 0);
+            for (int i = 0; i < 1000; i++) {
+                byte[] expected = i % 3 == 0 ? null : value(2000 + i);
+                assertArrayEquals(expected, engine.get(key(i)), "key " + i);
+            }
+            int count = 0;
+            try (RangeIterator it = engine.scan(null, null, 0)) {
+                while (it.hasNext()) {
+                    it.next();
+                    count++;
+                }
+            }
+            assertEquals(666, count);
+        }
+
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            for (int i = 0; i < 1000; i++) {
+                byte[] expected = i % 3 == 0 ? null : value(2000 + i);
+                assertArrayEquals(expected, engine.get(key(i)), "key " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testWritesStallWhenLevel0FilesPileUp() throws Exception {
+        LSMConfig config = new LSMConfig();
+        config.setMemTableConfig(new MemTableConfig(4096, 3600000));
+        CompactionConfig compactionConfig = config.getCompactionConfig();
+        compactionConfig.setLevel0FileNumTrigger(2);
+        compactionConfig.setLevel0SlowdownWritesTrigger(2);
+        compactionConfig.setLevel0StopWritesTrigger(3);
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            for (int i = 0; i < 5000; i++) {
+                engine.put(key(i % 1000), value(i));
+            }
+            WriteController controller = engine.getWriteController();
+            assertTrue(controller.getDelayedWrites() > 0);
+            assertTrue(controller.getDelayNanos() > 0);
+            for (int i = 0; i < 1000; i++) {
+                assertArrayEquals(value(4000 + i), engine.get(key(i)), "key " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testBackgroundCompactionWithOverwrites() throws Exception {
+        LSMConfig config = new LSMConfig();
+        config.setMemTableConfig(new MemTableConfig(4096, 3600000));
+        CompactionConfig compactionConfig = config.getCompactionConfig();
+        compactionConfig.setLevel0FileNumTrigger(2);
+        compactionConfig.setMaxBytesForLevelBase(16 * 1024);
+        compactionConfig.setTargetFileSize(8 * 1024);
+
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 1000; i++) {
+                    engine.put(key(i), (round + "-" + i).getBytes());
+                }
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertArrayEquals(("2-" + i).getBytes(), engine.get(key(i)), "key " + i);
+            }
+        }
+
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            for (int i = 0; i < 1000; i++) {
+                assertArrayEquals(("2-" + i).getBytes(), engine.get(key(i)), "key " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testDeleteShadowsFlushedValues() throws Exception {
+        MemTableConfig config = new MemTableConfig(4096, 3600000);
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            for (int i = 0; i < 1000; i++) {
+                engine.put(key(i), value(i));
+            }
+            // 删除标记写入较新的MemTable，旧值仍在更旧的MemTable或SSTable中
+            for (int i = 0; i < 1000; i += 2) {
+                engine.delete(key(i));
+            }
+            for (int i = 0; i < 1000; i++) {
+                byte[] expected = i % 2 == 0 ? null : value(i);
+                assertArrayEquals(expected, engine.get(key(i)), "key " + i);
+            }
+        }
+
+        // 删除标记随MemTable刷盘，重新打开后旧值不会重新出现
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            for (int i = 0; i < 1000; i++) {
+                byte[] expected = i % 2 == 0 ? null : value(i);
+                assertArrayEquals(expected, engine.get(key(i)), "key " + i);
+            }
+            engine.put(key(0), value(0));
+            assertArrayEquals(value(0), engine.get(key(0)));
+        }
+    }
+
+    @Test
+    public void testScanRange() throws Exception {
+        MemTableConfig config = new MemTableConfig(4096, 3600000);
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            for (int i = 0; i < 1000; i++) {
+                engine.put(key(i), value(i));
+            }
+            // 覆盖和删除落在较新的MemTable中
+            for (int i = 100; i < 200; i++) {
+                if (i % 2 == 0) {
+                    engine.delete(key(i));
+                } else {
+                    engine.put(key(i), ("new" + i).getBytes());
+                }
+            }
+
+            int expected = 90;
+            try (RangeIterator it = engine.scan(key(90), key(210), 0)) {
+                while (it.hasNext()) {
+                    Map.Entry<byte[], byte[]> entry = it.next();
+                    while (expected >= 100 && expected < 200 && expected % 2 == 0) {
+                        expected++;
+                    }
+                    assertArrayEquals(key(expected), entry.getKey());
+                    byte[] value = expected >= 100 && expected < 200 ? ("new" + expected).getBytes() : value(expected);
+                    assertArrayEquals(value, entry.getValue());
+                    expected++;
+                }
+            }
+            assertEquals(210, expected);
+
+            int count = 0;
+            try (RangeIterator it = engine.scan(null, null, 10)) {
+                while (it.hasNext()) {
+                    assertArrayEquals(key(count), it.next().getKey());
+                    count++;
+                }
+            }
+            assertEquals(10, count);
+        }
+    }
+
+    @Test
+    public void testRecoverUnflushedWrites() throws Exception {
+        // 模拟崩溃：数据只写入了WAL，跨越多个段且有覆盖和删除
+        WALManager walManager = new WALManager(tempDir.resolve("wal"));
+        for (int i = 0; i < 1000; i++) {
+            walManager.appendEntry(key(i), value(i));
+        }
+        walManager.rotate();
+        for (int i = 0; i < 1000; i += 2) {
+            walManager.appendEntry(key(i), ("new" + i).getBytes());
+        }
+        walManager.rotate();
+        walManager.appendDeletion(key(999));
+        walManager.close();
+
+        LSMConfig config = new LSMConfig();
+        config.setMemTableConfig(new MemTableConfig(1024 * 1024, 3600000));
+        config.getWalConfig().setRecoveryThreads(2);
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            WALRecoveryStats stats = engine.getRecoveryStats();
+            assertEquals(3, stats.getSegmentCount());
+            assertEquals(1501, stats.getRecordCount());
+            assertEquals(1, stats.getTableCount());
+            assertTrue(stats.getByteCount() > 0);
+
+            for (int i = 0; i < 999; i++) {
+                byte[] expected = i % 2 == 0 ? ("new" + i).getBytes() : value(i);
+                assertArrayEquals(expected, engine.get(key(i)), "key " + i);
+            }
+            assertNull(engine.get(key(999)));
+
+            // 回放的段已回收，只剩新打开的段
+            assertEquals(1, countWalSegments());
+        }
+
+        // 正常关闭后重启无需回放数据
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            assertEquals(0, engine.getRecoveryStats().getRecordCount());
+            assertArrayEquals(value(1), engine.get(key(1)));
+        }
+    }
+
+    @Test
+    public void testRecoverOutOfOrderRecordsInOneSegment() throws Exception {
+        // 并发写入时序号先分配后追加，同一段内的记录可能不按序号排列：k@2, k@1, z@3
+        WALManager walManager = new WALManager(tempDir.resolve("wal"));
+        byte[] newest = new byte[200];
+        Arrays.fill(newest, (byte) 'n');
+        walManager.setLastSequence(1);
+        walManager.appendEntry("k".getBytes(), newest);
+        walManager.setLastSequence(0);
+        walManager.appendEntry("k".getBytes(), "old".getBytes());
+        walManager.setLastSequence(2);
+        walManager.appendEntry("z".getBytes(), "z".getBytes());
+        walManager.rotate();
+        walManager.appendEntry("k2".getBytes(), newest);
+        walManager.close();
+
+        // 第一条记录就超过刷盘阈值，但同一段只在整段回放后才刷盘，不会被拆到两个SSTable中
+        try (LSMEngine engine = new LSMEngine(tempDir, new MemTableConfig(100, 3600000))) {
+            assertEquals(2, engine.getRecoveryStats().getTableCount());
+            assertArrayEquals(newest, engine.get("k".getBytes()));
+            assertArrayEquals("z".getBytes(), engine.get("z".getBytes()));
+            assertArrayEquals(newest, engine.get("k2".getBytes()));
+        }
+    }
+
+    @Test
+    public void testWriteBatchAppliedAtomicallyAndRecovered() throws Exception {
+        MemTableConfig config = new MemTableConfig(1024 * 1024, 3600000);
+        try (LSMEngine engine = new LSMEngine(tempDir, config)) {
+            for (int i = 0; i < 10; i++) {
+                engine.put(key(i), value(i));
+            }
+            byte[] batchKey = key(100);
+            byte[] batchValue = value(100);
+            WriteBatch batch = new WriteBatch();
+            batch.put(batchKey, batchValue);
+            for (int i = 0; i < 10; i += 2) {
+                batch.delete(key(i));
+            }
+            batch.put(key(1), "batch1".getBytes());
+            // 添加后修改传入的数组不影响批次
+            batchKey[0] = 'x';
+            batchValue[0] = 'x';
+            engine.write(batch);
+
+            assertArrayEquals(value(100), engine.get(key(100)));
+            assertNull(engine.get(batchKey));
+            for (int i = 0; i < 10; i++) {
+                byte[] expected = i == 1 ? "batch1".getBytes() : i % 2 == 0 ? null : value(i);
+                assertArrayEquals(expected, engine.get(key(i)), "key " + i);
+            }
+        }
+
+        // 模拟崩溃：批次只写入了WAL，回放后批次内的覆盖和删除都生效
+        Path crashDir = tempDir.resolve("crash");
+        WALManager walManager = new WALManager(crashDir.resolve("wal"));
+        for (int i = 0; i < 10; i++) {
+            walManager.appendEntry(key(i), value(i));
+        }
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 10; i += 2) {
+            batch.delete(key(i));
+        }
+        batch.put(key(1), "batch1".getBytes());
+        walManager.appendBatch(batch);
+        walManager.close();
+
+        try (LSMEngine engine = new LSMEngine(crashDir, config)) {
+            assertEquals(16, engine.getRecoveryStats().getRecordCount());
+            for (int i = 0; i < 10; i++) {
+                byte[] expected = i == 1 ? "batch1".getBytes() : i % 2 == 0 ? null : value(i);
+                assertArrayEquals(expected, engine.get(key(i)), "key " + i);
+            }
+        }
+    }
+
+    private long countWalSegments() throws Exception {
+        try (Stream<Path> segments = Files.list(tempDir.resolve("wal"))) {
+            return segments.filter(p -> p.getFileName().toString().startsWith("wal_")).count();
+        }
+    }
+}
@@ -1,61 +1,70 @@
 package com.mojita.core.lsm;
 
 import com.mojita.core.lsm.config.MemTableConfig;
+import com.mojita.core.lsm.util.InternalKey;
+import com.mojita.core.lsm.util.ValueType;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.Comparator;
 
 /**
  * 测试专用MemTable实现，不依赖WAL
  */
 public class TestMemTable implements MemTable {
-    private static final Comparator<byte[]> BYTES_COMPARATOR = (a, b) -> {
-        int minLength = Math.min(a.length, b.length);
-        for (int i = 0; i < minLength; i++) {
-            int diff = Byte.compare(a[i], b[i]);
-            if (diff != 0) {
-                return diff;
-            }
-        }
-        return Integer.compare(a.length, b.length);
-    };
-    
-    private final ConcurrentSkipListMap<byte[], byte[]> data;
+    private final ConcurrentSkipListMap<InternalKey, byte[]> data;
     private final AtomicLong currentSize;
+    private final AtomicLong sequence;
     private final MemTableConfig config;
     
     public TestMemTable(MemTableConfig config) {
-        this.data = new ConcurrentSkipListMap<>(BYTES_COMPARATOR);
+        this.data = new ConcurrentSkipListMap<>(InternalKey.COMPARATOR);
         this.currentSize = new AtomicLong(0);
+        this.sequence = new AtomicLong(0);
         this.config = config;
     }
     
     @Override
     public boolean put(byte[] key, byte[] value) {
         // 不写WAL，只更新内存
-        byte[] oldValue = data.put(key, value);
+        data.put(new InternalKey(key, sequence.incrementAndGet(), ValueType.PUT), value);
+        currentSize.addAndGet(key.length + value.length + DefaultMemTable.ENTRY_OVERHEAD);
         
-        if (oldValue != null) {
-            currentSize.addAndGet(key.length + value.length - oldValue.length);
-        } else {
-            currentSize.addAndGet(key.length + value.length + 16);
+        return shouldFlush();
+    }
+    
+    @Override
+    public boolean write(WriteBatch batch) {
+        for (WALRecord operation : batch.getOperations()) {
+            if (operation.isDeletion()) {
+                delete(operation.getKey());
+            } else {
+                put(operation.getKey(), operation.getValue());
+            }
         }
-        
         return shouldFlush();
     }
     
     @Override
     public byte[] get(byte[] key) {
-        return data.get(key);
+        Map.Entry<InternalKey, byte[]> entry = lookup(key);
+        return entry == null || entry.getKey().isDeletion() ? null : entry.getValue();
+    }
+    
+    @Override
+    public Map.Entry<InternalKey, byte[]> lookup(byte[] key) {
+        return DefaultMemTable.lookup(data, key);
+    }
+    
+    @Override
+    public Iterator<Map.Entry<InternalKey, byte[]>> iterator(byte[] startKey) {
+        return DefaultMemTable.iterator(data, startKey);
     }
     
     @Override
     public boolean delete(byte[] key) {
-        byte[] oldValue = data.remove(key);
-        
-        if (oldValue != null) {
-            currentSize.addAndGet(-(key.length + oldValue.length));
-        }
+        data.put(new InternalKey(key, sequence.incrementAndGet(), ValueType.DELETE), new byte[0]);
+        currentSize.addAndGet(key.length + DefaultMemTable.ENTRY_OVERHEAD);
         
         return shouldFlush();
     }
@@ -74,4 +83,4 @@ public class TestMemTable implements MemTable {
     public ImmutableMemTable switchToImmutable() {
         return new ImmutableMemTable(data, currentSize.get());
     }
-} 
\ No newline at end of file
+}
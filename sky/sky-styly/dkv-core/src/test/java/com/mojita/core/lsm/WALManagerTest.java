@@ -0,0 +1,229 @@
+package com.mojita.core.lsm;
+
+import com.mojita.core.lsm.config.WALConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WALManagerTest {
+    @TempDir
+    Path tempDir;
+
+    private static final int THREADS = 8;
+    private static final int RECORDS_PER_THREAD = 500;
+
+    /**
+     * 多线程并发写入，每个线程写入递增编号的记录
+     */
+    private static void writeConcurrently(WALManager walManager) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                    walManager.appendEntry(("t" + id).getBytes(), String.valueOf(i).getBytes());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * 解析WAL段，校验每条记录完整且同一线程的记录保持写入顺序
+     * 遇到预分配的零区域或其他段残留的记录时结束
+     */
+    private static int verifyLog(Path segmentPath, long segmentNumber) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segmentPath));
+        Map<String, Integer> lastByThread = new HashMap<>();
+        int records = 0;
+        while (buffer.remaining() > 9) {
+            byte type = buffer.get();
+            if (type == 0 || buffer.getLong() != segmentNumber) {
+                break;
+            }
+            assertEquals(1, type);
+            buffer.getLong();
+            byte[] key = new byte[buffer.getInt()];
+            buffer.get(key);
+            byte[] value = new byte[buffer.getInt()];
+            buffer.get(value);
+            buffer.getInt(); // 校验和
+
+            String thread = new String(key);
+            int sequence = Integer.parseInt(new String(value));
+            assertEquals(lastByThread.getOrDefault(thread, -1) + 1, sequence, "order of " + thread);
+            lastByThread.put(thread, sequence);
+            records++;
+        }
+        return records;
+    }
+
+    @Test
+    public void testGroupCommitSyncsOncePerBatch() throws Exception {
+        WALManager walManager = new WALManager(tempDir, new WALConfig(WALConfig.SyncPolicy.PER_BATCH, 0));
+        Path walPath = walManager.segmentFilePath(walManager.getCurrentSegmentNumber());
+        writeConcurrently(walManager);
+
+        assertEquals(THREADS * RECORDS_PER_THREAD, walManager.getRecordCount());
+        assertEquals(walManager.getBatchCount(), walManager.getSyncCount());
+        assertTrue(walManager.getBatchCount() <= walManager.getRecordCount());
+        walManager.close();
+
+        assertEquals(THREADS * RECORDS_PER_THREAD, verifyLog(walPath, 1));
+    }
+
+    @Test
+    public void testPerWriteSyncsEveryRecord() throws Exception {
+        WALManager walManager = new WALManager(tempDir, new WALConfig(WALConfig.SyncPolicy.PER_WRITE, 0));
+        Path walPath = walManager.segmentFilePath(walManager.getCurrentSegmentNumber());
+        writeConcurrently(walManager);
+
+        assertEquals(THREADS * RECORDS_PER_THREAD, walManager.getSyncCount());
+        assertEquals(walManager.getRecordCount(), walManager.getBatchCount());
+        walManager.close();
+
+        assertEquals(THREADS * RECORDS_PER_THREAD, verifyLog(walPath, 1));
+    }
+
+    @Test
+    public void testOsOnlyPolicyNeverSyncs() throws Exception {
+        WALManager walManager = new WALManager(tempDir, new WALConfig(WALConfig.SyncPolicy.NONE, 0));
+        Path walPath = walManager.segmentFilePath(walManager.getCurrentSegmentNumber());
+        writeConcurrently(walManager);
+        walManager.close();
+
+        assertEquals(0, walManager.getSyncCount());
+        assertEquals(THREADS * RECORDS_PER_THREAD, verifyLog(walPath, 1));
+    }
+
+    @Test
+    public void testIntervalPolicySyncsInBackground() throws Exception {
+        WALManager walManager = new WALManager(tempDir, new WALConfig(WALConfig.SyncPolicy.INTERVAL, 10));
+        Path walPath = walManager.segmentFilePath(walManager.getCurrentSegmentNumber());
+        walManager.appendEntry("key".getBytes(), "0".getBytes());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (walManager.getSyncCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(walManager.getSyncCount() > 0, "background sync should run");
+        walManager.close();
+
+        assertThrows(RuntimeException.class, () -> walManager.appendEntry("key".getBytes(), "1".getBytes()));
+    }
+
+    @Test
+    public void testRotatedSegmentsAreRecycled() throws Exception {
+        WALConfig config = new WALConfig();
+        config.setSegmentPreallocateBytes(64 * 1024);
+        config.setMaxRecycledSegments(1);
+
+        WALManager walManager = new WALManager(tempDir, config);
+        assertEquals(64 * 1024, Files.size(walManager.segmentFilePath(1)));
+        for (int i = 0; i < 100; i++) {
+            walManager.appendEntry("t0".getBytes(), String.valueOf(i).getBytes());
+        }
+        assertEquals(2, walManager.rotate());
+        assertEquals(3, walManager.rotate());
+        assertEquals(Arrays.asList(1L, 2L, 3L), walManager.getLiveSegmentNumbers());
+
+        // 段1回收进复用池，段2因复用池已满而删除
+        walManager.deleteSegmentsBefore(3);
+        assertEquals(Collections.singletonList(3L), walManager.getLiveSegmentNumbers());
+        assertFalse(Files.exists(walManager.segmentFilePath(1)));
+        assertFalse(Files.exists(walManager.segmentFilePath(2)));
+
+        // 段4复用段1的文件，其中残留的旧记录不会被当作段4的数据
+        assertEquals(4, walManager.rotate());
+        Path reused = walManager.segmentFilePath(4);
+        assertEquals(0, verifyLog(reused, 4));
+        walManager.appendEntry("t0".getBytes(), "0".getBytes());
+        assertEquals(1, verifyLog(reused, 4));
+        walManager.close();
+
+        // 重新打开时未回收的段被保留，新段编号继续递增
+        WALManager reopened = new WALManager(tempDir, config);
+        assertEquals(Arrays.asList(3L, 4L, 5L), reopened.getLiveSegmentNumbers());
+        reopened.close();
+    }
+
+    @Test
+    public void testReaderStopsAtTornRecord() throws Exception {
+        WALConfig config = new WALConfig();
+        config.setSegmentPreallocateBytes(64 * 1024);
+        WALManager walManager = new WALManager(tempDir, config);
+        for (int i = 0; i < 10; i++) {
+            walManager.appendEntry(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        walManager.appendDeletion("key3".getBytes());
+        walManager.close();
+
+        Path segmentPath = walManager.segmentFilePath(1);
+        WALReader.Segment segment = WALReader.readSegment(segmentPath, 1);
+        List<WALRecord> records = segment.getRecords();
+        assertEquals(11, records.size());
+        assertArrayEquals("value9".getBytes(), records.get(9).getValue());
+        assertTrue(records.get(10).isDeletion());
+        assertNull(records.get(10).getValue());
+
+        // 模拟最后一条记录只写了一半：其余部分仍是预分配的零
+        byte[] content = Files.readAllBytes(segmentPath);
+        int end = (int) segment.getBytes();
+        Arrays.fill(content, end - 8, end, (byte) 0);
+        Files.write(segmentPath, content);
+
+        WALReader.Segment torn = WALReader.readSegment(segmentPath, 1);
+        assertEquals(10, torn.getRecords().size());
+        // 段编号不匹配时不读取任何记录
+        assertEquals(0, WALReader.readSegment(segmentPath, 2).getRecords().size());
+    }
+
+    @Test
+    public void testBatchIsOneRecordAndAllOrNothing() throws Exception {
+        WALConfig config = new WALConfig();
+        config.setSegmentPreallocateBytes(64 * 1024);
+        WALManager walManager = new WALManager(tempDir, config);
+        walManager.appendEntry("before".getBytes(), "0".getBytes());
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 5; i++) {
+            batch.put(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        batch.delete("key2".getBytes());
+        long firstSequence = walManager.appendBatch(batch);
+        walManager.close();
+
+        assertEquals(2, walManager.getRecordCount());
+        assertEquals(firstSequence + 5, walManager.getLastSequence());
+
+        Path segmentPath = walManager.segmentFilePath(1);
+        WALReader.Segment segment = WALReader.readSegment(segmentPath, 1);
+        List<WALRecord> records = segment.getRecords();
+        assertEquals(7, records.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(firstSequence + i, records.get(i + 1).getSequence());
+        }
+        assertTrue(records.get(6).isDeletion());
+
+        // 批次记录只写了一半时整个批次都不回放
+        byte[] content = Files.readAllBytes(segmentPath);
+        int end = (int) segment.getBytes();
+        Arrays.fill(content, end - 8, end, (byte) 0);
+        Files.write(segmentPath, content);
+        assertEquals(1, WALReader.readSegment(segmentPath, 1).getRecords().size());
+    }
+}
@@ -0,0 +1,220 @@
+package com.mojita.core.lsm.compaction;
+
+import com.mojita.core.lsm.WriteController;
+import com.mojita.core.lsm.config.CompactionConfig;
+import com.mojita.core.lsm.config.MemTableConfig;
+import com.mojita.core.lsm.sstable.SSTableBuilder;
+import com.mojita.core.lsm.sstable.SSTableMetadata;
+import com.mojita.core.lsm.sstable.SSTableReader;
+import com.mojita.core.lsm.util.Bytes;
+import com.mojita.core.lsm.version.Version;
+import com.mojita.core.lsm.version.VersionSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactionTest {
+    @TempDir
+    Path tempDir;
+
+    private static byte[] key(int i) {
+        return String.format("key%05d", i).getBytes();
+    }
+
+    private SSTableReader writeTable(VersionSet versionSet, int count, String valuePrefix) throws IOException {
+        long fileNumber = versionSet.newFileNumber();
+        Path path = versionSet.tableFilePath(fileNumber);
+        SSTableBuilder builder = new SSTableBuilder(path, fileNumber);
+        builder.setMaxSequence(fileNumber);
+        for (int i = 0; i < count; i++) {
+            builder.add(key(i), (valuePrefix + i).getBytes());
+        }
+        builder.finish();
+        builder.close();
+        return new SSTableReader(path);
+    }
+
+    @Test
+    public void testLevel0CompactionKeepsNewestValues() throws IOException {
+        CompactionConfig config = new CompactionConfig();
+        config.setLevel0FileNumTrigger(4);
+        config.setTargetFileSize(4096);
+
+        try (VersionSet versionSet = new VersionSet(tempDir)) {
+            LeveledCompactionStrategy strategy = new LeveledCompactionStrategy(config);
+            Compactor compactor = new Compactor(versionSet);
+
+            List<Path> inputPaths = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                SSTableReader table = writeTable(versionSet, 500, "v" + t + "-");
+                inputPaths.add(table.getPath());
+                versionSet.addTable(table);
+                if (t < 3) {
+                    assertFalse(strategy.needsCompaction(versionSet.current()));
+                }
+            }
+            assertTrue(strategy.needsCompaction(versionSet.current()));
+
+            Version version = versionSet.acquire();
+            Compaction compaction = strategy.pickCompaction(version);
+            assertNotNull(compaction);
+            assertEquals(0, compaction.getLevel());
+            assertEquals(1, compaction.getOutputLevel());
+            assertEquals(4, compaction.getInputs().size());
+            compactor.run(compaction);
+            versionSet.release(version);
+
+            Version compacted = versionSet.current();
+            assertTrue(compacted.getTables(0).isEmpty());
+            List<SSTableReader> level1 = compacted.getTables(1);
+            assertTrue(level1.size() > 1, "output should be split by target file size");
+
+            // 被覆盖的旧值已丢弃，L1文件之间键范围不重叠
+            long records = 0;
+            byte[] previousLargest = null;
+            for (SSTableReader table : level1) {
+                SSTableMetadata metadata = table.getMetadata();
+                assertEquals(1, metadata.getLevel());
+                records += metadata.getRecordCount();
+                if (previousLargest != null) {
+                    assertTrue(Bytes.compare(previousLargest, metadata.getSmallestKey()) < 0);
+                }
+                previousLargest = metadata.getLargestKey();
+            }
+            assertEquals(500, records);
+
+            for (int i = 0; i < 500; i++) {
+                assertArrayEquals(("v3-" + i).getBytes(), versionSet.get(key(i)));
+            }
+
+            // 输入文件在不再被引用后删除
+            for (Path path : inputPaths) {
+                assertFalse(Files.exists(path), "input should be deleted: " + path);
+            }
+        }
+
+        // 重新打开后只加载压缩后的文件
+        try (VersionSet reopened = new VersionSet(tempDir)) {
+            assertTrue(reopened.current().getTables(0).isEmpty());
+            assertArrayEquals("v3-42".getBytes(), reopened.get(key(42)));
+        }
+    }
+
+    @Test
+    public void testInputsStayReadableWhileVersionIsReferenced() throws IOException {
+        CompactionConfig config = new CompactionConfig();
+        config.setLevel0FileNumTrigger(2);
+
+        try (VersionSet versionSet = new VersionSet(tempDir)) {
+            versionSet.addTable(writeTable(versionSet, 100, "a"));
+            versionSet.addTable(writeTable(versionSet, 100, "b"));
+
+            Version reader = versionSet.acquire();
+            Version picking = versionSet.acquire();
+            Compaction compaction = new LeveledCompactionStrategy(config).pickCompaction(picking);
+            new Compactor(versionSet).run(compaction);
+            versionSet.release(picking);
+
+            // 旧版本仍被持有，其中的文件依然可读
+            assertArrayEquals("b7".getBytes(), reader.get(key(7)));
+            for (SSTableReader input : compaction.getInputs()) {
+                assertTrue(Files.exists(input.getPath()));
+            }
+
+            versionSet.release(reader);
+            for (SSTableReader input : compaction.getInputs()) {
+                assertFalse(Files.exists(input.getPath()));
+            }
+        }
+    }
+
+    @Test
+    public void testTieredCompactionMergesSimilarlySizedRuns() throws IOException {
+        CompactionConfig config = new CompactionConfig();
+        config.setStyle(CompactionConfig.Style.TIERED);
+        config.setLevel0FileNumTrigger(4);
+
+        try (VersionSet versionSet = new VersionSet(tempDir)) {
+            TieredCompactionStrategy strategy = new TieredCompactionStrategy(config);
+
+            // 从旧到新：一个大段、四个大小相近的段、一个很小的新段
+            SSTableReader big = writeTable(versionSet, 5000, "big");
+            versionSet.addTable(big);
+            for (int t = 0; t < 4; t++) {
+                versionSet.addTable(writeTable(versionSet, 300, "s" + t + "-"));
+            }
+            SSTableReader tiny = writeTable(versionSet, 10, "tiny");
+            versionSet.addTable(tiny);
+
+            Version version = versionSet.acquire();
+            Compaction compaction = strategy.pickCompaction(version);
+            assertNotNull(compaction);
+            assertEquals(0, compaction.getOutputLevel());
+            assertEquals(4, compaction.getInputs().size());
+            assertFalse(compaction.getInputs().contains(big));
+            assertFalse(compaction.getInputs().contains(tiny));
+            new Compactor(versionSet).run(compaction);
+            versionSet.release(version);
+
+            List<SSTableReader> runs = versionSet.current().getTables(0);
+            assertEquals(3, runs.size());
+            assertSame(tiny, runs.get(0));
+            assertSame(big, runs.get(2));
+            assertEquals(300, runs.get(1).getMetadata().getRecordCount());
+            assertFalse(strategy.needsCompaction(versionSet.current()));
+
+            assertArrayEquals("tiny5".getBytes(), versionSet.get(key(5)));
+            assertArrayEquals("s3-42".getBytes(), versionSet.get(key(42)));
+            assertArrayEquals("big4000".getBytes(), versionSet.get(key(4000)));
+        }
+    }
+
+    @Test
+    public void testTieredWritePressureIgnoresUnmergeableRuns() throws IOException {
+        CompactionConfig config = new CompactionConfig();
+        config.setStyle(CompactionConfig.Style.TIERED);
+        config.setLevel0FileNumTrigger(2);
+        config.setLevel0SlowdownWritesTrigger(3);
+        config.setLevel0StopWritesTrigger(5);
+        MemTableConfig memTableConfig = new MemTableConfig();
+        memTableConfig.setDelayedWriteRate(1024 * 1024 * 1024);
+
+        try (VersionSet versionSet = new VersionSet(tempDir)) {
+            TieredCompactionStrategy strategy = new TieredCompactionStrategy(config);
+            WriteController controller = new WriteController(memTableConfig, config, () -> 0,
+                () -> strategy.level0WritePressure(versionSet.current()));
+
+            // 从旧到新大小依次缩小一个量级，任何相邻的段都不满足大小比例，永远不会被合并
+            for (int count : new int[] {5000, 1000, 100, 10}) {
+                versionSet.addTable(writeTable(versionSet, count, "v" + count + "-"));
+            }
+            Version version = versionSet.current();
+            assertFalse(strategy.needsCompaction(version));
+            assertEquals(0, strategy.level0WritePressure(version));
+            // 分层策略的计数方式会让这些段越过停止阈值，写入永远等待
+            assertEquals(4, new LeveledCompactionStrategy(config).level0WritePressure(version));
+            controller.beforeWrite(100);
+            assertEquals(0, controller.getDelayedWrites());
+            assertEquals(0, controller.getStalledWrites());
+
+            // 新刷出的小段与最新的段大小相近，可以合并，计入写入压力并开始限速
+            for (int t = 0; t < 3; t++) {
+                versionSet.addTable(writeTable(versionSet, 10, "n" + t + "-"));
+            }
+            version = versionSet.current();
+            assertEquals(4, strategy.level0WritePressure(version));
+            assertEquals(4, strategy.pickCompaction(version).getInputs().size());
+            controller.beforeWrite(100);
+            assertEquals(1, controller.getDelayedWrites());
+            assertEquals(0, controller.getStalledWrites());
+            controller.close();
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package com.mojita.core.lsm.sstable;
 
 import com.mojita.core.lsm.sstable.bloom.BloomFilterPolicy;
+import com.mojita.core.lsm.sstable.compress.CompressionType;
+import com.mojita.core.lsm.util.Bytes;
+import com.mojita.core.lsm.util.InternalKey;
+import com.mojita.core.lsm.util.ValueType;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,9 +14,15 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -36,7 +46,8 @@ public class SSTableTest {
             }
         }
         sstablePath = testDataDir.resolve("test_" + System.currentTimeMillis() + ".sst");
-        testData = new HashMap<>();
+        // 构建器要求按键的顺序添加
+        testData = new TreeMap<>(Bytes.COMPARATOR);
         
         // 准备测试数据
         for (int i = 0; i < 100; i++) {
@@ -178,4 +189,438 @@ public class SSTableTest {
             }
         }
     }
-} 
\ No newline at end of file
+    
+    @Test
+    public void testLookupAndSeekInLargeBlocks() throws IOException {
+        // 大数据块中包含多个重启点，查找需要先在重启点上二分
+        SSTableBuilder builder = new SSTableBuilder(sstablePath, 1, 64 * 1024, new BloomFilterPolicy.DefaultPolicy(10));
+        for (int i = 0; i < 5000; i += 2) {
+            builder.add(String.format("key%05d", i).getBytes(), ("value" + i).getBytes());
+        }
+        builder.finish();
+        builder.close();
+        
+        try (SSTableReader reader = new SSTableReader(sstablePath)) {
+            for (int i = 0; i < 5000; i++) {
+                byte[] value = reader.get(String.format("key%05d", i).getBytes());
+                if (i % 2 == 0) {
+                    assertArrayEquals(("value" + i).getBytes(), value, "key " + i);
+                } else {
+                    assertNull(value, "key " + i);
+                }
+            }
+            
+            // 从不存在的键开始迭代，定位到下一个更大的键
+            Iterator<Map.Entry<InternalKey, byte[]>> iterator = reader.internalIterator("key01235".getBytes());
+            assertTrue(iterator.hasNext());
+            assertArrayEquals("key01236".getBytes(), iterator.next().getKey().getUserKey());
+            assertArrayEquals("key01238".getBytes(), iterator.next().getKey().getUserKey());
+        }
+    }
+    
+    @Test
+    public void testConcurrentReadsOnOneTable() throws Exception {
+        SSTableBuilder builder = new SSTableBuilder(sstablePath, 1);
+        for (int i = 0; i < 2000; i++) {
+            builder.add(String.format("key%05d", i).getBytes(), ("value" + i).getBytes());
+        }
+        builder.finish();
+        builder.close();
+        
+        try (SSTableReader reader = new SSTableReader(sstablePath)) {
+            List<Thread> threads = new ArrayList<>();
+            AtomicInteger failures = new AtomicInteger();
+            for (int t = 0; t < 8; t++) {
+                int offset = t;
+                Thread thread = new Thread(() -> {
+                    try {
+                        for (int i = offset; i < 2000; i += 3) {
+                            byte[] key = String.format("key%05d", i).getBytes();
+                            if (!reader.mayContain(key) || !Arrays.equals(("value" + i).getBytes(), reader.get(key))) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(0, failures.get());
+        }
+    }
+    
+    @Test
+    public void testMemoryMappedReads() throws IOException {
+        SSTableBuilder builder = new SSTableBuilder(sstablePath, 1, 64 * 1024, new BloomFilterPolicy.DefaultPolicy(10));
+        for (int i = 0; i < 5000; i += 2) {
+            builder.add(String.format("key%05d", i).getBytes(), ("value" + i).getBytes());
+        }
+        builder.finish();
+        builder.close();
+        
+        try (SSTableReader reader = new SSTableReader(sstablePath, true)) {
+            for (int i = 0; i < 5000; i++) {
+                byte[] key = String.format("key%05d", i).getBytes();
+                if (i % 2 == 0) {
+                    assertTrue(reader.mayContain(key), "key " + i);
+                    assertArrayEquals(("value" + i).getBytes(), reader.get(key), "key " + i);
+                } else {
+                    assertNull(reader.get(key), "key " + i);
+                }
+            }
+            
+            int count = 0;
+            for (Map.Entry<byte[], byte[]> entry : reader) {
+                assertArrayEquals(String.format("key%05d", count * 2).getBytes(), entry.getKey());
+                count++;
+            }
+            assertEquals(2500, count);
+        }
+    }
+    
+    @Test
+    public void testBlockCache() throws IOException {
+        SSTableBuilder builder = new SSTableBuilder(sstablePath, 1);
+        for (int i = 0; i < 2000; i++) {
+            builder.add(String.format("key%05d", i).getBytes(), ("value" + i).getBytes());
+        }
+        builder.finish();
+        builder.close();
+        
+        for (BlockCache.EvictionPolicy policy : BlockCache.EvictionPolicy.values()) {
+            // 容量只够缓存少量块，顺序读取整个文件时必然发生淘汰
+            BlockCache cache = new BlockCache(16 * 1024, 2, policy, policy == BlockCache.EvictionPolicy.CLOCK);
+            try (SSTableReader reader = new SSTableReader(sstablePath, false, cache)) {
+                byte[] key = "key00010".getBytes();
+                assertTrue(reader.mayContain(key));
+                assertArrayEquals("value10".getBytes(), reader.get(key));
+                assertArrayEquals("value10".getBytes(), reader.get(key));
+                assertEquals(1, cache.getMissCount(), policy.name());
+                assertEquals(1, cache.getHitCount(), policy.name());
+                
+                for (int i = 0; i < 2000; i++) {
+                    assertArrayEquals(("value" + i).getBytes(), reader.get(String.format("key%05d", i).getBytes()));
+                }
+                assertTrue(cache.getEvictionCount() > 0, policy.name());
+                assertTrue(cache.getUsage() <= 16 * 1024, policy.name());
+            }
+        }
+    }
+    
+    @Test
+    public void testTableCacheBoundsOpenFiles() throws IOException {
+        TableCache cache = new TableCache(2);
+        List<SSTableReader> readers = new ArrayList<>();
+        try {
+            for (int t = 0; t < 5; t++) {
+                Path path = tempDir.resolve("table_" + t + ".sst");
+                SSTableBuilder builder = new SSTableBuilder(path, t + 1);
+                for (int i = 0; i < 100; i++) {
+                    builder.add(String.format("t%d_key%05d", t, i).getBytes(), ("value" + i).getBytes());
+                }
+                builder.finish();
+                builder.close();
+                readers.add(new SSTableReader(path, false, null, cache));
+            }
+            
+            // 迭代器固定第一个文件，其他文件轮流被打开和关闭
+            Iterator<Map.Entry<InternalKey, byte[]>> pinned = readers.get(0).internalIterator();
+            for (int round = 0; round < 3; round++) {
+                for (int t = 0; t < 5; t++) {
+                    byte[] key = String.format("t%d_key%05d", t, round).getBytes();
+                    assertArrayEquals(("value" + round).getBytes(), readers.get(t).get(key));
+                    assertTrue(cache.getOpenFileCount() <= 3, "open files " + cache.getOpenFileCount());
+                }
+            }
+            assertTrue(cache.getEvictionCount() > 0);
+            
+            int count = 0;
+            while (pinned.hasNext()) {
+                assertArrayEquals(String.format("t0_key%05d", count).getBytes(), pinned.next().getKey().getUserKey());
+                count++;
+            }
+            assertEquals(100, count);
+        } finally {
+            for (SSTableReader reader : readers) {
+                reader.close();
+            }
+        }
+        assertEquals(0, cache.getOpenFileCount());
+    }
+    
+    @Test
+    public void testAbandonedIteratorReleasesTable() throws IOException {
+        TableCache cache = new TableCache(1);
+        List<SSTableReader> readers = new ArrayList<>();
+        try {
+            for (int t = 0; t < 2; t++) {
+                Path path = tempDir.resolve("table_" + t + ".sst");
+                SSTableBuilder builder = new SSTableBuilder(path, t + 1);
+                for (int i = 0; i < 100; i++) {
+                    builder.add(String.format("t%d_key%05d", t, i).getBytes(), ("value" + i).getBytes());
+                }
+                builder.finish();
+                builder.close();
+                readers.add(new SSTableReader(path, false, null, cache));
+            }
+            
+            // 迭代到一半放弃，关闭前文件一直固定：淘汰只能关闭另一个表，每次读取它都要重新打开
+            TableIterator<Map.Entry<byte[], byte[]>> abandoned = readers.get(0).iterator();
+            assertArrayEquals("t0_key00000".getBytes(), abandoned.next().getKey());
+            long opens = cache.getOpenCount();
+            for (int i = 0; i < 3; i++) {
+                assertArrayEquals("value1".getBytes(), readers.get(1).get("t1_key00001".getBytes()));
+                assertEquals(1, cache.getOpenFileCount());
+            }
+            assertEquals(opens + 3, cache.getOpenCount());
+            
+            // 关闭后解除固定，下一次读取另一个表时淘汰它，之后另一个表保持打开
+            abandoned.close();
+            assertArrayEquals("value1".getBytes(), readers.get(1).get("t1_key00001".getBytes()));
+            opens = cache.getOpenCount();
+            for (int i = 0; i < 3; i++) {
+                assertArrayEquals("value1".getBytes(), readers.get(1).get("t1_key00001".getBytes()));
+                assertEquals(1, cache.getOpenFileCount());
+            }
+            assertEquals(opens, cache.getOpenCount());
+            
+            // 用try-with-resources提前结束内部迭代器，同样不会留下固定
+            try (TableIterator<Map.Entry<InternalKey, byte[]>> internal = readers.get(0).internalIterator()) {
+                assertTrue(internal.hasNext());
+            }
+            assertArrayEquals("value1".getBytes(), readers.get(1).get("t1_key00001".getBytes()));
+            opens = cache.getOpenCount();
+            assertArrayEquals("value1".getBytes(), readers.get(1).get("t1_key00001".getBytes()));
+            assertEquals(opens, cache.getOpenCount());
+            assertEquals(1, cache.getOpenFileCount());
+        } finally {
+            for (SSTableReader reader : readers) {
+                reader.close();
+            }
+        }
+        assertEquals(0, cache.getOpenFileCount());
+    }
+    
+    @Test
+    public void testTableBloomFilterSizedByKeyCount() throws IOException {
+        SSTableBuilder builder = new SSTableBuilder(sstablePath, 1, 4096, new BloomFilterPolicy.DefaultPolicy(10));
+        for (int i = 0; i < 20000; i += 2) {
+            builder.add(String.format("key%06d", i).getBytes(), ("value" + i).getBytes());
+        }
+        builder.finish();
+        builder.close();
+        
+        try (SSTableReader reader = new SSTableReader(sstablePath)) {
+            // 过滤器按实际的10000个键、每键10位分配，向上取整为64字节的块
+            SSTableMetadata metadata = reader.getMetadata();
+            assertEquals(12 + (10000 * 10 + 511) / 512 * 64, metadata.getBloomFilterSize());
+            
+            int falsePositives = 0;
+            for (int i = 0; i < 20000; i++) {
+                byte[] key = String.format("key%06d", i).getBytes();
+                if (i % 2 == 0) {
+                    assertTrue(reader.mayContain(key), "key " + i);
+                    assertArrayEquals(("value" + i).getBytes(), reader.get(key));
+                } else if (reader.mayContain(key)) {
+                    falsePositives++;
+                }
+            }
+            // 每键10位的理论误判率约为1%
+            assertTrue(falsePositives < 300, "false positives " + falsePositives);
+        }
+    }
+    
+    @Test
+    public void testBlockCompression() throws IOException {
+        Random random = new Random(7);
+        Map<CompressionType, Long> sizes = new HashMap<>();
+        for (CompressionType type : CompressionType.values()) {
+            Path path = tempDir.resolve("compressed_" + type + ".sst");
+            SSTableBuilder builder = new SSTableBuilder(path, 1);
+            builder.setCompression(type);
+            for (int i = 0; i < 3000; i++) {
+                byte[] value;
+                if (i < 2000) {
+                    // 文本类的值，可压缩
+                    value = ("user-" + (i % 50) + " logged in from region-" + (i % 7) + " status=ok").getBytes();
+                } else {
+                    // 随机值，压缩后不会变小，按原样存储
+                    value = new byte[64];
+                    random.nextBytes(value);
+                }
+                builder.add(String.format("key%05d", i).getBytes(), value);
+            }
+            builder.finish();
+            builder.close();
+            sizes.put(type, Files.size(path));
+            
+            try (SSTableReader reader = new SSTableReader(path, true)) {
+                assertArrayEquals("user-10 logged in from region-3 status=ok".getBytes(),
+                    reader.get("key00010".getBytes()), type.name());
+                int count = 0;
+                for (Map.Entry<byte[], byte[]> entry : reader) {
+                    assertArrayEquals(String.format("key%05d", count).getBytes(), entry.getKey());
+                    count++;
+                }
+                assertEquals(3000, count, type.name());
+            }
+        }
+        assertTrue(sizes.get(CompressionType.LZ) < sizes.get(CompressionType.NONE) * 3 / 4, sizes.toString());
+        assertTrue(sizes.get(CompressionType.DEFLATE) < sizes.get(CompressionType.LZ), sizes.toString());
+    }
+    
+    @Test
+    public void testBlockChecksums() throws IOException {
+        Path path = tempDir.resolve("checksum.sst");
+        SSTableBuilder builder = new SSTableBuilder(path, 1);
+        for (int i = 0; i < 2000; i++) {
+            builder.add(String.format("key%05d", i).getBytes(), ("value" + i).getBytes());
+        }
+        builder.finish();
+        builder.close();
+        
+        ChecksumVerifier verifier = new ChecksumVerifier(ChecksumVerifier.Policy.ALWAYS);
+        try (SSTableReader reader = new SSTableReader(path, false, null, null, verifier)) {
+            assertArrayEquals("value100".getBytes(), reader.get("key00100".getBytes()));
+        }
+        // 页脚、索引块、过滤器块和一个数据块
+        assertEquals(4, verifier.getVerifiedCount());
+        assertEquals(0, verifier.getFailureCount());
+        
+        // 翻转第一个数据块中的一位
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[10] ^= 0x40;
+        Files.write(path, bytes);
+        
+        ChecksumVerifier always = new ChecksumVerifier(ChecksumVerifier.Policy.ALWAYS);
+        try (SSTableReader reader = new SSTableReader(path, false, null, null, always)) {
+            assertThrows(IOException.class, () -> reader.get("key00000".getBytes()));
+            assertEquals(1, always.getFailureCount());
+        }
+        
+        // 只校验压缩输入时普通读取不校验，压缩迭代器发现损坏
+        ChecksumVerifier compactionOnly = new ChecksumVerifier(ChecksumVerifier.Policy.COMPACTION_ONLY);
+        try (SSTableReader reader = new SSTableReader(path, false, null, null, compactionOnly)) {
+            assertArrayEquals("value1999".getBytes(), reader.get("key01999".getBytes()));
+            assertEquals(0, compactionOnly.getFailureCount());
+            Iterator<Map.Entry<InternalKey, byte[]>> iterator = reader.compactionIterator();
+            RuntimeException e = assertThrows(RuntimeException.class, iterator::hasNext);
+            assertTrue(e.getCause() instanceof IOException);
+            assertEquals(1, compactionOnly.getFailureCount());
+        }
+        
+        ChecksumVerifier never = new ChecksumVerifier(ChecksumVerifier.Policy.NEVER);
+        try (SSTableReader reader = new SSTableReader(path, false, null, null, never)) {
+            assertArrayEquals("value1999".getBytes(), reader.get("key01999".getBytes()));
+            assertEquals(0, never.getVerifiedCount());
+        }
+    }
+    
+    @Test
+    public void testPartitionedIndex() throws IOException {
+        Path path = tempDir.resolve("partitioned.sst");
+        String prefix = "tenant-0001/orders/";
+        SSTableBuilder builder = new SSTableBuilder(path, 1, 1024, new BloomFilterPolicy.DefaultPolicy(10));
+        for (int i = 0; i < 20000; i++) {
+            builder.add((prefix + String.format("%08d", i * 2)).getBytes(), ("value" + i).getBytes());
+        }
+        builder.finish();
+        builder.close();
+        
+        BlockCache cache = new BlockCache(1024 * 1024, 4, BlockCache.EvictionPolicy.CLOCK, false);
+        try (SSTableReader reader = new SSTableReader(path, false, cache)) {
+            // 索引超过一个块大小，拆成多个分区
+            assertTrue(reader.getMetadata().getIndexPartitions() > 1);
+            
+            for (int i = 0; i < 20000; i += 13) {
+                assertArrayEquals(("value" + i).getBytes(),
+                    reader.get((prefix + String.format("%08d", i * 2)).getBytes()), "key " + i);
+                // 相邻块之间的键落在分隔键两侧，都不存在
+                assertNull(reader.get((prefix + String.format("%08d", i * 2 + 1)).getBytes()));
+            }
+            assertNull(reader.get("tenant-0000".getBytes()));
+            assertNull(reader.get("tenant-0002".getBytes()));
+            
+            // 从中间的键开始迭代，跨越分区边界直到末尾
+            Iterator<Map.Entry<InternalKey, byte[]>> iterator =
+                reader.internalIterator((prefix + String.format("%08d", 10001)).getBytes());
+            int expected = 5001;
+            while (iterator.hasNext()) {
+                assertArrayEquals((prefix + String.format("%08d", expected * 2)).getBytes(),
+                    iterator.next().getKey().getUserKey());
+                expected++;
+            }
+            assertEquals(20000, expected);
+        }
+    }
+    
+    @Test
+    public void testBuilderRejectsOutOfOrderKeys() throws IOException {
+        Path path = tempDir.resolve("ordered.sst");
+        SSTableBuilder builder = new SSTableBuilder(path, 1);
+        builder.add("key2".getBytes(), "value2".getBytes());
+        assertThrows(IllegalArgumentException.class, () -> builder.add("key1".getBytes(), "value1".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("key2".getBytes(), "again".getBytes()));
+        builder.add(new InternalKey("key3".getBytes(), 7, ValueType.DELETE), null);
+        // 被拒绝的记录不影响最大序号
+        assertThrows(IllegalArgumentException.class,
+            () -> builder.add(new InternalKey("key1".getBytes(), 100, ValueType.PUT), "value1".getBytes()));
+        builder.finish();
+        builder.close();
+        
+        try (SSTableReader reader = new SSTableReader(path)) {
+            SSTableMetadata metadata = reader.getMetadata();
+            assertEquals(2, metadata.getRecordCount());
+            assertEquals(1, metadata.getDeletionCount());
+            assertEquals(7, metadata.getMaxSequence());
+            assertArrayEquals("key2".getBytes(), metadata.getSmallestKey());
+            assertArrayEquals("key3".getBytes(), metadata.getLargestKey());
+            assertArrayEquals("value2".getBytes(), reader.get("key2".getBytes()));
+            assertTrue(reader.getEntry("key3".getBytes()).getKey().isDeletion());
+        }
+    }
+    
+    @Test
+    public void testPipelinedWriteWithSmallBuffers() throws IOException {
+        Path pipelined = tempDir.resolve("pipelined.sst");
+        Path buffered = tempDir.resolve("buffered.sst");
+        try (SSTableBuilder small = new SSTableBuilder(pipelined, 1);
+             SSTableBuilder large = new SSTableBuilder(buffered, 1)) {
+            // 缓冲区远小于文件，写入期间多次切换缓冲区并增量同步
+            small.setWriteBufferSize(4096);
+            small.setBytesPerSync(16 * 1024);
+            large.setBytesPerSync(0);
+            for (int i = 0; i < 20000; i++) {
+                byte[] key = String.format("key%06d", i).getBytes();
+                byte[] value = ("value" + i).getBytes();
+                small.add(key, value);
+                large.add(key, value);
+            }
+            small.finish();
+            large.finish();
+            assertEquals(Files.size(pipelined), small.getFileSize());
+            
+            // 每个写满的4KB缓冲区都交给了I/O线程，每16KB同步一次
+            long fileSize = small.getFileSize();
+            assertEquals((fileSize + 4095) / 4096, small.getWriter().getBackgroundWrites());
+            assertEquals(fileSize / (16 * 1024), small.getWriter().getIncrementalSyncs());
+            assertEquals(0, large.getWriter().getIncrementalSyncs());
+        }
+        // 完成后缓冲区归还缓冲池，下一个文件直接复用
+        assertTrue(TableWriter.pooledBuffers() >= 2);
+        assertTrue(TableWriter.pooledBuffers() <= TableWriter.MAX_POOLED_BUFFERS);
+        
+        try (SSTableReader reader = new SSTableReader(pipelined)) {
+            assertEquals(20000, reader.getMetadata().getRecordCount());
+            assertArrayEquals("value0".getBytes(), reader.get("key000000".getBytes()));
+            assertArrayEquals("value12345".getBytes(), reader.get("key012345".getBytes()));
+            assertArrayEquals("value19999".getBytes(), reader.get("key019999".getBytes()));
+        }
+        assertEquals(Files.size(buffered), Files.size(pipelined));
+    }
+}
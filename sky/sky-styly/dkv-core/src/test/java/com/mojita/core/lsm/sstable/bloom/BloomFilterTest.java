@@ -0,0 +1,99 @@
+package com.mojita.core.lsm.sstable.bloom;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+    private static byte[] key(int i) {
+        return String.format("key%06d", i).getBytes();
+    }
+
+    @Test
+    public void testRoundTripHasNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10000 * 10, 7);
+        for (int i = 0; i < 20000; i += 2) {
+            filter.add(key(i));
+        }
+
+        byte[] data = filter.toByteArray();
+        // 格式标记 + 哈希函数数量 + 块数，位图向上取整为整块
+        assertEquals(12 + (10000 * 10 + 511) / 512 * 64, data.length);
+        assertEquals(-1, ByteBuffer.wrap(data).getInt());
+
+        BloomFilter restored = BloomFilter.fromByteArray(data);
+        assertArrayEquals(data, restored.toByteArray());
+        int falsePositives = 0;
+        for (int i = 0; i < 20000; i++) {
+            if (i % 2 == 0) {
+                assertTrue(filter.mightContain(key(i)), "key " + i);
+                assertTrue(restored.mightContain(key(i)), "key " + i);
+            } else if (restored.mightContain(key(i))) {
+                falsePositives++;
+            }
+        }
+        // 每键10位、7个哈希，理论误判率约1%
+        assertTrue(falsePositives < 300, "false positives " + falsePositives);
+    }
+
+    @Test
+    public void testAddHashesMatchesAdd() {
+        BloomFilter byKey = new BloomFilter(4096, 6);
+        BloomFilter byHash = new BloomFilter(4096, 6);
+        for (int i = 0; i < 300; i++) {
+            byKey.add(key(i));
+            long hash1 = BloomFilter.hash(key(i), 0);
+            byHash.addHashes(hash1, BloomFilter.hash(key(i), hash1));
+        }
+        assertArrayEquals(byKey.toByteArray(), byHash.toByteArray());
+    }
+
+    @Test
+    public void testReadLegacyFlatFormat() {
+        int bitSize = 10003;
+        int numHashFunctions = 5;
+        byte[] data = legacyFilter(bitSize, numHashFunctions, 1000);
+
+        BloomFilter filter = BloomFilter.fromByteArray(data);
+        int falsePositives = 0;
+        for (int i = 0; i < 2000; i++) {
+            if (i < 1000) {
+                assertTrue(filter.mightContain(key(i)), "key " + i);
+            } else if (filter.mightContain(key(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 100, "false positives " + falsePositives);
+        // 从缓冲区的当前位置读取
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 3);
+        buffer.position(3);
+        buffer.put(data);
+        buffer.position(3);
+        assertTrue(BloomFilter.fromByteBuffer(buffer).mightContain(key(0)));
+        assertThrows(IllegalStateException.class, filter::toByteArray);
+    }
+
+    /**
+     * 按旧格式编码：位数(4) + 哈希函数数量(4) + 位图字节，第i位在第i/8个字节的第i%8位
+     */
+    private static byte[] legacyFilter(int bitSize, int numHashFunctions, int keys) {
+        byte[] bits = new byte[(bitSize + 7) / 8];
+        for (int k = 0; k < keys; k++) {
+            long hash1 = BloomFilter.hash(key(k), 0);
+            long hash2 = BloomFilter.hash(key(k), hash1);
+            for (int i = 0; i < numHashFunctions; i++) {
+                long combinedHash = hash1 + i * hash2;
+                combinedHash = combinedHash < 0 ? ~combinedHash : combinedHash;
+                int index = (int) (combinedHash % bitSize);
+                bits[index / 8] |= 1 << (index % 8);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8 + bits.length);
+        buffer.putInt(bitSize);
+        buffer.putInt(numHashFunctions);
+        buffer.put(bits);
+        return buffer.array();
+    }
+}
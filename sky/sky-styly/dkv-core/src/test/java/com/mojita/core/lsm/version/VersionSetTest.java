@@ -0,0 +1,66 @@
+package com.mojita.core.lsm.version;
+
+import com.mojita.core.lsm.sstable.SSTableBuilder;
+import com.mojita.core.lsm.sstable.SSTableReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VersionSetTest {
+    @TempDir
+    Path tempDir;
+
+    private Path writeTable(VersionSet versionSet, int from, int to, String valuePrefix) throws IOException {
+        long fileNumber = versionSet.newFileNumber();
+        Path path = versionSet.tableFilePath(fileNumber);
+        SSTableBuilder builder = new SSTableBuilder(path, fileNumber);
+        for (int i = from; i < to; i++) {
+            builder.add(String.format("key%03d", i).getBytes(), (valuePrefix + i).getBytes());
+        }
+        builder.finish();
+        builder.close();
+        return path;
+    }
+
+    @Test
+    public void testNewestTableWins() throws IOException {
+        try (VersionSet versionSet = new VersionSet(tempDir)) {
+            versionSet.addTable(new SSTableReader(writeTable(versionSet, 0, 50, "old")));
+            versionSet.addTable(new SSTableReader(writeTable(versionSet, 25, 75, "new")));
+
+            assertEquals(2, versionSet.current().getTableCount());
+            assertArrayEquals("old10".getBytes(), versionSet.get("key010".getBytes()));
+            assertArrayEquals("new30".getBytes(), versionSet.get("key030".getBytes()));
+            assertArrayEquals("new60".getBytes(), versionSet.get("key060".getBytes()));
+
+            // 键范围之外以及范围之内但不存在的键
+            assertNull(versionSet.get("key100".getBytes()));
+            assertNull(versionSet.get("key".getBytes()));
+        }
+    }
+
+    @Test
+    public void testReloadExistingTables() throws IOException {
+        long lastNumber;
+        try (VersionSet versionSet = new VersionSet(tempDir)) {
+            versionSet.addTable(new SSTableReader(writeTable(versionSet, 0, 10, "a")));
+            versionSet.addTable(new SSTableReader(writeTable(versionSet, 5, 15, "b")));
+            // 写完但未安装的文件在重新打开时被清理
+            writeTable(versionSet, 0, 20, "orphan");
+            lastNumber = versionSet.newFileNumber();
+        }
+
+        try (VersionSet reopened = new VersionSet(tempDir)) {
+            assertEquals(2, reopened.current().getTableCount());
+            assertArrayEquals("b7".getBytes(), reopened.get("key007".getBytes()));
+            assertArrayEquals("a2".getBytes(), reopened.get("key002".getBytes()));
+            assertNull(reopened.get("key017".getBytes()));
+            // 文件编号不能与已有文件冲突
+            assertEquals(lastNumber, reopened.newFileNumber());
+        }
+    }
+}